@@ -41,21 +41,36 @@ public class EmrOrderServiceImpl_1_10 implements EmrOrderService {
 
     @Override
     public void save(List<EncounterTransaction.DrugOrder> drugOrders, Encounter encounter) {
+        addDrugOrders(drugOrders, encounter);
+        encounterService.saveEncounter(encounter);
+    }
+
+    @Override
+    public void saveOrders(List<EncounterTransaction.Order> orders, Encounter encounter) {
+        addOrders(orders, encounter);
+        encounterService.saveEncounter(encounter);
+    }
+
+    @Override
+    public void save(List<EncounterTransaction.DrugOrder> drugOrders, List<EncounterTransaction.Order> orders, Encounter encounter) {
+        addDrugOrders(drugOrders, encounter);
+        addOrders(orders, encounter);
+        encounterService.saveEncounter(encounter);
+    }
+
+    private void addDrugOrders(List<EncounterTransaction.DrugOrder> drugOrders, Encounter encounter) {
         encounter.setOrders(new LinkedHashSet<org.openmrs.Order>(encounter.getOrders()));
         for (EncounterTransaction.DrugOrder drugOrder : drugOrders) {
             DrugOrder omrsDrugOrder = openMRSDrugOrderMapper.map(drugOrder, encounter);
             encounter.addOrder(omrsDrugOrder);
         }
-        encounterService.saveEncounter(encounter);
     }
 
-    @Override
-    public void saveOrders(List<EncounterTransaction.Order> orders, Encounter encounter) {
+    private void addOrders(List<EncounterTransaction.Order> orders, Encounter encounter) {
         for (EncounterTransaction.Order order : orders) {
             Order omrsOrder = openMRSOrderMapper.map(order, encounter);
             encounter.addOrder(omrsOrder);
         }
-        encounterService.saveEncounter(encounter);
     }
 
 }
@@ -25,6 +25,7 @@ import org.openmrs.api.APIException;
 import org.openmrs.api.ConceptService;
 import org.openmrs.api.OrderService;
 import org.openmrs.api.context.Context;
+import org.openmrs.module.emrapi.encounter.EncounterMetadataCache;
 import org.openmrs.module.emrapi.encounter.domain.EncounterTransaction;
 import org.openmrs.module.emrapi.encounter.service.OrderMetadataService;
 
@@ -38,6 +39,7 @@ public class OpenMRSDrugOrderMapper {
 
     private OrderService orderService;
     private ConceptService conceptService;
+    private EncounterMetadataCache metadataCache;
     private DosingInstructionsMapper dosingInstructionsMapper;
     private OrderMetadataService orderMetadataService;
     public static final Order.Urgency DEFAULT_URGENCY = Order.Urgency.ROUTINE;
@@ -50,6 +52,10 @@ public class OpenMRSDrugOrderMapper {
         this.orderMetadataService = orderMetadataService;
     }
 
+    public void setMetadataCache(EncounterMetadataCache metadataCache) {
+        this.metadataCache = metadataCache;
+    }
+
     public DrugOrder map(EncounterTransaction.DrugOrder drugOrder, Encounter encounter) {
         DrugOrder openMRSDrugOrder = createDrugOrder(drugOrder);
         openMRSDrugOrder.setCareSetting(getCareSettingFrom(drugOrder, openMRSDrugOrder));
@@ -120,6 +126,10 @@ public class OpenMRSDrugOrderMapper {
         if (drug.getUuid() == null || drug.getUuid().isEmpty()) {
             return conceptService.getDrug(drug.getName());
         }
-        return conceptService.getDrugByUuid(drug.getUuid());
+        return getDrugByUuid(drug.getUuid());
+    }
+
+    private Drug getDrugByUuid(String uuid) {
+        return metadataCache != null ? metadataCache.getDrug(uuid) : conceptService.getDrugByUuid(uuid);
     }
 }
\ No newline at end of file
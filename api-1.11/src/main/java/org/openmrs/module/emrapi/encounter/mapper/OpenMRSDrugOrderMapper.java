@@ -26,6 +26,7 @@ import org.openmrs.api.APIException;
 import org.openmrs.api.ConceptService;
 import org.openmrs.api.OrderService;
 import org.openmrs.api.context.Context;
+import org.openmrs.module.emrapi.encounter.EncounterMetadataCache;
 import org.openmrs.module.emrapi.encounter.domain.EncounterTransaction;
 import org.openmrs.module.emrapi.encounter.service.OrderMetadataService;
 
@@ -39,6 +40,7 @@ public class OpenMRSDrugOrderMapper {
 
     private OrderService orderService;
     private ConceptService conceptService;
+    private EncounterMetadataCache metadataCache;
     private DosingInstructionsMapper dosingInstructionsMapper;
     private OrderMetadataService orderMetadataService;
     public static final Order.Urgency DEFAULT_URGENCY = Order.Urgency.ROUTINE;
@@ -51,6 +53,10 @@ public class OpenMRSDrugOrderMapper {
         this.orderMetadataService = orderMetadataService;
     }
 
+    public void setMetadataCache(EncounterMetadataCache metadataCache) {
+        this.metadataCache = metadataCache;
+    }
+
     public DrugOrder map(EncounterTransaction.DrugOrder drugOrder, Encounter encounter) {
         Concept conceptByUuid;
         DrugOrder openMRSDrugOrder = createDrugOrder(drugOrder);
@@ -74,7 +80,7 @@ public class OpenMRSDrugOrderMapper {
         openMRSDrugOrder.setDurationUnits(orderMetadataService.getDurationUnitsConceptByName(drugOrder.getDurationUnits()));
         openMRSDrugOrder.setAutoExpireDate(drugOrder.getAutoExpireDate());
         if(drugOrder.getOrderReasonConcept() != null) {
-            conceptByUuid = conceptService.getConceptByUuid(drugOrder.getOrderReasonConcept().getUuid());
+            conceptByUuid = getConceptByUuid(drugOrder.getOrderReasonConcept().getUuid());
             openMRSDrugOrder.setOrderReason(conceptByUuid);
         }
         openMRSDrugOrder.setOrderReasonNonCoded(drugOrder.getOrderReasonText());
@@ -127,6 +133,14 @@ public class OpenMRSDrugOrderMapper {
         if (drug.getUuid() == null || drug.getUuid().isEmpty()) {
             return conceptService.getDrug(drug.getName());
         }
-        return conceptService.getDrugByUuid(drug.getUuid());
+        return getDrugByUuid(drug.getUuid());
+    }
+
+    private Concept getConceptByUuid(String uuid) {
+        return metadataCache != null ? metadataCache.getConcept(uuid) : conceptService.getConceptByUuid(uuid);
+    }
+
+    private Drug getDrugByUuid(String uuid) {
+        return metadataCache != null ? metadataCache.getDrug(uuid) : conceptService.getDrugByUuid(uuid);
     }
 }
\ No newline at end of file
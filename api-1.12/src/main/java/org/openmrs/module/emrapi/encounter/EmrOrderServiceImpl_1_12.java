@@ -56,6 +56,24 @@ public class EmrOrderServiceImpl_1_12 implements EmrOrderService {
 
     @Override
     public void save(List<EncounterTransaction.DrugOrder> drugOrders, Encounter encounter) {
+        addDrugOrders(drugOrders, encounter);
+        encounterService.saveEncounter(encounter);
+    }
+
+    @Override
+    public void saveOrders(List<EncounterTransaction.Order> orders, Encounter encounter) {
+        addOrders(orders, encounter);
+        encounterService.saveEncounter(encounter);
+    }
+
+    @Override
+    public void save(List<EncounterTransaction.DrugOrder> drugOrders, List<EncounterTransaction.Order> orders, Encounter encounter) {
+        addDrugOrders(drugOrders, encounter);
+        addOrders(orders, encounter);
+        encounterService.saveEncounter(encounter);
+    }
+
+    private void addDrugOrders(List<EncounterTransaction.DrugOrder> drugOrders, Encounter encounter) {
         Set<OrderGroup> orderGroups = new LinkedHashSet<OrderGroup>();
 
         for (EncounterTransaction.DrugOrder drugOrder : drugOrders) {
@@ -64,11 +82,9 @@ public class EmrOrderServiceImpl_1_12 implements EmrOrderService {
             omrsDrugOrder.setOrderGroup(orderGroup);
             encounter.addOrder(omrsDrugOrder);
         }
-        encounterService.saveEncounter(encounter);
     }
 
-    @Override
-    public void saveOrders(List<EncounterTransaction.Order> orders, Encounter encounter) {
+    private void addOrders(List<EncounterTransaction.Order> orders, Encounter encounter) {
         Set<OrderGroup> orderGroups = new LinkedHashSet<OrderGroup>();
 
         for (EncounterTransaction.Order order : orders) {
@@ -79,7 +95,6 @@ public class EmrOrderServiceImpl_1_12 implements EmrOrderService {
 
             encounter.addOrder(omrsOrder);
         }
-        encounterService.saveEncounter(encounter);
     }
 
     private OrderGroup mapToOpenMRSOrderGroup(Set<OrderGroup> orderGroups, EncounterTransaction.OrderGroup newOrderGroup, Encounter encounter) {
@@ -26,6 +26,7 @@ import org.openmrs.api.APIException;
 import org.openmrs.api.ConceptService;
 import org.openmrs.api.OrderService;
 import org.openmrs.api.context.Context;
+import org.openmrs.module.emrapi.encounter.EncounterMetadataCache;
 import org.openmrs.module.emrapi.encounter.domain.EncounterTransaction;
 import org.openmrs.module.emrapi.encounter.service.OrderMetadataService;
 import org.openmrs.util.LocaleUtility;
@@ -42,6 +43,7 @@ public class OpenMRSDrugOrderMapper {
 
     private OrderService orderService;
     private ConceptService conceptService;
+    private EncounterMetadataCache metadataCache;
     private DosingInstructionsMapper dosingInstructionsMapper;
     private OrderMetadataService orderMetadataService;
     public static final Order.Urgency DEFAULT_URGENCY = Order.Urgency.ROUTINE;
@@ -54,6 +56,10 @@ public class OpenMRSDrugOrderMapper {
         this.orderMetadataService = orderMetadataService;
     }
 
+    public void setMetadataCache(EncounterMetadataCache metadataCache) {
+        this.metadataCache = metadataCache;
+    }
+
     public DrugOrder map(EncounterTransaction.DrugOrder drugOrder, Encounter encounter) {
         Concept conceptByUuid;
         DrugOrder openMRSDrugOrder = createDrugOrder(drugOrder);
@@ -87,7 +93,7 @@ public class OpenMRSDrugOrderMapper {
 
         openMRSDrugOrder.setAutoExpireDate(drugOrder.getAutoExpireDate());
         if(drugOrder.getOrderReasonConcept() != null) {
-            conceptByUuid = conceptService.getConceptByUuid(drugOrder.getOrderReasonConcept().getUuid());
+            conceptByUuid = getConceptByUuid(drugOrder.getOrderReasonConcept().getUuid());
             openMRSDrugOrder.setOrderReason(conceptByUuid);
         }
         openMRSDrugOrder.setOrderReasonNonCoded(drugOrder.getOrderReasonText());
@@ -143,7 +149,7 @@ public class OpenMRSDrugOrderMapper {
         if (drug.getUuid() == null || drug.getUuid().isEmpty()) {
             return conceptService.getDrug(drug.getName());
         }
-        return conceptService.getDrugByUuid(drug.getUuid());
+        return getDrugByUuid(drug.getUuid());
     }
 
     private Concept getConceptFrom(EncounterTransaction.DrugOrder drugOrder, DrugOrder openMRSDrugOrder) {
@@ -157,11 +163,19 @@ public class OpenMRSDrugOrderMapper {
             conceptByUuid = null;
         }
         else {
-            conceptByUuid = conceptService.getConceptByUuid(concept.getUuid());
+            conceptByUuid = getConceptByUuid(concept.getUuid());
             if (conceptByUuid == null) {
                 throw new APIException("No such Concept : " + drugOrder.getConcept().getName());
             }
         }
         return conceptByUuid;
     }
+
+    private Concept getConceptByUuid(String uuid) {
+        return metadataCache != null ? metadataCache.getConcept(uuid) : conceptService.getConceptByUuid(uuid);
+    }
+
+    private Drug getDrugByUuid(String uuid) {
+        return metadataCache != null ? metadataCache.getDrug(uuid) : conceptService.getDrugByUuid(uuid);
+    }
 }
\ No newline at end of file
@@ -21,6 +21,7 @@ import org.openmrs.api.APIException;
 import org.openmrs.api.ConceptService;
 import org.openmrs.api.OrderService;
 import org.openmrs.module.emrapi.CareSettingType;
+import org.openmrs.module.emrapi.encounter.EncounterMetadataCache;
 import org.openmrs.module.emrapi.encounter.domain.EncounterTransaction;
 
 import java.util.Iterator;
@@ -34,12 +35,17 @@ import java.util.Iterator;
 public class OpenMRSOrderMapper {
     private OrderService orderService;
     private ConceptService conceptService;
+    private EncounterMetadataCache metadataCache;
 
     public OpenMRSOrderMapper(OrderService orderService, ConceptService conceptService) {
         this.orderService = orderService;
         this.conceptService = conceptService;
     }
 
+    public void setMetadataCache(EncounterMetadataCache metadataCache) {
+        this.metadataCache = metadataCache;
+    }
+
     public Order map(EncounterTransaction.Order order, Encounter encounter) {
 
         Order openMRSOrder = createOrder(order);
@@ -85,7 +91,7 @@ public class OpenMRSOrderMapper {
         }
 
         EncounterTransaction.Concept concept = order.getConcept();
-        Concept conceptByUuid = conceptService.getConceptByUuid(concept.getUuid());
+        Concept conceptByUuid = getConceptByUuid(concept.getUuid());
         if (conceptByUuid == null) {
             throw new APIException("No such Concept : " + order.getConcept().getName());
         }
@@ -107,5 +113,7 @@ public class OpenMRSOrderMapper {
         throw new APIException("Encounter doesn't have a provider.");
     }
 
-
+    private Concept getConceptByUuid(String uuid) {
+        return metadataCache != null ? metadataCache.getConcept(uuid) : conceptService.getConceptByUuid(uuid);
+    }
 }
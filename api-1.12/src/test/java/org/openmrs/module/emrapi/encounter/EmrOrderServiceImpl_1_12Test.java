@@ -117,6 +117,28 @@ public class EmrOrderServiceImpl_1_12Test {
         assertThat((DrugOrder)savedOrders.get(3), is(sameInstance(mappedDrugOrder4)));
     }
 
+    @Test
+    public void shouldSaveDrugOrdersAndOrdersWithOneEncounterSave() throws ParseException {
+        EmrOrderServiceImpl_1_12 emrOrderService = new EmrOrderServiceImpl_1_12(openMRSDrugOrderMapper, encounterService, openMRSOrderMapper, orderSetService, openMRSOrderGroupMapper);
+        EncounterTransaction.DrugOrder drugOrder = new DrugOrderBuilder().withDrugUuid("drug-uuid1").build();
+        EncounterTransaction.Order order = new OrderBuilder().withConceptUuid("concept-uuid1").withComment("Comment").build();
+        DrugOrder mappedDrugOrder = new DrugOrder();
+        Order mappedOrder = new Order();
+        Encounter encounter = new Encounter();
+        when(openMRSDrugOrderMapper.map(drugOrder, encounter)).thenReturn(mappedDrugOrder);
+        when(openMRSOrderMapper.map(order, encounter)).thenReturn(mappedOrder);
+
+        emrOrderService.save(Arrays.asList(drugOrder), Arrays.asList(order), encounter);
+
+        ArgumentCaptor<Encounter> encounterArgumentCaptor = ArgumentCaptor.forClass(Encounter.class);
+        verify(encounterService).saveEncounter(encounterArgumentCaptor.capture());
+        Encounter savedEncounter = encounterArgumentCaptor.getValue();
+        ArrayList<Order> savedOrders = new ArrayList<Order>(savedEncounter.getOrders());
+        assertThat(savedOrders.size(), is(2));
+        assertThat((DrugOrder)savedOrders.get(0), is(sameInstance(mappedDrugOrder)));
+        assertThat(savedOrders.get(1), is(sameInstance(mappedOrder)));
+    }
+
     @Test
     public void shouldSaveOrders() throws ParseException {
         EmrOrderServiceImpl_1_12 emrOrderService = new EmrOrderServiceImpl_1_12(openMRSDrugOrderMapper, encounterService, openMRSOrderMapper, orderSetService, openMRSOrderGroupMapper);
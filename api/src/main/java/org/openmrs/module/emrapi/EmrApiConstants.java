@@ -92,6 +92,8 @@ public class EmrApiConstants {
 
     public static final String PRIVILEGE_DELETE_VISIT = "Task: emr.patient.visit.delete";
 
+    public static final String PRIVILEGE_MERGE_PATIENTS = "Merge Patients";
+
     public static final String UNKNOWN_PATIENT_PERSON_ATTRIBUTE_TYPE_NAME = "Unknown patient";
 
     public static final String TEST_PATIENT_ATTRIBUTE_UUID = "4f07985c-88a5-4abd-aa0c-f3ec8324d8e7";
@@ -178,6 +180,20 @@ public class EmrApiConstants {
 
     public static final int DEFAULT_VISIT_EXPIRE_HOURS = 12;
 
+    public static final String GP_CLOSE_INACTIVE_VISITS_BATCH_SIZE = "emrapi.closeInactiveVisitsBatchSize";
+
+    public static final int DEFAULT_CLOSE_INACTIVE_VISITS_BATCH_SIZE = 500;
+
+    public static final String GP_ENCOUNTER_TRANSACTION_BATCH_SIZE = "emrapi.encounterTransactionBatchSize";
+
+    public static final int DEFAULT_ENCOUNTER_TRANSACTION_BATCH_SIZE = 50;
+
+    public static final String GP_ENCOUNTER_MATCHER = "emr.encounterMatcher";
+
+    public static final String GP_LOCK_CHECK_IN_IN_DATABASE = "emrapi.lockCheckInInDatabase";
+
+    public static final String GP_USE_INPATIENT_CENSUS_TABLE = "emrapi.useInpatientCensusTable";
+
     /*public static final String CONCEPT_CODE_DISPOSITION = "Disposition";
 
     public static final String CONCEPTDISPOSITION_ANSWER_ADMIT = "Admit";
@@ -129,6 +129,25 @@ public class EmrApiProperties extends ModuleProperties {
         return NumberUtils.toInt(getGlobalProperty(EmrApiConstants.GP_VISIT_EXPIRE_HOURS, false), EmrApiConstants.DEFAULT_VISIT_EXPIRE_HOURS);
 	}
 
+	public int getCloseInactiveVisitsBatchSize() {
+		return NumberUtils.toInt(getGlobalProperty(EmrApiConstants.GP_CLOSE_INACTIVE_VISITS_BATCH_SIZE, false), EmrApiConstants.DEFAULT_CLOSE_INACTIVE_VISITS_BATCH_SIZE);
+	}
+
+	/**
+	 * @return true if check-in should also lock the patient's row in the database, so that several servers sharing a
+	 * database cannot check the same patient in concurrently
+	 */
+	public boolean getLockCheckInInDatabase() {
+		return "TRUE".equalsIgnoreCase(getGlobalProperty(EmrApiConstants.GP_LOCK_CHECK_IN_IN_DATABASE, false));
+	}
+
+	/**
+	 * @return true if ward census queries should read from the incrementally maintained inpatient census table
+	 */
+	public boolean getUseInpatientCensusTable() {
+		return "TRUE".equalsIgnoreCase(getGlobalProperty(EmrApiConstants.GP_USE_INPATIENT_CENSUS_TABLE, false));
+	}
+
 	public VisitType getAtFacilityVisitType() {
 		return getEmrApiMetadataByCode(VisitType.class, EmrApiConstants.GP_AT_FACILITY_VISIT_TYPE);
 	}
@@ -150,9 +169,16 @@ public class EmrApiProperties extends ModuleProperties {
 	}
 
 	public PersonAttributeType getTestPatientPersonAttributeType() {
-		PersonAttributeType type = null;
-		type = personService.getPersonAttributeTypeByUuid(EmrApiConstants.TEST_PATIENT_ATTRIBUTE_UUID);
-		if (type == null) {
+		return getTestPatientPersonAttributeType(true);
+	}
+
+	/**
+	 * @param required if true, throw an exception if the test patient attribute type does not exist
+	 * @return the test patient attribute type, or null if it does not exist and is not required
+	 */
+	public PersonAttributeType getTestPatientPersonAttributeType(boolean required) {
+		PersonAttributeType type = personService.getPersonAttributeTypeByUuid(EmrApiConstants.TEST_PATIENT_ATTRIBUTE_UUID);
+		if (required && type == null) {
 			throw new IllegalStateException("Configuration required: Test Patient Attribute UUID");
 		}
 		return type;
@@ -0,0 +1,170 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+package org.openmrs.module.emrapi.adt;
+
+import org.openmrs.Concept;
+import org.openmrs.EncounterType;
+import org.openmrs.Location;
+import org.openmrs.Patient;
+import org.openmrs.PersonAttributeType;
+import org.openmrs.User;
+import org.openmrs.Visit;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Set-based queries backing {@link AdtService}, so that questions about many visits can be answered without
+ * loading and walking each visit in memory
+ */
+public interface AdtDAO {
+
+    /**
+     * Returns the ids of open, non-voided visits at the given visit locations that started before
+     * mustHaveSomethingAfter and have no non-voided encounter on or after it. Visits that are definitely admitted, or
+     * whose most recent disposition keeps the visit open, are excluded.
+     *
+     * @param visitLocations locations tagged to support visits (required)
+     * @param mustHaveSomethingAfter visits with no activity since this datetime are candidates
+     * @param admissionEncounterType optional; if null admitted visits are not excluded
+     * @param dischargeEncounterType optional
+     * @param dispositionConcept optional; if null dispositions are not considered
+     * @param keepsVisitOpenDispositions the coded values of dispositions that keep a visit open
+     * @return visit ids, ordered by id
+     */
+    List<Integer> getVisitIdsToClose(Collection<Location> visitLocations, Date mustHaveSomethingAfter,
+                                     EncounterType admissionEncounterType, EncounterType dischargeEncounterType,
+                                     Concept dispositionConcept, Collection<Concept> keepsVisitOpenDispositions);
+
+    /**
+     * Returns the patient's non-voided visits that are open at the given instant (started on or before it, and not
+     * stopped before it) and whose location is one of the given locations. Callers pass a location and its ancestors,
+     * so that only visits whose location contains that location are fetched, however long the patient's history.
+     *
+     * @param patient
+     * @param locations candidate visit locations; if null, only visits with no location are returned
+     * @param when
+     * @return matching visits, most recently started first
+     */
+    List<Visit> getVisitsOpenAt(Patient patient, Collection<Location> locations, Date when);
+
+    /**
+     * Returns open, non-voided visits at any of the given locations, excluding test patients
+     *
+     * @param locations (required)
+     * @param testPatientAttributeType optional; patients with this attribute set to "true" are excluded
+     * @return visits, most recently started first
+     */
+    List<Visit> getActiveVisits(Collection<Location> locations, PersonAttributeType testPatientAttributeType);
+
+    /**
+     * Ward census: returns open, non-voided visits at the given visit locations whose patient is currently admitted
+     * (the visit has a non-voided admission with no discharge on or after it), optionally restricted to patients whose
+     * latest admission or transfer encounter was at the given ward. Test patients are excluded.
+     *
+     * @param visitLocations the visit location and its descendants (required)
+     * @param ward optional
+     * @param admissionEncounterType
+     * @param dischargeEncounterType optional
+     * @param transferEncounterType
+     * @param testPatientAttributeType optional; patients with this attribute set to "true" are excluded
+     * @param start index of the first result to return, or null to start at the beginning
+     * @param length maximum number of results, or null for all
+     * @return visits, most recently started first
+     */
+    List<Visit> getInpatientVisits(Collection<Location> visitLocations, Location ward, EncounterType admissionEncounterType,
+                                   EncounterType dischargeEncounterType, EncounterType transferEncounterType,
+                                   PersonAttributeType testPatientAttributeType, Integer start, Integer length);
+
+    /**
+     * @return the total number of visits {@link #getInpatientVisits} would return without paging
+     */
+    long getCountOfInpatientVisits(Collection<Location> visitLocations, Location ward, EncounterType admissionEncounterType,
+                                   EncounterType dischargeEncounterType, EncounterType transferEncounterType,
+                                   PersonAttributeType testPatientAttributeType);
+
+    /**
+     * Takes a database write lock on the patient's row (select ... for update), held until the current transaction
+     * ends, so that other transactions (possibly on other servers) doing the same wait for this one to commit.
+     * Does nothing for a patient that has not been saved.
+     *
+     * @param patient
+     */
+    void lockPatient(Patient patient);
+
+    /**
+     * @return the parent location id of every location (including retired ones), keyed by location id; top-level
+     * locations map to null
+     */
+    Map<Integer, Integer> getParentLocationIds();
+
+    /**
+     * @param tagName
+     * @return ids of all locations with the named tag
+     */
+    Set<Integer> getLocationIdsWithTag(String tagName);
+
+    /**
+     * @param locationId
+     * @return a (possibly uninitialized) reference to the location, without necessarily hitting the database
+     */
+    Location getLocationReference(Integer locationId);
+
+    /**
+     * Selects just the ids of the patient's non-voided visits, in the same order as
+     * {@link org.openmrs.api.VisitService#getVisitsByPatient(Patient, boolean, boolean)}, without loading the visits
+     *
+     * @param patient (must have been saved)
+     * @return visit ids, most recently started first (ties broken by visit id, descending)
+     */
+    List<Integer> getVisitIdsByPatient(Patient patient);
+
+    /**
+     * Loads the given visits in one query
+     *
+     * @param visitIds
+     * @return the visits that exist, in no particular order
+     */
+    List<Visit> getVisitsByIds(Collection<Integer> visitIds);
+
+    /**
+     * Moves all of a visit's encounters (including voided ones) to another visit, and to that visit's patient, with
+     * set-based updates rather than by saving each encounter. If the patient changes, the encounters' obs and orders
+     * are moved to the new patient too, as saving each encounter would do. Since the encounters are not saved through
+     * the EncounterService, no encounter save handlers run and no encounter events are fired for them.
+     * <p/>
+     * Pending changes are flushed first. Afterwards the moved encounters are evicted from the session, both visits'
+     * encounter collections are evicted from the second-level cache, and both visits are refreshed from the database.
+     * For a visit that is not attached to the session, refreshing discards any unsaved changes, so change the visits
+     * after calling this.
+     *
+     * @param from (must have been saved)
+     * @param to (must have been saved)
+     * @param changedBy recorded as the user who changed each moved encounter
+     * @param dateChanged
+     * @return the number of encounters moved
+     */
+    int moveEncounters(Visit from, Visit to, User changedBy, Date dateChanged);
+
+    /**
+     * Flushes pending changes and clears the current session, so that long-running batch jobs do not accumulate
+     * entities in the first-level cache
+     */
+    void flushAndClearSession();
+
+}
@@ -22,13 +22,17 @@ import org.openmrs.Patient;
 import org.openmrs.Provider;
 import org.openmrs.Visit;
 import org.openmrs.api.OpenmrsService;
+import org.openmrs.module.emrapi.adt.census.InpatientCensusCheck;
 import org.openmrs.module.emrapi.adt.exception.ExistingVisitDuringTimePeriodException;
 import org.openmrs.module.emrapi.merge.PatientMergeAction;
 import org.openmrs.module.emrapi.merge.VisitMergeAction;
 import org.openmrs.module.emrapi.visit.VisitDomainWrapper;
 
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * <pre>
@@ -105,6 +109,9 @@ public interface AdtService extends OpenmrsService {
     /**
      * Creates a "check-in" encounter for the given patient, at the location where, and adds it to the active visit.
      * (This method calls ensureActiveVisit.)
+     * <p/>
+     * Concurrent check-ins of the same patient only reliably result in one visit and one check-in when this is called
+     * outside a transaction, since it then commits its own transaction before the next check-in of the patient goes on.
      *
      * @param patient                   required
      * @param where                     required (must either support visits, or have an ancestor location that does)
@@ -127,6 +134,13 @@ public interface AdtService extends OpenmrsService {
      */
     Location getLocationThatSupportsVisits(Location location);
 
+    /**
+     * @param location
+     * @return location followed by its parent, grandparent, etc, i.e. every location at which a visit suitable for
+     * this location could be
+     */
+    List<Location> getSelfAndAncestors(Location location);
+
     /**
      * @return all locations that are allowed to have visits assigned to them
      * @see org.openmrs.module.emrapi.EmrApiConstants#LOCATION_TAG_SUPPORTS_VISITS
@@ -160,9 +174,42 @@ public interface AdtService extends OpenmrsService {
 
     /**
      * If any currently-open visits are now inactive per our business logic, close them
+     *
+     * @see InactiveVisitCloser for a batched alternative suited to large numbers of open visits
      */
     void closeInactiveVisits();
 
+    /**
+     * Selects, in a single query, the ids of open visits at locations that support visits that have had no activity
+     * within the last {@link org.openmrs.module.emrapi.EmrApiProperties#getVisitExpireHours()} hours, excluding visits
+     * where the patient is admitted or the most recent disposition keeps the visit open.
+     * Each candidate is checked again with {@link #shouldBeClosed(Visit)} when it is closed.
+     *
+     * @return ids of visits that are candidates to be closed
+     * @see #closeInactiveVisits(List)
+     */
+    List<Integer> getVisitIdsToClose();
+
+    /**
+     * Closes those of the given visits that should be closed, then flushes and clears the session. Intended to be
+     * called once per batch, so that each batch runs in its own transaction.
+     *
+     * @param visitIds
+     * @return the number of visits that were closed
+     * @see #getVisitIdsToClose()
+     */
+    int closeInactiveVisits(List<Integer> visitIds);
+
+    /**
+     * Evaluates which of the given visits are awaiting admission, as {@link VisitDomainWrapper#isAwaitingAdmission()}
+     * would, but with one query per distinct visit location rather than one per visit.
+     *
+     * @param visits
+     * @return ids of those visits that are awaiting admission
+     * @see org.openmrs.module.emrapi.domainwrapper.DomainWrapperFactory#newVisitDomainWrappers(Collection, boolean)
+     */
+    Set<Integer> getVisitIdsAwaitingAdmission(Collection<Visit> visits);
+
     /**
      * @param patient
      * @return the most recent encounter for the given patient
@@ -181,6 +228,30 @@ public interface AdtService extends OpenmrsService {
      */
     int getCountOfVisits(Patient patient);
 
+    /**
+     * Batch version of {@link #getLastEncounter(Patient)}, for list screens
+     *
+     * @param patientIds
+     * @return the most recent encounter for each patient, keyed by patient id; patients with no encounters are omitted
+     */
+    Map<Integer, Encounter> getLastEncounters(Collection<Integer> patientIds);
+
+    /**
+     * Batch version of {@link #getCountOfEncounters(Patient)}, for list screens
+     *
+     * @param patientIds
+     * @return the number of non-voided encounters for each patient, keyed by patient id
+     */
+    Map<Integer, Integer> getCountsOfEncounters(Collection<Integer> patientIds);
+
+    /**
+     * Batch version of {@link #getCountOfVisits(Patient)}, for list screens
+     *
+     * @param patientIds
+     * @return the number of non-voided visits for each patient, keyed by patient id
+     */
+    Map<Integer, Integer> getCountsOfVisits(Collection<Integer> patientIds);
+
     /**
      * @param v1
      * @param v2
@@ -188,6 +259,15 @@ public interface AdtService extends OpenmrsService {
      */
     boolean visitsOverlap(Visit v1, Visit v2);
 
+    /**
+     * Compares two sets of visits, e.g. two patients' visit histories, without comparing every visit to every other
+     *
+     * @param visits
+     * @param otherVisits
+     * @return true if any of visits overlaps any of otherVisits, as {@link #visitsOverlap(Visit, Visit)} defines it
+     */
+    boolean anyVisitsOverlap(Collection<Visit> visits, Collection<Visit> otherVisits);
+
     /**
      * Merges patients using the underlying OpenMRS core mechanism, but applying extra business logic:
      * <ul>
@@ -203,6 +283,67 @@ public interface AdtService extends OpenmrsService {
      */
     void mergePatients(Patient preferred, Patient notPreferred);
 
+    /**
+     * Queues the same merge as {@link #mergePatients(Patient, Patient)} to run in the background, and returns at once.
+     * The merge runs as a series of transactions: the before-merge actions, then the overlapping visits a few groups at
+     * a time, then the core merge and after-merge actions. If one fails, the job stops there, and
+     * {@link #resumePatientMergeJob(String)} carries on from the last step that completed. The job runs as the
+     * authenticated user who queued it (or, after a resume, who resumed it), so the changes it makes are recorded
+     * against them. Requires the {@link org.openmrs.module.emrapi.EmrApiConstants#PRIVILEGE_MERGE_PATIENTS} privilege.
+     *
+     * @param preferred
+     * @param notPreferred
+     * @return the queued job, whose progress can be followed with {@link #getPatientMergeJob(String)}
+     * @throws IllegalArgumentException if the merge is not allowed (checked before queueing)
+     */
+    PatientMergeJob queuePatientMerge(Patient preferred, Patient notPreferred);
+
+    /**
+     * @param jobId
+     * @return the job with the given id, or null if there is none (jobs are kept in memory, for a day after finishing)
+     */
+    PatientMergeJob getPatientMergeJob(String jobId);
+
+    /**
+     * Queues a failed job again, to carry on from the last step that completed, as the authenticated user. Requires the
+     * {@link org.openmrs.module.emrapi.EmrApiConstants#PRIVILEGE_MERGE_PATIENTS} privilege.
+     *
+     * @param jobId
+     * @return the job
+     * @throws IllegalArgumentException if there is no such job, or it has not failed
+     */
+    PatientMergeJob resumePatientMergeJob(String jobId);
+
+    /**
+     * First step of {@link #queuePatientMerge(Patient, Patient)}: checks the merge is allowed, and runs the
+     * before-merge actions
+     *
+     * @param preferred
+     * @param notPreferred
+     */
+    void startPatientMerge(Patient preferred, Patient notPreferred);
+
+    /**
+     * Middle step of {@link #queuePatientMerge(Patient, Patient)}: joins together up to maxGroups groups of overlapping
+     * visits, as {@link #mergePatients(Patient, Patient)} does, then flushes and clears the session. Call repeatedly
+     * until it returns 0.
+     *
+     * @param preferred
+     * @param notPreferred
+     * @param maxGroups
+     * @return the number of groups of overlapping visits that were joined
+     */
+    int mergeOverlappingVisits(Patient preferred, Patient notPreferred, int maxGroups);
+
+    /**
+     * Last step of {@link #queuePatientMerge(Patient, Patient)}: the core merge, removing the unknown flag if
+     * appropriate, and the after-merge actions
+     *
+     * @param preferred
+     * @param notPreferred
+     */
+    void finishPatientMerge(Patient preferred, Patient notPreferred);
+
     /**
      * Allows another module to add a patient merge action to the list of actions to be performed
      * when a patient is merged; (ideally, this would just happen via @Autowired, but because @Autowired
@@ -285,10 +426,46 @@ public interface AdtService extends OpenmrsService {
     /**
      * Gets all currently-active inpatient visits (patients who have been admitted) at the given location or any of its children
      * @param visitLocation
+     * @param ward optional; if specified, only visits whose latest admission or transfer was to this ward
      * @return
      */
     List<VisitDomainWrapper> getInpatientVisits(Location visitLocation, Location ward);
 
+    /**
+     * Ward census, evaluated in the database: the currently-admitted visits at the given visit location or any of its
+     * children, optionally only those whose latest admission or transfer was to the given ward, one page at a time
+     *
+     * @param visitLocation
+     * @param ward optional
+     * @param start index of the first visit to return, or null to start at the beginning
+     * @param length maximum number of visits to return, or null for all
+     * @return visits, most recently started first
+     */
+    List<VisitDomainWrapper> getInpatientVisits(Location visitLocation, Location ward, Integer start, Integer length);
+
+    /**
+     * @param visitLocation
+     * @param ward optional
+     * @return the total number of visits {@link #getInpatientVisits(Location, Location)} would return
+     */
+    long getCountOfInpatientVisits(Location visitLocation, Location ward);
+
+    /**
+     * Empties the inpatient census table and recomputes it from encounter history. Run this after enabling the
+     * census table (see {@link org.openmrs.module.emrapi.EmrApiProperties#getUseInpatientCensusTable()}), or to repair
+     * differences reported by {@link #checkInpatientCensus()}.
+     *
+     * @return the number of currently-admitted visits now in the table
+     */
+    int rebuildInpatientCensus();
+
+    /**
+     * Compares the inpatient census table against encounter history, without changing either
+     *
+     * @return the visits that are missing from, unexpectedly in, or wrong in the table
+     */
+    InpatientCensusCheck checkInpatientCensus();
+
     /**
      * Creates a retrospective visit for the specified patient with the specified start and stop dates
      *
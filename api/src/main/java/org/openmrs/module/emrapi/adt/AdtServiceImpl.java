@@ -16,6 +16,7 @@ package org.openmrs.module.emrapi.adt;
 
 import org.apache.commons.lang.time.DateUtils;
 import org.joda.time.DateTime;
+import org.openmrs.Concept;
 import org.openmrs.Encounter;
 import org.openmrs.EncounterRole;
 import org.openmrs.EncounterType;
@@ -40,29 +41,45 @@ import org.openmrs.api.context.Context;
 import org.openmrs.api.impl.BaseOpenmrsService;
 import org.openmrs.module.emrapi.EmrApiConstants;
 import org.openmrs.module.emrapi.EmrApiProperties;
+import org.openmrs.module.emrapi.adt.census.InpatientCensus;
+import org.openmrs.module.emrapi.adt.census.InpatientCensusCheck;
 import org.openmrs.module.emrapi.adt.exception.ExistingVisitDuringTimePeriodException;
+import org.openmrs.module.emrapi.adt.reporting.query.AwaitingAdmissionVisitQuery;
+import org.openmrs.module.emrapi.adt.util.AdtUtil;
+import org.openmrs.module.emrapi.concept.EmrConceptService;
 import org.openmrs.module.emrapi.disposition.Disposition;
+import org.openmrs.module.emrapi.disposition.DispositionService;
 import org.openmrs.module.emrapi.domainwrapper.DomainWrapperFactory;
 import org.openmrs.module.emrapi.merge.PatientMergeAction;
 import org.openmrs.module.emrapi.merge.VisitMergeAction;
-import org.openmrs.module.emrapi.patient.PatientDomainWrapper;
 import org.openmrs.module.emrapi.visit.VisitDomainWrapper;
+import org.openmrs.module.reporting.evaluation.EvaluationException;
+import org.openmrs.module.reporting.evaluation.context.VisitEvaluationContext;
+import org.openmrs.module.reporting.query.visit.VisitIdSet;
+import org.openmrs.module.reporting.query.visit.service.VisitQueryService;
 import org.openmrs.serialization.SerializationException;
 import org.openmrs.util.OpenmrsUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.transaction.NoTransactionException;
+import org.springframework.transaction.annotation.Isolation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.interceptor.TransactionAspectSupport;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedHashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.locks.Lock;
 
 
 public class AdtServiceImpl extends BaseOpenmrsService implements AdtService {
@@ -83,6 +100,24 @@ public class AdtServiceImpl extends BaseOpenmrsService implements AdtService {
 
     private DomainWrapperFactory domainWrapperFactory;
 
+    private DispositionService dispositionService;
+
+    private EmrConceptService emrConceptService;
+
+    private AdtDAO dao;
+
+    private PatientStatisticsDAO patientStatisticsDAO;
+
+    private LocationTreeIndex locationTreeIndex;
+
+    private InpatientCensus inpatientCensus;
+
+    private VisitQueryService visitQueryService;
+
+    private PatientMergeQueue patientMergeQueue;
+
+    private PatientLocks checkInLocks = new PatientLocks();
+
     private List<PatientMergeAction> patientMergeActions;
 
     private List<VisitMergeAction> visitMergeActions;
@@ -115,6 +150,50 @@ public class AdtServiceImpl extends BaseOpenmrsService implements AdtService {
         this.domainWrapperFactory = domainWrapperFactory;
     }
 
+    public void setDispositionService(DispositionService dispositionService) {
+        this.dispositionService = dispositionService;
+    }
+
+    public void setEmrConceptService(EmrConceptService emrConceptService) {
+        this.emrConceptService = emrConceptService;
+    }
+
+    public void setDao(AdtDAO dao) {
+        this.dao = dao;
+    }
+
+    public void setPatientStatisticsDAO(PatientStatisticsDAO patientStatisticsDAO) {
+        this.patientStatisticsDAO = patientStatisticsDAO;
+    }
+
+    public void setLocationTreeIndex(LocationTreeIndex locationTreeIndex) {
+        this.locationTreeIndex = locationTreeIndex;
+    }
+
+    public void setInpatientCensus(InpatientCensus inpatientCensus) {
+        this.inpatientCensus = inpatientCensus;
+    }
+
+    public void setPatientMergeQueue(PatientMergeQueue patientMergeQueue) {
+        this.patientMergeQueue = patientMergeQueue;
+    }
+
+    public void setCheckInLocks(PatientLocks checkInLocks) {
+        this.checkInLocks = checkInLocks;
+    }
+
+    public void setVisitQueryService(VisitQueryService visitQueryService) {
+        this.visitQueryService = visitQueryService;
+    }
+
+    private VisitQueryService getVisitQueryService() {
+        if (visitQueryService == null) {
+            // looked up lazily, since the reporting module's services are not available when this bean is created
+            visitQueryService = Context.getService(VisitQueryService.class);
+        }
+        return visitQueryService;
+    }
+
     public void setPatientMergeActions(List<PatientMergeAction> patientMergeActions) {
         this.patientMergeActions = patientMergeActions;
     }
@@ -133,8 +212,9 @@ public class AdtServiceImpl extends BaseOpenmrsService implements AdtService {
     public void closeInactiveVisits() {
         Collection<Location> possibleLocations = getPossibleLocationsToCloseVisit();
         List<Visit> openVisits = visitService.getVisits(null, null, possibleLocations, null, null, null, null, null, null, false, false);
+        Set<Integer> awaitingAdmission = getVisitIdsAwaitingAdmission(openVisits);
             for (Visit visit : openVisits) {
-                if (shouldBeClosed(visit)) {
+                if (shouldBeClosed(wrap(visit, awaitingAdmission))) {
                     try {
                         closeAndSaveVisit(visit);
                     } catch (Exception ex) {
@@ -144,21 +224,110 @@ public class AdtServiceImpl extends BaseOpenmrsService implements AdtService {
         }
     }
 
+    @Override
+    @Transactional(readOnly = true)
+    public List<Integer> getVisitIdsToClose() {
+        Date mustHaveSomethingAfter = DateUtils.addHours(new Date(), -emrApiProperties.getVisitExpireHours());
+
+        Concept dispositionConcept = null;
+        List<Concept> keepsVisitOpenDispositions = null;
+        if (dispositionService.dispositionsSupported()) {
+            dispositionConcept = dispositionService.getDispositionDescriptor().getDispositionConcept();
+            keepsVisitOpenDispositions = AdtUtil.getKeepsVisitOpenDispositionsConcepts(emrConceptService, dispositionService);
+        }
+
+        return dao.getVisitIdsToClose(getPossibleLocationsToCloseVisit(), mustHaveSomethingAfter,
+                emrApiProperties.getAdmissionEncounterType(), emrApiProperties.getExitFromInpatientEncounterType(),
+                dispositionConcept, keepsVisitOpenDispositions);
+    }
+
+    @Override
+    @Transactional
+    public int closeInactiveVisits(List<Integer> visitIds) {
+        List<Visit> visits = new ArrayList<Visit>();
+        for (Integer visitId : visitIds) {
+            Visit visit = visitService.getVisit(visitId);
+            if (visit != null) {
+                visits.add(visit);
+            }
+        }
+
+        // the candidate query doesn't look at awaiting-admission status, and things may have changed since it ran
+        Set<Integer> awaitingAdmission = getVisitIdsAwaitingAdmission(visits);
+        int closed = 0;
+        for (Visit visit : visits) {
+            if (shouldBeClosed(wrap(visit, awaitingAdmission))) {
+                closeAndSaveVisit(visit);
+                closed++;
+            }
+        }
+        dao.flushAndClearSession();
+        return closed;
+    }
+
     private Collection<Location> getPossibleLocationsToCloseVisit() {
         LocationTag visitLocationTag =  locationService.getLocationTagByName(EmrApiConstants.LOCATION_TAG_SUPPORTS_VISITS);
 
         return locationService.getLocationsByTag(visitLocationTag);
     }
 
+    @Override
+    @Transactional(readOnly = true)
+    public Set<Integer> getVisitIdsAwaitingAdmission(Collection<Visit> visits) {
+        Set<Integer> awaitingAdmission = new HashSet<Integer>();
+        if (visits == null || visits.isEmpty() || !dispositionService.dispositionsSupported()) {
+            return awaitingAdmission;
+        }
+
+        // the query is restricted to the visit location of the location it is given, so run it once per location
+        Map<Location, List<Integer>> visitIdsByLocation = new LinkedHashMap<Location, List<Integer>>();
+        for (Visit visit : visits) {
+            if (visit.getVisitId() == null || visit.getStopDatetime() != null) {
+                continue;
+            }
+            List<Integer> visitIds = visitIdsByLocation.get(visit.getLocation());
+            if (visitIds == null) {
+                visitIds = new ArrayList<Integer>();
+                visitIdsByLocation.put(visit.getLocation(), visitIds);
+            }
+            visitIds.add(visit.getVisitId());
+        }
+
+        for (Map.Entry<Location, List<Integer>> entry : visitIdsByLocation.entrySet()) {
+            VisitEvaluationContext context = new VisitEvaluationContext();
+            context.setBaseVisits(new VisitIdSet(entry.getValue().toArray(new Integer[entry.getValue().size()])));
+
+            AwaitingAdmissionVisitQuery query = new AwaitingAdmissionVisitQuery();
+            query.setLocation(entry.getKey());
+
+            try {
+                awaitingAdmission.addAll(getVisitQueryService().evaluate(query, context).getMemberIds());
+            }
+            catch (EvaluationException e) {
+                throw new IllegalStateException("Unable to evaluate awaiting admission query", e);
+            }
+        }
+        return awaitingAdmission;
+    }
+
+    private VisitDomainWrapper wrap(Visit visit, Set<Integer> visitIdsAwaitingAdmission) {
+        VisitDomainWrapper visitDomainWrapper = domainWrapperFactory.newVisitDomainWrapper(visit);
+        visitDomainWrapper.setAwaitingAdmission(visitIdsAwaitingAdmission.contains(visit.getVisitId()));
+        return visitDomainWrapper;
+    }
+
     @Override
     public boolean shouldBeClosed(Visit visit) {
+        return shouldBeClosed(domainWrapperFactory.newVisitDomainWrapper(visit));
+    }
+
+    private boolean shouldBeClosed(VisitDomainWrapper visitDomainWrapper) {
 
+        Visit visit = visitDomainWrapper.getVisit();
         if (visit.getStopDatetime() != null) {
             return false;  // already closed
         }
 
-        VisitDomainWrapper visitDomainWrapper = domainWrapperFactory.newVisitDomainWrapper(visit);
-
         if (visitDomainWrapper.isAdmitted() || visitDomainWrapper.isAwaitingAdmission()) {
             return false;  // don't close the visit if patient is admitted or waiting admission
         }
@@ -188,16 +357,12 @@ public class AdtServiceImpl extends BaseOpenmrsService implements AdtService {
 
     @Override
     public boolean visitsOverlap(Visit v1, Visit v2) {
-        Location where1 = v1.getLocation();
-        Location where2 = v2.getLocation();
-        if ((where1 == null && where2 == null) ||
-                isSameOrAncestor(where1, where2) ||
-                isSameOrAncestor(where2, where1)) {
-            // "same" location, so check if date ranges overlap (assuming startDatetime is never null)
-            return (OpenmrsUtil.compareWithNullAsLatest(v1.getStartDatetime(), v2.getStopDatetime()) <= 0)
-                    && (OpenmrsUtil.compareWithNullAsLatest(v2.getStartDatetime(), v1.getStopDatetime()) <= 0);
-        }
-        return false;
+        return new VisitOverlaps(locationTreeIndex).overlap(v1, v2);
+    }
+
+    @Override
+    public boolean anyVisitsOverlap(Collection<Visit> visits, Collection<Visit> otherVisits) {
+        return new VisitOverlaps(locationTreeIndex).anyOverlap(visits, otherVisits);
     }
 
     /**
@@ -208,17 +373,21 @@ public class AdtServiceImpl extends BaseOpenmrsService implements AdtService {
      * @return
      */
     private Visit getActiveVisitHelper(Patient patient, Location department) {
-        Date now = new Date();
+        List<Visit> candidates = dao.getVisitsOpenAt(patient, getSameAndAncestors(department), new Date());
+        // candidates are most recently started first; as before, prefer the earliest-started suitable visit
+        return candidates.isEmpty() ? null : candidates.get(candidates.size() - 1);
+    }
 
-        List<Visit> candidates = visitService.getVisitsByPatient(patient);
-        Visit ret = null;
-        for (Visit candidate : candidates) {
-            if (isSuitableVisit(candidate, department, now)) {
-                ret = candidate;
-            }
+    /**
+     * @param location
+     * @return location followed by its ancestors, i.e. every location a visit containing this location could be at,
+     * or null if location is null
+     */
+    private List<Location> getSameAndAncestors(Location location) {
+        if (location == null) {
+            return null;
         }
-
-        return ret;
+        return locationTreeIndex.getSelfAndAncestors(location);
     }
 
     @Override
@@ -256,23 +425,13 @@ public class AdtServiceImpl extends BaseOpenmrsService implements AdtService {
         if (visitTime == null) {
             visitTime = new Date();
         }
-        Visit visit = null;
-        List<Patient> patientList = Collections.singletonList(patient);
-
-        // visits that have not ended by the encounter date.
-        List<Visit> candidates = visitService.getVisits(null, patientList, null, null, null,
-                visitTime, null, null, null, true, false);
-        if(candidates != null){
-            for (Visit candidate : candidates) {
-                if (isSuitableVisit(candidate, department, visitTime)) {
-                    return candidate;
-                }
-            }
-        }
-        if(visit == null){
-            visit = buildVisit(patient, department, visitTime);
-            visitService.saveVisit(visit);
+        // visits that are open at the encounter date, most recently started first
+        List<Visit> candidates = dao.getVisitsOpenAt(patient, getSameAndAncestors(department), visitTime);
+        if (!candidates.isEmpty()) {
+            return candidates.get(0);
         }
+        Visit visit = buildVisit(patient, department, visitTime);
+        visitService.saveVisit(visit);
         return visit;
     }
 
@@ -295,15 +454,60 @@ public class AdtServiceImpl extends BaseOpenmrsService implements AdtService {
     }
 
     /**
-     * This method is synchronized to prevent multiple check-ins in a row at the same location and during the same visit.
-     * See #579.
+     * This method locks on the patient to prevent multiple check-ins in a row at the same location and during the same
+     * visit (see #579), while letting different patients check in concurrently. When the check-in has its own
+     * transaction, the in-memory lock is held until that transaction completes, so that the next check-in of the patient
+     * sees this one. When it joins a caller's transaction the lock is released before returning instead, since holding it
+     * for the rest of the caller's work could deadlock two callers that check in two patients in opposite orders. The
+     * in-memory lock only covers this server, so if {@link EmrApiProperties#getLockCheckInInDatabase()} is set the
+     * patient's row is also locked in the database until the transaction commits. A check-in with its own transaction
+     * runs at read committed isolation so that, once it has the lock, it reads the visits and encounters committed by
+     * the check-in it waited for rather than a snapshot taken before the wait (as it would under MySQL's default
+     * repeatable read). A check-in that joins a caller's transaction runs at the caller's isolation instead, so neither
+     * guarantee holds there: call this outside a transaction wherever concurrent check-ins of a patient are possible.
      *
      * @see org.openmrs.module.emrapi.adt.AdtService#checkInPatient(org.openmrs.Patient, org.openmrs.Location, org.openmrs.Provider, java.util.List, java.util.List, boolean)
      */
     @Override
-    @Transactional
-    public synchronized Encounter checkInPatient(Patient patient, Location where, Provider checkInClerk,
+    @Transactional(isolation = Isolation.READ_COMMITTED)
+    public Encounter checkInPatient(Patient patient, Location where, Provider checkInClerk,
                                     List<Obs> obsForCheckInEncounter, List<Order> ordersForCheckInEncounter, boolean newVisit) {
+        final Lock lock = checkInLocks.getLock(patient);
+        lock.lock();
+        boolean unlockAfterCompletion = false;
+        try {
+            if (TransactionSynchronizationManager.isSynchronizationActive() && isNewTransaction()) {
+                // hold the lock until the new visit and encounter are visible to the next check-in of this patient
+                TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                    @Override
+                    public void afterCompletion(int status) {
+                        lock.unlock();
+                    }
+                });
+                unlockAfterCompletion = true;
+            }
+            if (emrApiProperties.getLockCheckInInDatabase()) {
+                dao.lockPatient(patient);
+            }
+            return checkInPatientWhileLocked(patient, where, checkInClerk, obsForCheckInEncounter, ordersForCheckInEncounter, newVisit);
+        } finally {
+            if (!unlockAfterCompletion) {
+                lock.unlock();
+            }
+        }
+    }
+
+    private boolean isNewTransaction() {
+        try {
+            return TransactionAspectSupport.currentTransactionStatus().isNewTransaction();
+        }
+        catch (NoTransactionException e) {
+            return false;
+        }
+    }
+
+    private Encounter checkInPatientWhileLocked(Patient patient, Location where, Provider checkInClerk,
+                                                List<Obs> obsForCheckInEncounter, List<Order> ordersForCheckInEncounter, boolean newVisit) {
         if (checkInClerk == null) {
             checkInClerk = getProvider(Context.getAuthenticatedUser());
         }
@@ -408,13 +612,17 @@ public class AdtServiceImpl extends BaseOpenmrsService implements AdtService {
      */
     @Override
     public Location getLocationThatSupportsVisits(Location location) {
-        if (location == null) {
+        Location visitLocation = locationTreeIndex.getVisitLocation(location);
+        if (visitLocation == null) {
             throw new IllegalArgumentException("Location does not support visits");
-        } else if (location.hasTag(EmrApiConstants.LOCATION_TAG_SUPPORTS_VISITS)) {
-            return location;
-        } else {
-            return getLocationThatSupportsVisits(location.getParentLocation());
         }
+        return visitLocation;
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public List<Location> getSelfAndAncestors(Location location) {
+        return locationTreeIndex.getSelfAndAncestors(location);
     }
 
     @Override
@@ -464,29 +672,24 @@ public class AdtServiceImpl extends BaseOpenmrsService implements AdtService {
      * @return true if a.equals(b) or a is an ancestor of b.
      */
     private boolean isSameOrAncestor(Location a, Location b) {
-        if (a == null || b == null) {
-            return a == null && b == null;
-        }
-        return a.equals(b) || isSameOrAncestor(a, b.getParentLocation());
+        return locationTreeIndex.isSameOrAncestor(a, b);
     }
 
     /**
      * @see org.openmrs.module.emrapi.adt.AdtService#getActiveVisits(org.openmrs.Location)
      */
     @Override
+    @Transactional(readOnly = true)
     public List<VisitDomainWrapper> getActiveVisits(Location location) {
         if (location == null) {
             throw new IllegalArgumentException("Location is required");
         }
-        Set<Location> locations = getChildLocationsRecursively(location, null);
-        List<Visit> candidates = visitService.getVisits(null, null, locations, null, null, null, null, null, null, false,
-                false);
+        Set<Location> locations = locationTreeIndex.getSelfAndDescendants(location);
+        List<Visit> visits = dao.getActiveVisits(locations, emrApiProperties.getTestPatientPersonAttributeType(false));
 
         List<VisitDomainWrapper> active = new ArrayList<VisitDomainWrapper>();
-        for (Visit candidate : candidates) {
-            if (itBelongsToARealPatient(candidate)) {
-                active.add(wrap(candidate));
-            }
+        for (Visit visit : visits) {
+            active.add(wrap(visit));
         }
 
         return active;
@@ -494,95 +697,131 @@ public class AdtServiceImpl extends BaseOpenmrsService implements AdtService {
 
     @Override
     public List<VisitDomainWrapper> getInpatientVisits(Location visitLocation, Location ward) {
+        return getInpatientVisits(visitLocation, ward, null, null);
+    }
 
+    @Override
+    @Transactional(readOnly = true)
+    public List<VisitDomainWrapper> getInpatientVisits(Location visitLocation, Location ward, Integer start, Integer length) {
         if (visitLocation == null) {
             throw new IllegalArgumentException("Location is required");
         }
-        Set<Location> locations = getChildLocationsRecursively(visitLocation, null);
-        List<Visit> candidates = visitService.getVisits(null, null, locations, null, null, null, null, null, null, false,
-                false);
+        List<Visit> visits;
+        if (isInpatientCensusEnabled()) {
+            visits = inpatientCensus.getInpatientVisits(locationTreeIndex.getSelfAndDescendants(visitLocation), ward,
+                    emrApiProperties.getTestPatientPersonAttributeType(false), start, length);
+        } else {
+            visits = dao.getInpatientVisits(locationTreeIndex.getSelfAndDescendants(visitLocation), ward,
+                    emrApiProperties.getAdmissionEncounterType(), emrApiProperties.getExitFromInpatientEncounterType(),
+                    emrApiProperties.getTransferWithinHospitalEncounterType(), emrApiProperties.getTestPatientPersonAttributeType(false),
+                    start, length);
+        }
 
         List<VisitDomainWrapper> inpatientVisits = new ArrayList<VisitDomainWrapper>();
-        for (Visit candidate : candidates) {
-            VisitDomainWrapper visitDomainWrapper = wrap(candidate);
-            if (itBelongsToARealPatient(candidate)
-                    && visitDomainWrapper.isAdmitted()) {
-                if(ward!=null){
-                    Encounter latestAdtEncounter = visitDomainWrapper.getLatestAdtEncounter();
-                    if(latestAdtEncounter!=null &&
-                            ( latestAdtEncounter.getLocation().getId().compareTo(ward.getId())==0 )){
-                        inpatientVisits.add(visitDomainWrapper);
-                    }
-                }else{
-                    inpatientVisits.add(visitDomainWrapper);
-                }
-            }
+        for (Visit visit : visits) {
+            inpatientVisits.add(wrap(visit));
         }
-
         return inpatientVisits;
     }
 
-    private boolean itBelongsToARealPatient(Visit candidate) {
-        Patient patient = candidate.getPatient();
-        PatientDomainWrapper domainWrapper = new PatientDomainWrapper(patient, emrApiProperties, null, null, null, null, null);
-        return !domainWrapper.isTestPatient();
+    @Override
+    @Transactional(readOnly = true)
+    public long getCountOfInpatientVisits(Location visitLocation, Location ward) {
+        if (visitLocation == null) {
+            throw new IllegalArgumentException("Location is required");
+        }
+        if (isInpatientCensusEnabled()) {
+            return inpatientCensus.getCountOfInpatientVisits(locationTreeIndex.getSelfAndDescendants(visitLocation), ward,
+                    emrApiProperties.getTestPatientPersonAttributeType(false));
+        }
+        return dao.getCountOfInpatientVisits(locationTreeIndex.getSelfAndDescendants(visitLocation), ward,
+                emrApiProperties.getAdmissionEncounterType(), emrApiProperties.getExitFromInpatientEncounterType(),
+                emrApiProperties.getTransferWithinHospitalEncounterType(), emrApiProperties.getTestPatientPersonAttributeType(false));
+    }
+
+    private boolean isInpatientCensusEnabled() {
+        return inpatientCensus != null && inpatientCensus.isEnabled();
+    }
+
+    @Override
+    @Transactional
+    public int rebuildInpatientCensus() {
+        return inpatientCensus.rebuild();
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public InpatientCensusCheck checkInpatientCensus() {
+        return inpatientCensus.check();
     }
 
     @Override
+    @Transactional(readOnly = true)
     public Encounter getLastEncounter(Patient patient) {
-        // speed this up by implementing it directly in a DAO
-        List<Encounter> byPatient = encounterService.getEncountersByPatient(patient);
-        if (byPatient.isEmpty()) {
-            return null;
-        } else {
-            return byPatient.get(byPatient.size() - 1);
-        }
+        return patientStatisticsDAO.getLastEncounter(patient);
     }
 
     @Override
+    @Transactional(readOnly = true)
     public int getCountOfEncounters(Patient patient) {
-        // speed this up by implementing it directly in a DAO
-        return encounterService.getEncountersByPatient(patient).size();
+        return patientStatisticsDAO.getCountOfEncounters(patient);
     }
 
     @Override
+    @Transactional(readOnly = true)
     public int getCountOfVisits(Patient patient) {
-        // speed this up by implementing it directly in a DAO
-        return visitService.getVisitsByPatient(patient, true, false).size();
+        return patientStatisticsDAO.getCountOfVisits(patient);
     }
 
-    /**
-     * Utility method that returns all child locations and children of its child locations
-     * recursively
-     *
-     * @param location
-     * @param foundLocations
-     * @return
-     */
-    private Set<Location> getChildLocationsRecursively(Location location, Set<Location> foundLocations) {
-        if (foundLocations == null)
-            foundLocations = new LinkedHashSet<Location>();
-
-        foundLocations.add(location);
+    @Override
+    @Transactional(readOnly = true)
+    public Map<Integer, Encounter> getLastEncounters(Collection<Integer> patientIds) {
+        return patientStatisticsDAO.getLastEncounters(patientIds);
+    }
 
-        if (location.getChildLocations() != null) {
-            for (Location l : location.getChildLocations()) {
-                foundLocations.add(l);
-                getChildLocationsRecursively(l, foundLocations);
-            }
-        }
+    @Override
+    @Transactional(readOnly = true)
+    public Map<Integer, Integer> getCountsOfEncounters(Collection<Integer> patientIds) {
+        return patientStatisticsDAO.getCountsOfEncounters(patientIds);
+    }
 
-        return foundLocations;
+    @Override
+    @Transactional(readOnly = true)
+    public Map<Integer, Integer> getCountsOfVisits(Collection<Integer> patientIds) {
+        return patientStatisticsDAO.getCountsOfVisits(patientIds);
     }
 
     @Transactional
     @Override
     public void mergePatients(Patient preferred, Patient notPreferred) {
-        boolean preferredWasUnknown = domainWrapperFactory.newPatientDomainWrapper(preferred).isUnknownPatient();
-        boolean notPreferredWasUnknown = domainWrapperFactory.newPatientDomainWrapper(notPreferred).isUnknownPatient();
-        if (preferredWasUnknown && !notPreferredWasUnknown) {
-            throw new IllegalArgumentException("Cannot merge a permanent record into an unknown one");
-        }
+        startPatientMerge(preferred, notPreferred);
+        mergeOverlappingVisitGroups(preferred, notPreferred, Integer.MAX_VALUE);
+        finishPatientMerge(preferred, notPreferred);
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public PatientMergeJob queuePatientMerge(Patient preferred, Patient notPreferred) {
+        Context.requirePrivilege(EmrApiConstants.PRIVILEGE_MERGE_PATIENTS);
+        checkMergeAllowed(preferred, notPreferred);
+        return patientMergeQueue.queue(preferred.getPatientId(), notPreferred.getPatientId());
+    }
+
+    @Override
+    public PatientMergeJob getPatientMergeJob(String jobId) {
+        return patientMergeQueue.getJob(jobId);
+    }
+
+    @Override
+    public PatientMergeJob resumePatientMergeJob(String jobId) {
+        Context.requirePrivilege(EmrApiConstants.PRIVILEGE_MERGE_PATIENTS);
+        return patientMergeQueue.resume(jobId);
+    }
+
+    @Override
+    @Transactional
+    public void startPatientMerge(Patient preferred, Patient notPreferred) {
+        checkMergeAllowed(preferred, notPreferred);
 
         // do any "before-merge actions" that have been registered
         if (patientMergeActions != null) {
@@ -590,41 +829,58 @@ public class AdtServiceImpl extends BaseOpenmrsService implements AdtService {
                 patientMergeAction.beforeMergingPatients(preferred, notPreferred);
             }
         }
+    }
 
-        List<Visit> preferredVisits = visitService.getVisitsByPatient(preferred, true, false);
-        List<Visit> notPreferredVisits = visitService.getVisitsByPatient(notPreferred, true, false);
-
-        // if the non-preferred patient has any visits that overlap with visits of the preferred patient, we need to merge them together
-        for (Visit losing : notPreferredVisits) {
-            if (!losing.isVoided()) {
-                for (Visit winning : preferredVisits) {
-                    if (!winning.isVoided() && visitsOverlap(losing, winning)) {
-                        mergeVisits(winning, losing);
-                        break;
-                    }
-                }
-            }
+    private void checkMergeAllowed(Patient preferred, Patient notPreferred) {
+        boolean preferredWasUnknown = domainWrapperFactory.newPatientDomainWrapper(preferred).isUnknownPatient();
+        boolean notPreferredWasUnknown = domainWrapperFactory.newPatientDomainWrapper(notPreferred).isUnknownPatient();
+        if (preferredWasUnknown && !notPreferredWasUnknown) {
+            throw new IllegalArgumentException("Cannot merge a permanent record into an unknown one");
         }
+    }
+
+    @Override
+    @Transactional
+    public int mergeOverlappingVisits(Patient preferred, Patient notPreferred, int maxGroups) {
+        int merged = mergeOverlappingVisitGroups(preferred, notPreferred, maxGroups);
+        dao.flushAndClearSession();
+        return merged;
+    }
 
-        // merging in visits from the non-preferred patient (and extending visit durations) may have caused preferred-patient visits to overlap
-        Collections.sort(preferredVisits, new Comparator<Visit>() {
-            @Override
-            public int compare(Visit left, Visit right) {
-                return OpenmrsUtil.compareWithNullAsEarliest(left.getStartDatetime(), right.getStartDatetime());
+    private int mergeOverlappingVisitGroups(Patient preferred, Patient notPreferred, int maxGroups) {
+        List<Visit> preferredVisits = nonVoided(visitService.getVisitsByPatient(preferred, true, false));
+        List<Visit> allVisits = new ArrayList<Visit>(preferredVisits);
+        allVisits.addAll(nonVoided(visitService.getVisitsByPatient(notPreferred, true, false)));
+
+        // if the non-preferred patient has any visits that overlap with visits of the preferred patient, we need to merge
+        // them together; and since merging in visits (and extending visit durations) may cause preferred-patient visits to
+        // overlap, every chain of overlapping visits ends up as one visit, the earliest-started of the preferred patient's
+        int merged = 0;
+        for (List<Visit> cluster : new VisitOverlaps(locationTreeIndex).getClusters(allVisits, preferredVisits)) {
+            if (merged == maxGroups) {
+                break;
             }
-        });
-        for (int i = 0; i < preferredVisits.size(); ++i) {
-            Visit visit = preferredVisits.get(i);
-            if (!visit.isVoided()) {
-                for (int j = i + 1; j < preferredVisits.size(); ++j) {
-                    Visit candidate = preferredVisits.get(j);
-                    if (!candidate.isVoided() && visitsOverlap(visit, candidate)) {
-                        mergeVisits(visit, candidate);
-                    }
+            Visit winning = null;
+            for (Visit candidate : cluster) {
+                if (preferredVisits.contains(candidate)) {
+                    winning = candidate;
+                    break;
+                }
+            }
+            for (Visit losing : cluster) {
+                if (losing != winning) {
+                    mergeVisits(winning, losing);
                 }
             }
+            merged++;
         }
+        return merged;
+    }
 
+    @Override
+    @Transactional
+    public void finishPatientMerge(Patient preferred, Patient notPreferred) {
+        boolean preferredWasUnknown = domainWrapperFactory.newPatientDomainWrapper(preferred).isUnknownPatient();
         try {
             patientService.mergePatients(preferred, notPreferred);
             // if we merged an unknown record into a permanent one, remove the unknown flag; if we merged two unknown records, keep it
@@ -644,6 +900,16 @@ public class AdtServiceImpl extends BaseOpenmrsService implements AdtService {
 
     }
 
+    private List<Visit> nonVoided(List<Visit> visits) {
+        List<Visit> nonVoided = new ArrayList<Visit>();
+        for (Visit visit : visits) {
+            if (!visit.isVoided()) {
+                nonVoided.add(visit);
+            }
+        }
+        return nonVoided;
+    }
+
     private void removeAttributeOfUnknownPatient(Patient preferred) {
         PersonAttributeType unknownPatientPersonAttributeType = emrApiProperties.getUnknownPatientPersonAttributeType();
         PersonAttribute attribute = preferred.getAttribute(unknownPatientPersonAttributeType);
@@ -653,58 +919,57 @@ public class AdtServiceImpl extends BaseOpenmrsService implements AdtService {
         }
     }
 
-    public  boolean areConsecutiveVisits(List<Integer> visits, Patient patient){
-        if (patient != null && visits != null && (visits.size() > 0) ){
-            List<Visit> patientVisits = visitService.getVisitsByPatient(patient, true, false);
-            if ( (patientVisits != null) && (patientVisits.size() > 0) ){
-                ArrayList<Integer> allVisits = new ArrayList<Integer>();
-                int j = 0;
-                for (Visit visit : patientVisits){
-                    allVisits.add(j++, visit.getId());
-                }
-                if (allVisits.containsAll(visits) ){
-                    //find the index of the first candidate for a consecutive visit
-                    int i = allVisits.indexOf(visits.get(0));
-                    //make sure there are still more elements in the list than the the number of candidate consecutives
-                    if ((allVisits.size() - i) >= visits.size()){
-                        for (Integer candidateVisit : visits){
-                            if (allVisits.get(i).compareTo(candidateVisit) == 0 ){
-                                i++;
-                            }else{
-                                return false;
-                            }
-                        }
-                        return true;
-                    }
-                }
+    public boolean areConsecutiveVisits(List<Integer> visits, Patient patient) {
+        if (patient == null || visits == null || visits.isEmpty()) {
+            return false;
+        }
+        // position of each of the patient's visits, in the order of VisitService.getVisitsByPatient
+        Map<Integer, Integer> positions = new HashMap<Integer, Integer>();
+        for (Integer visitId : dao.getVisitIdsByPatient(patient)) {
+            positions.put(visitId, positions.size());
+        }
+        Integer first = positions.get(visits.get(0));
+        if (first == null) {
+            return false;
+        }
+        for (int i = 1; i < visits.size(); i++) {
+            Integer position = positions.get(visits.get(i));
+            if (position == null || position != first + i) {
+                return false;
             }
         }
-        return false;
+        return true;
     }
 
     public Visit mergeConsecutiveVisits(List<Integer> visits, Patient patient){
         if (areConsecutiveVisits(visits, patient) ) {
-            Visit mergedVisit = visitService.getVisit(visits.get(0));
-            if (visits.size() > 1){
-                for (int i =1; i < visits.size(); i++){
-                    mergedVisit = mergeVisits(mergedVisit, visitService.getVisit(visits.get(i)));
-                }
+            Map<Integer, Visit> byId = new HashMap<Integer, Visit>();
+            for (Visit visit : dao.getVisitsByIds(visits)) {
+                byId.put(visit.getVisitId(), visit);
+            }
+            Visit mergedVisit = byId.get(visits.get(0));
+            for (int i = 1; i < visits.size(); i++) {
+                mergedVisit = mergeVisits(mergedVisit, byId.get(visits.get(i)));
             }
             return mergedVisit;
         }
         return null;
     }
+
+    @Override
+    @Transactional
     public Visit mergeVisits(Visit preferred, Visit nonPreferred) {
-        // extend date range of winning
-        if (OpenmrsUtil.compareWithNullAsEarliest(nonPreferred.getStartDatetime(), preferred.getStartDatetime()) < 0) {
-            preferred.setStartDatetime(nonPreferred.getStartDatetime());
-        }
-        if (preferred.getStopDatetime() != null && OpenmrsUtil.compareWithNullAsLatest(preferred.getStopDatetime(), nonPreferred.getStopDatetime()) < 0) {
-            preferred.setStopDatetime(nonPreferred.getStopDatetime());
-        }
+        extendDateRange(preferred, nonPreferred);
 
         // move encounters from losing into winning
-        if (nonPreferred.getEncounters() != null) {
+        if (preferred.getVisitId() != null && nonPreferred.getVisitId() != null) {
+            // with set-based updates, rather than saving each of what may be thousands of encounters (so no encounter
+            // save handlers run, and no encounter events are fired, for the moved encounters)
+            dao.moveEncounters(nonPreferred, preferred, Context.getAuthenticatedUser(), new Date());
+            // which reloads both visits, losing the extension if the preferred one was not attached to the session
+            extendDateRange(preferred, nonPreferred);
+        }
+        else if (nonPreferred.getEncounters() != null) {
             for (Encounter e : nonPreferred.getEncounters()) {
                 e.setPatient(preferred.getPatient());
                 preferred.addEncounter(e);
@@ -733,6 +998,15 @@ public class AdtServiceImpl extends BaseOpenmrsService implements AdtService {
         return preferred;
     }
 
+    private void extendDateRange(Visit preferred, Visit nonPreferred) {
+        if (OpenmrsUtil.compareWithNullAsEarliest(nonPreferred.getStartDatetime(), preferred.getStartDatetime()) < 0) {
+            preferred.setStartDatetime(nonPreferred.getStartDatetime());
+        }
+        if (preferred.getStopDatetime() != null && OpenmrsUtil.compareWithNullAsLatest(preferred.getStopDatetime(), nonPreferred.getStopDatetime()) < 0) {
+            preferred.setStopDatetime(nonPreferred.getStopDatetime());
+        }
+    }
+
     private void addProviders(Encounter encounter, Map<EncounterRole, ? extends Collection<Provider>> providers) {
         for (Map.Entry<EncounterRole, ? extends Collection<Provider>> entry : providers.entrySet()) {
             EncounterRole encounterRole = entry.getKey();
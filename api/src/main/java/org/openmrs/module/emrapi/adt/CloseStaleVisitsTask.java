@@ -15,16 +15,22 @@
 package org.openmrs.module.emrapi.adt;
 
 import org.openmrs.api.context.Context;
+import org.openmrs.module.emrapi.EmrApiProperties;
 import org.openmrs.scheduler.tasks.AbstractTask;
 
 /**
+ * Closes inactive visits in batches, each batch in its own transaction
+ *
+ * @see InactiveVisitCloser
  * @see org.openmrs.module.emrapi.adt.AdtService#closeInactiveVisits()
  */
 public class CloseStaleVisitsTask extends AbstractTask {
 
     @Override
     public void execute() {
-        Context.getService(AdtService.class).closeInactiveVisits();
+        EmrApiProperties emrApiProperties = Context.getRegisteredComponents(EmrApiProperties.class).iterator().next();
+        new InactiveVisitCloser(Context.getService(AdtService.class), emrApiProperties.getCloseInactiveVisitsBatchSize())
+                .closeInactiveVisits();
     }
 
 }
@@ -18,6 +18,7 @@ import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.time.DateUtils;
 import org.joda.time.DateTime;
 import org.openmrs.Encounter;
+import org.openmrs.Location;
 import org.openmrs.Patient;
 import org.openmrs.Visit;
 import org.openmrs.VisitType;
@@ -30,10 +31,15 @@ import org.openmrs.module.emrapi.EmrApiConstants;
 import org.openmrs.module.emrapi.EmrApiProperties;
 import org.openmrs.util.OpenmrsUtil;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * Ensures that encounters are assigned to visits based on the EMR module's business logic.
@@ -78,76 +84,154 @@ public class EmrApiVisitAssignmentHandler extends BaseEncounterVisitHandler impl
 
     @Override
     public void beforeCreateEncounter(Encounter encounter) {
+        beforeCreateEncounters(Collections.singletonList(encounter));
+    }
 
-        //Do nothing if the encounter already belongs to a visit.
-        if (encounter.getVisit() != null) {
-            return;
-        }
+    /**
+     * Assigns each of the given encounters to a visit, as {@link #beforeCreateEncounter(Encounter)} would if they were
+     * saved one after the other, but looks up the candidate visits for all of them with a single query. A visit created
+     * for one encounter is reused for later encounters of the same patient that it suits, just as it would be found
+     * once saved. Meant for imports that create many encounters at once; the encounters still need to be saved.
+     *
+     * @param encounters unsaved encounters, in the order they would have been saved
+     */
+    public void beforeCreateEncounters(List<Encounter> encounters) {
+        Date now = new Date();
+        List<Encounter> toAssign = new ArrayList<Encounter>();
+        List<Date> whens = new ArrayList<Date>();
+        Map<Patient, List<Visit>> candidatesByPatient = new LinkedHashMap<Patient, List<Visit>>();
+        Set<Location> locations = new LinkedHashSet<Location>();
+        Date earliest = null;
+        Date latest = null;
 
-        // Eventually we should explicitly allow some encounters to be visit-free, probably via a GP defining a list of EncounterTypes.
-        // If we do that, we'd return early from here, and re-enable the IllegalStateException below.
+        for (Encounter encounter : encounters) {
+            //Do nothing if the encounter already belongs to a visit.
+            if (encounter.getVisit() != null) {
+                continue;
+            }
 
+            // Eventually we should explicitly allow some encounters to be visit-free, probably via a GP defining a list of EncounterTypes.
+            // If we do that, we'd skip them here, and re-enable the IllegalStateException below.
 
-        Date when = encounter.getEncounterDatetime();
-        if (when == null) {
-            when = new Date();
-        }
+            Date when = encounter.getEncounterDatetime();
+            if (when == null) {
+                when = now;
+            }
 
-        // location-less encounters shouldn't belong to a visit
-        if (encounter.getLocation() == null) {
+            // location-less encounters shouldn't belong to a visit
+            if (encounter.getLocation() == null) {
+                continue;
+            }
+
+            toAssign.add(encounter);
+            whens.add(when);
+            candidatesByPatient.put(encounter.getPatient(), new ArrayList<Visit>());
+            locations.addAll(adtService.getSelfAndAncestors(encounter.getLocation()));
+            earliest = earliest == null || when.before(earliest) ? when : earliest;
+            latest = latest == null || when.after(latest) ? when : latest;
+        }
+        if (toAssign.isEmpty()) {
             return;
         }
 
-        List<Patient> patient = Collections.singletonList(encounter.getPatient());
+        // visits that could contain any of the encounters, even ignoring time of day: ones at an encounter location or
+        // one of its ancestors, that started by the end of the last encounter date and had not stopped before the start
+        // of the first (each encounter is then checked against its patient's candidates, in the order returned)
+        List<Visit> visits = visitService.getVisits(null, new ArrayList<Patient>(candidatesByPatient.keySet()),
+                new ArrayList<Location>(locations), null, null, new DateTime(latest).withTime(23, 59, 59, 999).toDate(),
+                new DateTime(earliest).withTimeAtStartOfDay().toDate(), null, null, true, false);
+        if (visits != null) {
+            for (Visit visit : visits) {
+                List<Visit> candidates = candidatesByPatient.get(visit.getPatient());
+                if (candidates != null) {
+                    candidates.add(visit);
+                }
+            }
+        }
 
-        // visits that have started by end of day on the encounter date
-        List<Visit> candidates = visitService.getVisits(null, patient, null, null, null,
-                new DateTime(when).withTime(23, 59, 59, 999).toDate(), null, null, null, true, false);
+        Boolean createVisits = null;
+        for (int i = 0; i < toAssign.size(); i++) {
+            Encounter encounter = toAssign.get(i);
+            List<Visit> candidates = candidatesByPatient.get(encounter.getPatient());
+            if (assignToSuitableVisit(encounter, whens.get(i), candidates)) {
+                continue;
+            }
 
-        if (candidates != null) {
-            for (Visit candidate : candidates) {
+            // there is no suitable visit so create one if there is a mapping encounter type to the visit type via the Global property
+            if (createVisits == null) {
+                createVisits = StringUtils.isNotBlank(administrationService.getGlobalProperty(EmrApiConstants.GP_VISIT_ASSIGNMENT_HANDLER_ENCOUNTER_TYPE_TO_VISIT_TYPE_MAP));
+            }
+            if (createVisits) {
+                Visit visit = createVisit(encounter);
+                if (visit != null) {
+                    addCandidate(candidates, visit);
+                }
+            }
 
-                if (emrApiProperties.getVisitAssignmentHandlerAdjustEncounterTimeOfDayIfNecessary()) {
-                    if (adtService.isSuitableVisitIgnoringTime(candidate, encounter.getLocation(), when)) {
-                        if (when.before(candidate.getStartDatetime())) {
-                            encounter.setEncounterDatetime(candidate.getStartDatetime());
-                        }
-                        else if (candidate.getStopDatetime() != null && when.after(candidate.getStopDatetime())) {
-                            encounter.setEncounterDatetime(candidate.getStopDatetime());
-                        }
+            // TEMP HACK: allow visit-free encounters while we continue to discuss this
+            // throw new IllegalStateException("Cannot create an encounter outside of a visit");
+        }
+    }
 
-                        candidate.addEncounter(encounter);
-                        return;
+    private boolean assignToSuitableVisit(Encounter encounter, Date when, List<Visit> candidates) {
+        for (Visit candidate : candidates) {
+
+            if (emrApiProperties.getVisitAssignmentHandlerAdjustEncounterTimeOfDayIfNecessary()) {
+                if (adtService.isSuitableVisitIgnoringTime(candidate, encounter.getLocation(), when)) {
+                    if (when.before(candidate.getStartDatetime())) {
+                        encounter.setEncounterDatetime(candidate.getStartDatetime());
                     }
-                }
-                else {
-                    if (adtService.isSuitableVisit(candidate, encounter.getLocation(), when)) {
-                        candidate.addEncounter(encounter);
-                        return;
+                    else if (candidate.getStopDatetime() != null && when.after(candidate.getStopDatetime())) {
+                        encounter.setEncounterDatetime(candidate.getStopDatetime());
                     }
+
+                    candidate.addEncounter(encounter);
+                    return true;
                 }
             }
-        }
-        // there is no suitable visit so create one if there is a mapping encounter type to the visit type via the Global property
-        if (StringUtils.isNotBlank(administrationService.getGlobalProperty(EmrApiConstants.GP_VISIT_ASSIGNMENT_HANDLER_ENCOUNTER_TYPE_TO_VISIT_TYPE_MAP))) {
-            VisitType visitType = getEncounterTypetoVisitTypeMapper().getVisitTypeForEncounter(encounter);
-            // only process a visit if there is a matching visitType
-            if (visitType != null) {
-                Visit visit = new Visit();
-                visit.setStartDatetime(encounter.getEncounterDatetime());
-                visit.setLocation(adtService.getLocationThatSupportsVisits(encounter.getLocation()));
-                visit.setPatient(encounter.getPatient());
-                visit.setVisitType(visitType);
-                //set stop date time to last millisecond of the encounter day for a past visit
-                if (!DateUtils.isSameDay(encounter.getEncounterDatetime(), new Date())) {
-                    visit.setStopDatetime(OpenmrsUtil.getLastMomentOfDay(encounter.getEncounterDatetime()));
+            else {
+                if (adtService.isSuitableVisit(candidate, encounter.getLocation(), when)) {
+                    candidate.addEncounter(encounter);
+                    return true;
                 }
-                visit.addEncounter(encounter);
             }
         }
+        return false;
+    }
 
-        // TEMP HACK: allow visit-free encounters while we continue to discuss this
-        // throw new IllegalStateException("Cannot create an encounter outside of a visit");
+    /**
+     * @return a new visit, containing the encounter, of the type mapped to the encounter's type; or null if there is none
+     */
+    private Visit createVisit(Encounter encounter) {
+        VisitType visitType = getEncounterTypetoVisitTypeMapper().getVisitTypeForEncounter(encounter);
+        // only process a visit if there is a matching visitType
+        if (visitType == null) {
+            return null;
+        }
+        Visit visit = new Visit();
+        visit.setStartDatetime(encounter.getEncounterDatetime());
+        visit.setLocation(adtService.getLocationThatSupportsVisits(encounter.getLocation()));
+        visit.setPatient(encounter.getPatient());
+        visit.setVisitType(visitType);
+        //set stop date time to last millisecond of the encounter day for a past visit
+        if (!DateUtils.isSameDay(encounter.getEncounterDatetime(), new Date())) {
+            visit.setStopDatetime(OpenmrsUtil.getLastMomentOfDay(encounter.getEncounterDatetime()));
+        }
+        visit.addEncounter(encounter);
+        return visit;
+    }
+
+    /**
+     * Adds a newly-created visit where VisitService.getVisits would return it once saved: candidates are ordered most
+     * recently started first, and among visits starting at the same time the new one has the highest id
+     */
+    private void addCandidate(List<Visit> candidates, Visit visit) {
+        int i = 0;
+        while (i < candidates.size()
+                && OpenmrsUtil.compareWithNullAsEarliest(candidates.get(i).getStartDatetime(), visit.getStartDatetime()) > 0) {
+            i++;
+        }
+        candidates.add(i, visit);
     }
 
     public void setVisitService(VisitService visitService) {
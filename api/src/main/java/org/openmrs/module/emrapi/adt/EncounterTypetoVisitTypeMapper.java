@@ -1,15 +1,22 @@
 package org.openmrs.module.emrapi.adt;
 
 import org.apache.commons.lang.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.openmrs.Encounter;
 import org.openmrs.EncounterType;
+import org.openmrs.GlobalProperty;
 import org.openmrs.VisitType;
 import org.openmrs.api.AdministrationService;
+import org.openmrs.api.GlobalPropertyListener;
 import org.openmrs.api.VisitService;
 import org.openmrs.module.emrapi.EmrApiConstants;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+import java.util.HashMap;
+import java.util.Map;
+
 /**
  * Provides a mapping between encounter types and visit types from a comma delimited list of mappings of the following format
  *
@@ -20,10 +27,18 @@ import org.springframework.stereotype.Component;
  *
  * Any specific mapping will override the default mapping
  *
+ * The mappings are parsed, and visit type uuids resolved to ids, once, and then again whenever the global property
+ * changes (or {@link #setMappingString(String)} or {@link #clearCache()} is called). Only the ids are kept; the visit
+ * type itself is loaded by id, in the caller's session, each time it is asked for.
+ *
  *
  */
 @Component
-public class EncounterTypetoVisitTypeMapper {
+public class EncounterTypetoVisitTypeMapper implements GlobalPropertyListener {
+	
+	private static final String DEFAULT = "default";
+	
+	private final Log log = LogFactory.getLog(getClass());
 	
 	@Autowired
 	private VisitService visitService;
@@ -33,60 +48,87 @@ public class EncounterTypetoVisitTypeMapper {
 	
 	private String mappingString;
 	
+	/**
+	 * The parsed mapping string: visit type ids keyed by encounter type id, encounter type uuid, or "default"; null until
+	 * the mapping string is next needed
+	 */
+	private volatile Map<String, Integer> visitTypeIds;
+	
 	public VisitType getVisitTypeForEncounter(Encounter encounter) {
 		return getVisitTypeForEncounterType(encounter.getEncounterType());
 	}
 	
 	public VisitType getVisitTypeForEncounterType(EncounterType encounterType) {
-		updateMappings();
+		Map<String, Integer> visitTypeIds = getVisitTypeIds();
+		if (visitTypeIds.isEmpty()) {
+			return null;
+		}
 		
+		// Return any mapped visit type over the default
+		VisitType visitType = encounterType.getId() == null ? null : getVisitType(visitTypeIds.get(encounterType.getId().toString()));
+		if (visitType == null) {
+			visitType = getVisitType(visitTypeIds.get(encounterType.getUuid()));
+		}
+		if (visitType == null) {
+			visitType = getVisitType(visitTypeIds.get(DEFAULT));
+		}
+		return visitType;
+	}
+	
+	private VisitType getVisitType(Integer visitTypeId) {
+		return visitTypeId == null ? null : visitService.getVisitType(visitTypeId);
+	}
+	
+	private Map<String, Integer> getVisitTypeIds() {
+		Map<String, Integer> parsed = visitTypeIds;
+		if (parsed == null) {
+			synchronized (this) {
+				parsed = visitTypeIds;
+				if (parsed == null) {
+					updateMappings();
+					parsed = parse(mappingString);
+					visitTypeIds = parsed;
+				}
+			}
+		}
+		return parsed;
+	}
+	
+	private Map<String, Integer> parse(String mappingString) {
+		Map<String, Integer> parsed = new HashMap<String, Integer>();
 		if (StringUtils.isBlank(mappingString)) {
-			return null;
+			return parsed;
 		}
-			
-		String[] mappings = mappingString.split(",");
-		VisitType defaultVisitType = null;
-		VisitType visitType = null;
-		for (String mapping : mappings) {
+		for (String mapping : mappingString.split(",")) {
 			int index = mapping.indexOf(':');
 			if (index > 0) {
 				String mappedEncounterTypeIdOrUuid = mapping.substring(0, index).trim();
-				if ("default".equals(mappedEncounterTypeIdOrUuid) ||
-						encounterType.getId().toString().equals(mappedEncounterTypeIdOrUuid)
-						|| encounterType.getUuid().equals(mappedEncounterTypeIdOrUuid)) {
-					
-					String visitTypeIdOrUuid = mapping.substring(index + 1).trim();
-					if (StringUtils.isNumeric(visitTypeIdOrUuid)) {
-						if ("default".equals(mappedEncounterTypeIdOrUuid)) {
-							defaultVisitType = visitService.getVisitType(Integer.parseInt(visitTypeIdOrUuid));
-						} else {
-							visitType = visitService.getVisitType(Integer.parseInt(visitTypeIdOrUuid));
-						}
-					} else {
-						if ("default".equals(mappedEncounterTypeIdOrUuid)) {
-							defaultVisitType = visitService.getVisitTypeByUuid(visitTypeIdOrUuid);
-						} else {
-							visitType = visitService.getVisitTypeByUuid(visitTypeIdOrUuid);
-						}
+				String visitTypeIdOrUuid = mapping.substring(index + 1).trim();
+				Integer visitTypeId;
+				if (StringUtils.isNumeric(visitTypeIdOrUuid)) {
+					visitTypeId = Integer.valueOf(visitTypeIdOrUuid);
+				} else {
+					VisitType visitType = visitService.getVisitTypeByUuid(visitTypeIdOrUuid);
+					visitTypeId = visitType == null ? null : visitType.getVisitTypeId();
+					if (visitType == null) {
+						log.warn("No visit type " + visitTypeIdOrUuid + " to map encounter type " + mappedEncounterTypeIdOrUuid
+						        + " to, in " + EmrApiConstants.GP_VISIT_ASSIGNMENT_HANDLER_ENCOUNTER_TYPE_TO_VISIT_TYPE_MAP);
 					}
-					
 				}
+				// as before, a later mapping for the same encounter type wins
+				parsed.put(mappedEncounterTypeIdOrUuid, visitTypeId);
 			}
 		}
-		// Return any mapped visit type over the default
-		if (visitType == null) {
-			return defaultVisitType;
-		}  else {
-			return visitType;
-		}
+		return parsed;
 	}
 	
 	public String getMappingString() {
 		return mappingString;
 	}
 	
-	public void setMappingString(String mappingString) {
+	public synchronized void setMappingString(String mappingString) {
 		this.mappingString = mappingString;
+		this.visitTypeIds = null;
 	}
 	
 	public VisitService getVisitService() {
@@ -110,4 +152,41 @@ public class EncounterTypetoVisitTypeMapper {
 			mappingString = adminService.getGlobalProperty(EmrApiConstants.GP_VISIT_ASSIGNMENT_HANDLER_ENCOUNTER_TYPE_TO_VISIT_TYPE_MAP);
 		}
 	}
+	
+	/**
+	 * Re-reads the mappings the next time they are needed, e.g. after one of the mapped visit types has been changed
+	 */
+	public void clearCache() {
+		setMappingString(null);
+	}
+	
+	/**
+	 * Registers this to hear about changes to the mapping global property
+	 */
+	public void registerGlobalPropertyListener() {
+		adminService.addGlobalPropertyListener(this);
+	}
+	
+	/**
+	 * Stops hearing about changes to the mapping global property, since the administration service outlives this
+	 * module's application context
+	 */
+	public void removeGlobalPropertyListener() {
+		adminService.removeGlobalPropertyListener(this);
+	}
+	
+	@Override
+	public boolean supportsPropertyName(String propertyName) {
+		return EmrApiConstants.GP_VISIT_ASSIGNMENT_HANDLER_ENCOUNTER_TYPE_TO_VISIT_TYPE_MAP.equals(propertyName);
+	}
+	
+	@Override
+	public void globalPropertyChanged(GlobalProperty newValue) {
+		setMappingString(newValue.getPropertyValue());
+	}
+	
+	@Override
+	public void globalPropertyDeleted(String propertyName) {
+		clearCache();
+	}
 }
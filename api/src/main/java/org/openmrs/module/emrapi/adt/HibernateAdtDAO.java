@@ -0,0 +1,396 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+package org.openmrs.module.emrapi.adt;
+
+import org.hibernate.Cache;
+import org.hibernate.Hibernate;
+import org.hibernate.Query;
+import org.openmrs.Concept;
+import org.openmrs.Encounter;
+import org.openmrs.EncounterType;
+import org.openmrs.Location;
+import org.openmrs.Patient;
+import org.openmrs.PersonAttributeType;
+import org.openmrs.User;
+import org.openmrs.Visit;
+import org.openmrs.api.db.hibernate.DbSessionFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public class HibernateAdtDAO implements AdtDAO {
+
+    private DbSessionFactory sessionFactory;
+
+    public void setSessionFactory(DbSessionFactory sessionFactory) {
+        this.sessionFactory = sessionFactory;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<Integer> getVisitIdsToClose(Collection<Location> visitLocations, Date mustHaveSomethingAfter,
+                                            EncounterType admissionEncounterType, EncounterType dischargeEncounterType,
+                                            Concept dispositionConcept, Collection<Concept> keepsVisitOpenDispositions) {
+
+        if (visitLocations == null || visitLocations.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        boolean excludeAdmitted = admissionEncounterType != null;
+        boolean excludeKeptOpen = dispositionConcept != null && keepsVisitOpenDispositions != null && !keepsVisitOpenDispositions.isEmpty();
+
+        StringBuilder hql = new StringBuilder();
+        hql.append("select visit.visitId from Visit as visit ")
+                .append("where visit.voided = false ")
+                .append("and visit.stopDatetime is null ")
+                .append("and visit.location in (:visitLocations) ")
+                .append("and visit.startDatetime < :mustHaveSomethingAfter ")
+                // the latest non-voided encounter must be before the cutoff
+                .append("and not exists (select recent.encounterId from Encounter as recent ")
+                .append("    where recent.visit = visit ")
+                .append("    and recent.voided = false ")
+                .append("    and recent.encounterDatetime >= :mustHaveSomethingAfter) ");
+
+        if (excludeAdmitted) {
+            // an admission with no discharge on or after it; ties are left to shouldBeClosed to decide
+            hql.append("and not exists (select admission.encounterId from Encounter as admission ")
+                    .append("    where admission.visit = visit ")
+                    .append("    and admission.voided = false ")
+                    .append("    and admission.encounterType = :admissionEncounterType ");
+            if (dischargeEncounterType != null) {
+                hql.append("    and not exists (select discharge.encounterId from Encounter as discharge ")
+                        .append("        where discharge.visit = visit ")
+                        .append("        and discharge.voided = false ")
+                        .append("        and discharge.encounterType = :dischargeEncounterType ")
+                        .append("        and discharge.encounterDatetime >= admission.encounterDatetime)");
+            }
+            hql.append(") ");
+        }
+
+        if (excludeKeptOpen) {
+            // a disposition that keeps the visit open, with no other disposition on or after it
+            hql.append("and not exists (select keptOpen.obsId from Obs as keptOpen inner join keptOpen.encounter as keptOpenEncounter ")
+                    .append("    where keptOpenEncounter.visit = visit ")
+                    .append("    and keptOpenEncounter.voided = false ")
+                    .append("    and keptOpen.voided = false ")
+                    .append("    and keptOpen.concept = :dispositionConcept ")
+                    .append("    and keptOpen.valueCoded in (:keepsVisitOpenDispositions) ")
+                    .append("    and not exists (select later.obsId from Obs as later inner join later.encounter as laterEncounter ")
+                    .append("        where laterEncounter.visit = visit ")
+                    .append("        and laterEncounter.voided = false ")
+                    .append("        and later.voided = false ")
+                    .append("        and later.concept = :dispositionConcept ")
+                    .append("        and later.obsId <> keptOpen.obsId ")
+                    .append("        and laterEncounter.encounterDatetime >= keptOpenEncounter.encounterDatetime)) ");
+        }
+
+        hql.append("order by visit.visitId");
+
+        Query query = sessionFactory.getCurrentSession().createQuery(hql.toString());
+        query.setParameterList("visitLocations", visitLocations);
+        query.setTimestamp("mustHaveSomethingAfter", mustHaveSomethingAfter);
+        if (excludeAdmitted) {
+            query.setParameter("admissionEncounterType", admissionEncounterType);
+            if (dischargeEncounterType != null) {
+                query.setParameter("dischargeEncounterType", dischargeEncounterType);
+            }
+        }
+        if (excludeKeptOpen) {
+            query.setParameter("dispositionConcept", dispositionConcept);
+            query.setParameterList("keepsVisitOpenDispositions", keepsVisitOpenDispositions);
+        }
+
+        return (List<Integer>) query.list();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<Visit> getVisitsOpenAt(Patient patient, Collection<Location> locations, Date when) {
+        if (patient.getPatientId() == null || (locations != null && locations.isEmpty())) {
+            return Collections.emptyList();
+        }
+
+        StringBuilder hql = new StringBuilder();
+        hql.append("from Visit as visit ")
+                .append("where visit.patient = :patient ")
+                .append("and visit.voided = false ")
+                .append("and visit.startDatetime <= :when ")
+                .append("and (visit.stopDatetime is null or visit.stopDatetime >= :when) ")
+                .append(locations == null ? "and visit.location is null " : "and visit.location in (:locations) ")
+                .append("order by visit.startDatetime desc, visit.visitId desc");
+
+        Query query = sessionFactory.getCurrentSession().createQuery(hql.toString());
+        query.setParameter("patient", patient);
+        query.setTimestamp("when", when);
+        if (locations != null) {
+            query.setParameterList("locations", locations);
+        }
+        return (List<Visit>) query.list();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<Visit> getActiveVisits(Collection<Location> locations, PersonAttributeType testPatientAttributeType) {
+        if (locations == null || locations.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        StringBuilder hql = new StringBuilder();
+        hql.append("from Visit as visit ")
+                .append("where visit.voided = false ")
+                .append("and visit.stopDatetime is null ")
+                .append("and visit.location in (:locations) ");
+        if (testPatientAttributeType != null) {
+            appendNotATestPatient(hql, "visit.patient");
+        }
+        hql.append("order by visit.startDatetime desc, visit.visitId desc");
+
+        Query query = sessionFactory.getCurrentSession().createQuery(hql.toString());
+        query.setParameterList("locations", locations);
+        if (testPatientAttributeType != null) {
+            query.setParameter("testPatientAttributeType", testPatientAttributeType);
+        }
+        return (List<Visit>) query.list();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<Visit> getInpatientVisits(Collection<Location> visitLocations, Location ward, EncounterType admissionEncounterType,
+                                          EncounterType dischargeEncounterType, EncounterType transferEncounterType,
+                                          PersonAttributeType testPatientAttributeType, Integer start, Integer length) {
+        if (visitLocations == null || visitLocations.isEmpty() || admissionEncounterType == null) {
+            return Collections.emptyList();
+        }
+        Query query = createInpatientVisitsQuery("select visit from Visit as visit ", "order by visit.startDatetime desc, visit.visitId desc",
+                visitLocations, ward, admissionEncounterType, dischargeEncounterType, transferEncounterType, testPatientAttributeType);
+        if (start != null) {
+            query.setFirstResult(start);
+        }
+        if (length != null) {
+            query.setMaxResults(length);
+        }
+        return (List<Visit>) query.list();
+    }
+
+    @Override
+    public long getCountOfInpatientVisits(Collection<Location> visitLocations, Location ward, EncounterType admissionEncounterType,
+                                          EncounterType dischargeEncounterType, EncounterType transferEncounterType,
+                                          PersonAttributeType testPatientAttributeType) {
+        if (visitLocations == null || visitLocations.isEmpty() || admissionEncounterType == null) {
+            return 0;
+        }
+        Query query = createInpatientVisitsQuery("select count(visit) from Visit as visit ", "",
+                visitLocations, ward, admissionEncounterType, dischargeEncounterType, transferEncounterType, testPatientAttributeType);
+        return ((Number) query.uniqueResult()).longValue();
+    }
+
+    private Query createInpatientVisitsQuery(String select, String orderBy, Collection<Location> visitLocations, Location ward,
+                                             EncounterType admissionEncounterType, EncounterType dischargeEncounterType,
+                                             EncounterType transferEncounterType, PersonAttributeType testPatientAttributeType) {
+        StringBuilder hql = new StringBuilder(select);
+        hql.append("where visit.voided = false ")
+                .append("and visit.stopDatetime is null ")
+                .append("and visit.location in (:visitLocations) ")
+                // admitted: an admission with no discharge on or after it
+                .append("and exists (select admission.encounterId from Encounter as admission ")
+                .append("    where admission.visit = visit ")
+                .append("    and admission.voided = false ")
+                .append("    and admission.encounterType = :admissionEncounterType ");
+        if (dischargeEncounterType != null) {
+            hql.append("    and not exists (select discharge.encounterId from Encounter as discharge ")
+                    .append("        where discharge.visit = visit ")
+                    .append("        and discharge.voided = false ")
+                    .append("        and discharge.encounterType = :dischargeEncounterType ")
+                    .append("        and discharge.encounterDatetime >= admission.encounterDatetime)");
+        }
+        hql.append(") ");
+
+        if (ward != null) {
+            // the latest admission or transfer was to this ward
+            hql.append("and exists (select adt.encounterId from Encounter as adt ")
+                    .append("    where adt.visit = visit ")
+                    .append("    and adt.voided = false ")
+                    .append("    and adt.encounterType in (:adtEncounterTypes) ")
+                    .append("    and adt.location = :ward ")
+                    .append("    and not exists (select laterAdt.encounterId from Encounter as laterAdt ")
+                    .append("        where laterAdt.visit = visit ")
+                    .append("        and laterAdt.voided = false ")
+                    .append("        and laterAdt.encounterType in (:adtEncounterTypes) ")
+                    .append("        and laterAdt.encounterDatetime > adt.encounterDatetime)) ");
+        }
+
+        if (testPatientAttributeType != null) {
+            appendNotATestPatient(hql, "visit.patient");
+        }
+
+        hql.append(orderBy);
+
+        Query query = sessionFactory.getCurrentSession().createQuery(hql.toString());
+        query.setParameterList("visitLocations", visitLocations);
+        query.setParameter("admissionEncounterType", admissionEncounterType);
+        if (dischargeEncounterType != null) {
+            query.setParameter("dischargeEncounterType", dischargeEncounterType);
+        }
+        if (ward != null) {
+            List<EncounterType> adtEncounterTypes = new ArrayList<EncounterType>();
+            adtEncounterTypes.add(admissionEncounterType);
+            if (transferEncounterType != null) {
+                adtEncounterTypes.add(transferEncounterType);
+            }
+            query.setParameter("ward", ward);
+            query.setParameterList("adtEncounterTypes", adtEncounterTypes);
+        }
+        if (testPatientAttributeType != null) {
+            query.setParameter("testPatientAttributeType", testPatientAttributeType);
+        }
+        return query;
+    }
+
+    /**
+     * Excludes patients who have a non-voided test patient attribute set to "true"; the caller must bind
+     * :testPatientAttributeType
+     */
+    static void appendNotATestPatient(StringBuilder hql, String patientPath) {
+        hql.append("and not exists (select testPatient.personAttributeId from PersonAttribute as testPatient ")
+                .append("    where testPatient.person = ").append(patientPath).append(" ")
+                .append("    and testPatient.voided = false ")
+                .append("    and testPatient.attributeType = :testPatientAttributeType ")
+                .append("    and testPatient.value = 'true') ");
+    }
+
+    @Override
+    public void lockPatient(Patient patient) {
+        if (patient.getPatientId() == null) {
+            return;
+        }
+        sessionFactory.getCurrentSession()
+                .createSQLQuery("select patient_id from patient where patient_id = :patientId for update")
+                .setInteger("patientId", patient.getPatientId())
+                .list();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Map<Integer, Integer> getParentLocationIds() {
+        List<Object[]> rows = sessionFactory.getCurrentSession().createQuery(
+                "select l.locationId, parent.locationId from Location as l left join l.parentLocation as parent").list();
+        Map<Integer, Integer> parentIds = new HashMap<Integer, Integer>();
+        for (Object[] row : rows) {
+            parentIds.put((Integer) row[0], (Integer) row[1]);
+        }
+        return parentIds;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Set<Integer> getLocationIdsWithTag(String tagName) {
+        Query query = sessionFactory.getCurrentSession().createQuery(
+                "select l.locationId from Location as l inner join l.tags as tag where tag.name = :tagName");
+        query.setString("tagName", tagName);
+        return new HashSet<Integer>((List<Integer>) query.list());
+    }
+
+    @Override
+    public Location getLocationReference(Integer locationId) {
+        return (Location) sessionFactory.getCurrentSession().load(Location.class, locationId);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<Integer> getVisitIdsByPatient(Patient patient) {
+        if (patient.getPatientId() == null) {
+            return Collections.emptyList();
+        }
+        return (List<Integer>) sessionFactory.getCurrentSession()
+                .createQuery("select visit.visitId from Visit as visit where visit.patient = :patient and visit.voided = false "
+                        + "order by visit.startDatetime desc, visit.visitId desc")
+                .setParameter("patient", patient)
+                .list();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<Visit> getVisitsByIds(Collection<Integer> visitIds) {
+        if (visitIds == null || visitIds.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return (List<Visit>) sessionFactory.getCurrentSession()
+                .createQuery("from Visit as visit where visit.visitId in (:visitIds)")
+                .setParameterList("visitIds", visitIds)
+                .list();
+    }
+
+    @Override
+    public int moveEncounters(Visit from, Visit to, User changedBy, Date dateChanged) {
+        sessionFactory.getCurrentSession().flush();
+
+        Patient patient = to.getPatient();
+        if (!patient.getPatientId().equals(from.getPatient().getPatientId())) {
+            String encountersOfVisit = "(select e from Encounter as e where e.visit = :from)";
+            sessionFactory.getCurrentSession()
+                    .createQuery("update Obs set person = :patient where encounter in " + encountersOfVisit)
+                    .setParameter("patient", patient)
+                    .setParameter("from", from)
+                    .executeUpdate();
+            // fully qualified, since "order" is an HQL keyword
+            sessionFactory.getCurrentSession()
+                    .createQuery("update org.openmrs.Order set patient = :patient where encounter in " + encountersOfVisit)
+                    .setParameter("patient", patient)
+                    .setParameter("from", from)
+                    .executeUpdate();
+        }
+
+        int moved = sessionFactory.getCurrentSession()
+                .createQuery("update Encounter set visit = :to, patient = :patient, changedBy = :changedBy, dateChanged = :dateChanged "
+                        + "where visit = :from")
+                .setParameter("to", to)
+                .setParameter("patient", patient)
+                .setParameter("changedBy", changedBy)
+                .setParameter("dateChanged", dateChanged)
+                .setParameter("from", from)
+                .executeUpdate();
+
+        // bulk updates invalidate the cached Encounter, Obs and Order entities, but the session still holds any moved
+        // encounters (and their obs and orders) that were loaded, as they were before
+        if (from.getEncounters() != null && Hibernate.isInitialized(from.getEncounters())) {
+            for (Encounter encounter : from.getEncounters()) {
+                sessionFactory.getCurrentSession().evict(encounter);
+            }
+        }
+        Cache cache = sessionFactory.getCurrentSession().getSessionFactory().getCache();
+        cache.evictCollection(Visit.class.getName() + ".encounters", from.getVisitId());
+        cache.evictCollection(Visit.class.getName() + ".encounters", to.getVisitId());
+
+        // so that they see their new encounters (for a visit that is not attached to the session, this reloads the rest
+        // of its state too)
+        sessionFactory.getCurrentSession().refresh(from);
+        sessionFactory.getCurrentSession().refresh(to);
+        return moved;
+    }
+
+    @Override
+    public void flushAndClearSession() {
+        sessionFactory.getCurrentSession().flush();
+        sessionFactory.getCurrentSession().clear();
+    }
+
+}
@@ -0,0 +1,172 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+
+package org.openmrs.module.emrapi.adt;
+
+import org.hibernate.Query;
+import org.hibernate.metadata.ClassMetadata;
+import org.openmrs.Encounter;
+import org.openmrs.EncounterType;
+import org.openmrs.Patient;
+import org.openmrs.api.context.Context;
+import org.openmrs.api.db.hibernate.DbSessionFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+public class HibernatePatientStatisticsDAO implements PatientStatisticsDAO {
+
+    /**
+     * Keeps "in" lists within the limits of every supported database
+     */
+    private static final int MAX_IDS_PER_QUERY = 1000;
+
+    private DbSessionFactory sessionFactory;
+
+    public void setSessionFactory(DbSessionFactory sessionFactory) {
+        this.sessionFactory = sessionFactory;
+    }
+
+    @Override
+    public Encounter getLastEncounter(Patient patient) {
+        List<Integer> hiddenTypeIds = getEncounterTypeIdsNotViewable();
+        Query query = sessionFactory.getCurrentSession().createQuery("from Encounter as e " +
+                "where e.patient = :patient and e.voided = false" + viewable("e", hiddenTypeIds) + " " +
+                "order by e.encounterDatetime desc, e.encounterId desc");
+        query.setParameter("patient", patient);
+        setHiddenTypeIds(query, hiddenTypeIds);
+        query.setMaxResults(1);
+        return (Encounter) query.uniqueResult();
+    }
+
+    @Override
+    public int getCountOfEncounters(Patient patient) {
+        List<Integer> hiddenTypeIds = getEncounterTypeIdsNotViewable();
+        Query query = sessionFactory.getCurrentSession().createQuery("select count(*) from Encounter as e " +
+                "where e.patient = :patient and e.voided = false" + viewable("e", hiddenTypeIds));
+        query.setParameter("patient", patient);
+        setHiddenTypeIds(query, hiddenTypeIds);
+        return ((Number) query.uniqueResult()).intValue();
+    }
+
+    @Override
+    public int getCountOfVisits(Patient patient) {
+        Query query = sessionFactory.getCurrentSession().createQuery("select count(*) from Visit as v " +
+                "where v.patient = :patient and v.voided = false");
+        query.setParameter("patient", patient);
+        return ((Number) query.uniqueResult()).intValue();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Map<Integer, Encounter> getLastEncounters(Collection<Integer> patientIds) {
+        Map<Integer, Encounter> lastEncounters = new HashMap<Integer, Encounter>();
+        List<Integer> hiddenTypeIds = getEncounterTypeIdsNotViewable();
+        for (List<Integer> chunk : chunk(patientIds)) {
+            Query query = sessionFactory.getCurrentSession().createQuery("from Encounter as e " +
+                    "where e.patient.patientId in (:patientIds) and e.voided = false" + viewable("e", hiddenTypeIds) + " " +
+                    "and e.encounterDatetime = (select max(latest.encounterDatetime) from Encounter as latest " +
+                    "    where latest.patient = e.patient and latest.voided = false" + viewable("latest", hiddenTypeIds) + ") " +
+                    "order by e.encounterId");
+            query.setParameterList("patientIds", chunk);
+            setHiddenTypeIds(query, hiddenTypeIds);
+            // ordered by id, so where several encounters share the latest datetime the highest id wins
+            for (Encounter encounter : (List<Encounter>) query.list()) {
+                lastEncounters.put(encounter.getPatient().getPatientId(), encounter);
+            }
+        }
+        return lastEncounters;
+    }
+
+    @Override
+    public Map<Integer, Integer> getCountsOfEncounters(Collection<Integer> patientIds) {
+        List<Integer> hiddenTypeIds = getEncounterTypeIdsNotViewable();
+        return countByPatient("select e.patient.patientId, count(*) from Encounter as e " +
+                "where e.patient.patientId in (:patientIds) and e.voided = false" + viewable("e", hiddenTypeIds) + " " +
+                "group by e.patient.patientId", patientIds, hiddenTypeIds);
+    }
+
+    @Override
+    public Map<Integer, Integer> getCountsOfVisits(Collection<Integer> patientIds) {
+        return countByPatient("select v.patient.patientId, count(*) from Visit as v " +
+                "where v.patient.patientId in (:patientIds) and v.voided = false " +
+                "group by v.patient.patientId", patientIds, new ArrayList<Integer>());
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<Integer, Integer> countByPatient(String hql, Collection<Integer> patientIds, List<Integer> hiddenTypeIds) {
+        Map<Integer, Integer> counts = new HashMap<Integer, Integer>();
+        for (List<Integer> chunk : chunk(patientIds)) {
+            for (Integer patientId : chunk) {
+                counts.put(patientId, 0);
+            }
+            Query query = sessionFactory.getCurrentSession().createQuery(hql);
+            query.setParameterList("patientIds", chunk);
+            setHiddenTypeIds(query, hiddenTypeIds);
+            for (Object[] row : (List<Object[]>) query.list()) {
+                counts.put((Integer) row[0], ((Number) row[1]).intValue());
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * The EncounterService getters leave out encounters of a type with a view privilege (from OpenMRS 1.10) that the
+     * authenticated user does not have, so these statistics do too
+     *
+     * @return the ids of those encounter types
+     */
+    @SuppressWarnings("unchecked")
+    private List<Integer> getEncounterTypeIdsNotViewable() {
+        List<Integer> notViewable = new ArrayList<Integer>();
+        ClassMetadata metadata = sessionFactory.getCurrentSession().getSessionFactory().getClassMetadata(EncounterType.class);
+        if (metadata == null || !Arrays.asList(metadata.getPropertyNames()).contains("viewPrivilege")) {
+            return notViewable;
+        }
+        List<Object[]> rows = sessionFactory.getCurrentSession().createQuery("select et.encounterTypeId, et.viewPrivilege.privilege " +
+                "from EncounterType as et where et.viewPrivilege is not null").list();
+        for (Object[] row : rows) {
+            if (!Context.hasPrivilege((String) row[1])) {
+                notViewable.add((Integer) row[0]);
+            }
+        }
+        return notViewable;
+    }
+
+    private String viewable(String alias, List<Integer> hiddenTypeIds) {
+        return hiddenTypeIds.isEmpty() ? "" : " and " + alias + ".encounterType.encounterTypeId not in (:hiddenTypeIds)";
+    }
+
+    private void setHiddenTypeIds(Query query, List<Integer> hiddenTypeIds) {
+        if (!hiddenTypeIds.isEmpty()) {
+            query.setParameterList("hiddenTypeIds", hiddenTypeIds);
+        }
+    }
+
+    private List<List<Integer>> chunk(Collection<Integer> patientIds) {
+        List<Integer> distinct = new ArrayList<Integer>(new LinkedHashSet<Integer>(patientIds));
+        List<List<Integer>> chunks = new ArrayList<List<Integer>>();
+        for (int from = 0; from < distinct.size(); from += MAX_IDS_PER_QUERY) {
+            chunks.add(distinct.subList(from, Math.min(from + MAX_IDS_PER_QUERY, distinct.size())));
+        }
+        return chunks;
+    }
+
+}
@@ -0,0 +1,142 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+package org.openmrs.module.emrapi.adt;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Closes inactive visits in fixed-size batches. Candidate visit ids are selected with a single query, and each batch
+ * is then closed through a separate call to {@link AdtService#closeInactiveVisits(List)}, so that (when called from
+ * outside a transaction, e.g. from {@link CloseStaleVisitsTask}) each batch commits in its own transaction and the
+ * session never holds more than one batch of visits.
+ */
+public class InactiveVisitCloser {
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private AdtService adtService;
+
+    private int batchSize;
+
+    public InactiveVisitCloser(AdtService adtService, int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be at least 1");
+        }
+        this.adtService = adtService;
+        this.batchSize = batchSize;
+    }
+
+    public Result closeInactiveVisits() {
+        long start = System.currentTimeMillis();
+
+        List<Integer> visitIds = adtService.getVisitIdsToClose();
+        Result result = new Result(visitIds.size(), System.currentTimeMillis() - start);
+
+        for (int from = 0; from < visitIds.size(); from += batchSize) {
+            List<Integer> batch = new ArrayList<Integer>(visitIds.subList(from, Math.min(from + batchSize, visitIds.size())));
+            long batchStart = System.currentTimeMillis();
+            try {
+                int closed = adtService.closeInactiveVisits(batch);
+                result.addBatch(closed, System.currentTimeMillis() - batchStart);
+            } catch (Exception ex) {
+                log.warn("Failed to close batch of inactive visits " + batch, ex);
+                result.addFailedBatch(batch.size(), System.currentTimeMillis() - batchStart);
+            }
+        }
+
+        log.info("Closed {} of {} candidate inactive visits in {} batches ({} failed) in {} ms", result.getClosed(),
+                result.getCandidates(), result.getBatchTimings().size(), result.getFailedBatches(),
+                System.currentTimeMillis() - start);
+
+        return result;
+    }
+
+    /**
+     * Counts and timings from a single run of {@link InactiveVisitCloser#closeInactiveVisits()}
+     */
+    public static class Result {
+
+        private int candidates;
+
+        private long selectionTime;
+
+        private int closed;
+
+        private int failedBatches;
+
+        private int visitsInFailedBatches;
+
+        private List<Long> batchTimings = new ArrayList<Long>();
+
+        public Result(int candidates, long selectionTime) {
+            this.candidates = candidates;
+            this.selectionTime = selectionTime;
+        }
+
+        void addBatch(int closed, long time) {
+            this.closed += closed;
+            batchTimings.add(time);
+        }
+
+        void addFailedBatch(int size, long time) {
+            failedBatches++;
+            visitsInFailedBatches += size;
+            batchTimings.add(time);
+        }
+
+        /**
+         * @return the number of candidate visits returned by the selection query
+         */
+        public int getCandidates() {
+            return candidates;
+        }
+
+        /**
+         * @return time taken by the selection query, in milliseconds
+         */
+        public long getSelectionTime() {
+            return selectionTime;
+        }
+
+        /**
+         * @return the number of visits actually closed
+         */
+        public int getClosed() {
+            return closed;
+        }
+
+        public int getFailedBatches() {
+            return failedBatches;
+        }
+
+        public int getVisitsInFailedBatches() {
+            return visitsInFailedBatches;
+        }
+
+        /**
+         * @return the time taken by each batch, in milliseconds, in the order the batches ran
+         */
+        public List<Long> getBatchTimings() {
+            return Collections.unmodifiableList(batchTimings);
+        }
+
+    }
+
+}
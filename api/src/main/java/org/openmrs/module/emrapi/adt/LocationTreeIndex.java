@@ -0,0 +1,282 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+
+package org.openmrs.module.emrapi.adt;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.Location;
+import org.openmrs.api.LocationService;
+import org.openmrs.module.emrapi.EmrApiConstants;
+import org.openmrs.module.emrapi.utils.ServiceAdvice;
+import org.springframework.aop.AfterReturningAdvice;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory index of the location hierarchy, answering "visit location of X", "is A the same as or an ancestor of B"
+ * and "X and its descendants" with map lookups instead of walking (and lazy-loading) parent and child locations.
+ * <p/>
+ * The index is built from two queries the first time it is needed, and thrown away whenever a location or location
+ * tag is saved, retired, unretired or purged through the {@link LocationService} (and again when that transaction
+ * completes, in case it rolled back). Locations that are not in the index, e.g. ones that have not been saved yet,
+ * are answered by walking the object graph as before.
+ */
+public class LocationTreeIndex {
+
+    private final Log log = LogFactory.getLog(getClass());
+
+    private AdtDAO dao;
+
+    private LocationService locationService;
+
+    private ServiceAdvice invalidationAdvice;
+
+    private volatile boolean listening;
+
+    private volatile Tree tree;
+
+    private final AtomicLong generation = new AtomicLong();
+
+    public void setDao(AdtDAO dao) {
+        this.dao = dao;
+    }
+
+    public void setLocationService(LocationService locationService) {
+        this.locationService = locationService;
+    }
+
+    /**
+     * Registers advice on the location service's save, retire, unretire and purge methods that invalidates this index
+     * whenever locations change
+     */
+    public synchronized void registerInvalidationAdvice() {
+        if (invalidationAdvice == null) {
+            invalidationAdvice = ServiceAdvice.register(locationService, new InvalidateOnLocationChange(),
+                    "save*", "retire*", "unretire*", "purge*");
+        }
+        if (invalidationAdvice.isRegistered()) {
+            listening = true;
+        } else {
+            log.warn("Cannot listen for location changes, so the location tree index will not be used");
+        }
+    }
+
+    /**
+     * Removes the advice added by {@link #registerInvalidationAdvice()}, since the location service outlives this
+     * module's application context
+     */
+    public synchronized void removeInvalidationAdvice() {
+        listening = false;
+        if (invalidationAdvice != null) {
+            invalidationAdvice.remove();
+            invalidationAdvice = null;
+        }
+        invalidate();
+    }
+
+    public void invalidate() {
+        generation.incrementAndGet();
+        tree = null;
+    }
+
+    /**
+     * @param location
+     * @return location, or its closest ancestor, tagged as supporting visits; or null if there is none
+     */
+    public Location getVisitLocation(Location location) {
+        if (location == null) {
+            return null;
+        }
+        Tree current = getTree(location);
+        if (current == null) {
+            for (Location candidate = location; candidate != null; candidate = candidate.getParentLocation()) {
+                if (candidate.hasTag(EmrApiConstants.LOCATION_TAG_SUPPORTS_VISITS)) {
+                    return candidate;
+                }
+            }
+            return null;
+        }
+        Integer visitLocationId = current.visitLocation.get(location.getLocationId());
+        if (visitLocationId == null) {
+            return null;
+        }
+        return visitLocationId.equals(location.getLocationId()) ? location : dao.getLocationReference(visitLocationId);
+    }
+
+    /**
+     * @param ancestor
+     * @param location
+     * @return true if ancestor is location or one of its ancestors (or if both are null)
+     */
+    public boolean isSameOrAncestor(Location ancestor, Location location) {
+        if (ancestor == null || location == null) {
+            return ancestor == null && location == null;
+        }
+        Tree current = getTree(location);
+        if (current == null || ancestor.getLocationId() == null) {
+            for (Location candidate = location; candidate != null; candidate = candidate.getParentLocation()) {
+                if (ancestor.equals(candidate)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        return current.selfAndAncestors.get(location.getLocationId()).contains(ancestor.getLocationId());
+    }
+
+    /**
+     * @param location
+     * @return location followed by its parent, grandparent, etc
+     */
+    public List<Location> getSelfAndAncestors(Location location) {
+        Tree current = getTree(location);
+        List<Location> locations = new ArrayList<Location>();
+        if (current == null) {
+            for (Location candidate = location; candidate != null; candidate = candidate.getParentLocation()) {
+                locations.add(candidate);
+            }
+        } else {
+            locations.add(location);
+            Iterator<Integer> ancestorIds = current.selfAndAncestors.get(location.getLocationId()).iterator();
+            ancestorIds.next();
+            while (ancestorIds.hasNext()) {
+                locations.add(dao.getLocationReference(ancestorIds.next()));
+            }
+        }
+        return locations;
+    }
+
+    /**
+     * @param location
+     * @return location and all its descendants
+     */
+    public Set<Location> getSelfAndDescendants(Location location) {
+        Tree current = getTree(location);
+        Set<Location> locations = new LinkedHashSet<Location>();
+        if (current == null) {
+            addSelfAndDescendants(location, locations);
+        } else {
+            locations.add(location);
+            for (Integer descendantId : current.selfAndDescendants.get(location.getLocationId())) {
+                if (!descendantId.equals(location.getLocationId())) {
+                    locations.add(dao.getLocationReference(descendantId));
+                }
+            }
+        }
+        return locations;
+    }
+
+    private void addSelfAndDescendants(Location location, Set<Location> found) {
+        if (found.add(location) && location.getChildLocations() != null) {
+            for (Location child : location.getChildLocations()) {
+                addSelfAndDescendants(child, found);
+            }
+        }
+    }
+
+    /**
+     * @param location
+     * @return the current tree, building it if necessary, or null if location is not in it
+     */
+    private Tree getTree(Location location) {
+        if (!listening || location == null || location.getLocationId() == null) {
+            return null;
+        }
+        Tree current = tree;
+        if (current == null) {
+            current = build();
+        }
+        return current.selfAndAncestors.containsKey(location.getLocationId()) ? current : null;
+    }
+
+    private synchronized Tree build() {
+        Tree current = tree;
+        while (current == null) {
+            long buildingGeneration = generation.get();
+            Tree built = new Tree(dao.getParentLocationIds(), dao.getLocationIdsWithTag(EmrApiConstants.LOCATION_TAG_SUPPORTS_VISITS));
+            if (generation.get() == buildingGeneration) {
+                // nothing changed while we were querying, so this is safe to share
+                tree = built;
+                current = built;
+            } else if (generation.get() - buildingGeneration > 10) {
+                // locations are changing constantly; answer this call without caching
+                return built;
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Immutable snapshot of the location hierarchy, by location id
+     */
+    private static class Tree {
+
+        private final Map<Integer, Set<Integer>> selfAndAncestors = new HashMap<Integer, Set<Integer>>();
+
+        private final Map<Integer, Set<Integer>> selfAndDescendants = new HashMap<Integer, Set<Integer>>();
+
+        private final Map<Integer, Integer> visitLocation = new HashMap<Integer, Integer>();
+
+        Tree(Map<Integer, Integer> parentIds, Set<Integer> visitLocationIds) {
+            for (Integer locationId : parentIds.keySet()) {
+                // ordered from self upwards; the set also guards against cycles
+                Set<Integer> ancestors = new LinkedHashSet<Integer>();
+                for (Integer id = locationId; id != null && ancestors.add(id); id = parentIds.get(id)) {
+                    if (!visitLocation.containsKey(locationId) && visitLocationIds.contains(id)) {
+                        visitLocation.put(locationId, id);
+                    }
+                    Set<Integer> descendants = selfAndDescendants.get(id);
+                    if (descendants == null) {
+                        descendants = new LinkedHashSet<Integer>();
+                        selfAndDescendants.put(id, descendants);
+                    }
+                    descendants.add(locationId);
+                }
+                selfAndAncestors.put(locationId, Collections.unmodifiableSet(ancestors));
+            }
+        }
+
+    }
+
+    private class InvalidateOnLocationChange implements AfterReturningAdvice {
+
+        @Override
+        public void afterReturning(Object returnValue, Method method, Object[] args, Object target) throws Throwable {
+            invalidate();
+            if (TransactionSynchronizationManager.isSynchronizationActive()) {
+                TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                    @Override
+                    public void afterCompletion(int status) {
+                        invalidate();
+                    }
+                });
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,64 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+
+package org.openmrs.module.emrapi.adt;
+
+import org.openmrs.Patient;
+
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A fixed set of locks, striped by patient, so that work on one patient can be serialized without serializing work
+ * on every patient. Two patients may share a stripe, which only costs some unnecessary waiting; the same patient
+ * always maps to the same lock.
+ */
+public class PatientLocks {
+
+    public static final int DEFAULT_STRIPES = 256;
+
+    private final Lock[] stripes;
+
+    public PatientLocks() {
+        this(DEFAULT_STRIPES);
+    }
+
+    public PatientLocks(int numberOfStripes) {
+        if (numberOfStripes < 1) {
+            throw new IllegalArgumentException("Number of stripes must be at least 1");
+        }
+        stripes = new Lock[numberOfStripes];
+        for (int i = 0; i < numberOfStripes; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * @param patient
+     * @return the lock for this patient, keyed by uuid so that different instances of the same patient (e.g. loaded
+     * in different sessions) share it
+     */
+    public Lock getLock(Patient patient) {
+        return stripes[indexFor(patient.getUuid())];
+    }
+
+    private int indexFor(String uuid) {
+        int hash = uuid.hashCode();
+        // spread the high bits, since the stripe count is usually a power of two
+        hash ^= (hash >>> 16);
+        return (hash & Integer.MAX_VALUE) % stripes.length;
+    }
+
+}
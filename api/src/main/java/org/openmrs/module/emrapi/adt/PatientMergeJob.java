@@ -0,0 +1,198 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+package org.openmrs.module.emrapi.adt;
+
+import org.openmrs.api.PatientService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Date;
+import java.util.UUID;
+
+/**
+ * A patient merge running in the background (see {@link AdtService#queuePatientMerge}). Each step runs in its own
+ * transaction, and the job records the last step that completed, so that a failed job can be resumed from there.
+ * Getters may be called from any thread while the job is running.
+ */
+public class PatientMergeJob {
+
+    public enum Status {
+        QUEUED, RUNNING, COMPLETED, FAILED
+    }
+
+    /**
+     * The next step to run
+     */
+    public enum Phase {
+        STARTING, MERGING_VISITS, MERGING_PATIENTS, DONE
+    }
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final String jobId = UUID.randomUUID().toString();
+
+    private final Integer preferredPatientId;
+
+    private final Integer notPreferredPatientId;
+
+    private final Integer requestedBy;
+
+    private final int visitGroupsPerTransaction;
+
+    private final Date dateQueued = new Date();
+
+    private volatile Status status = Status.QUEUED;
+
+    private volatile Phase phase = Phase.STARTING;
+
+    private volatile int visitGroupsMerged;
+
+    private volatile int attempts;
+
+    private volatile Date dateFinished;
+
+    private volatile String error;
+
+    public PatientMergeJob(Integer preferredPatientId, Integer notPreferredPatientId, Integer requestedBy,
+                           int visitGroupsPerTransaction) {
+        if (visitGroupsPerTransaction < 1) {
+            throw new IllegalArgumentException("Must merge at least 1 group of visits per transaction");
+        }
+        this.preferredPatientId = preferredPatientId;
+        this.notPreferredPatientId = notPreferredPatientId;
+        this.requestedBy = requestedBy;
+        this.visitGroupsPerTransaction = visitGroupsPerTransaction;
+    }
+
+    /**
+     * Runs the remaining steps, each through a separate call to adtService (so, when called from outside a transaction,
+     * each commits on its own), stopping at the first that fails
+     *
+     * @param adtService
+     * @param patientService
+     */
+    void run(AdtService adtService, PatientService patientService) {
+        status = Status.RUNNING;
+        attempts++;
+        try {
+            if (phase == Phase.STARTING) {
+                adtService.startPatientMerge(patientService.getPatient(preferredPatientId),
+                        patientService.getPatient(notPreferredPatientId));
+                phase = Phase.MERGING_VISITS;
+            }
+            while (phase == Phase.MERGING_VISITS) {
+                int merged = adtService.mergeOverlappingVisits(patientService.getPatient(preferredPatientId),
+                        patientService.getPatient(notPreferredPatientId), visitGroupsPerTransaction);
+                visitGroupsMerged += merged;
+                if (merged < visitGroupsPerTransaction) {
+                    phase = Phase.MERGING_PATIENTS;
+                }
+            }
+            if (phase == Phase.MERGING_PATIENTS) {
+                adtService.finishPatientMerge(patientService.getPatient(preferredPatientId),
+                        patientService.getPatient(notPreferredPatientId));
+                phase = Phase.DONE;
+            }
+            error = null;
+            status = Status.COMPLETED;
+        }
+        catch (Exception ex) {
+            log.warn("Failed to merge patient " + notPreferredPatientId + " into " + preferredPatientId + " at " + phase
+                    + " (requested by user " + requestedBy + ")", ex);
+            error = ex.toString();
+            status = Status.FAILED;
+        }
+        finally {
+            if (status == Status.COMPLETED || status == Status.FAILED) {
+                dateFinished = new Date();
+            }
+        }
+    }
+
+    /**
+     * Marks a failed job as queued again, to carry on from its current phase
+     */
+    void requeue() {
+        if (status != Status.FAILED) {
+            throw new IllegalArgumentException("Only a failed job can be resumed, but job " + jobId + " is " + status);
+        }
+        status = Status.QUEUED;
+        dateFinished = null;
+    }
+
+    public String getJobId() {
+        return jobId;
+    }
+
+    public Integer getPreferredPatientId() {
+        return preferredPatientId;
+    }
+
+    public Integer getNotPreferredPatientId() {
+        return notPreferredPatientId;
+    }
+
+    /**
+     * @return the id of the user who queued the job
+     */
+    public Integer getRequestedBy() {
+        return requestedBy;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public Phase getPhase() {
+        return phase;
+    }
+
+    /**
+     * @return the number of groups of overlapping visits joined together so far
+     */
+    public int getVisitGroupsMerged() {
+        return visitGroupsMerged;
+    }
+
+    /**
+     * @return the number of times the job has been run, including resumes
+     */
+    public int getAttempts() {
+        return attempts;
+    }
+
+    public Date getDateQueued() {
+        return dateQueued;
+    }
+
+    /**
+     * @return when the job last completed or failed, or null if it is queued or running
+     */
+    public Date getDateFinished() {
+        return dateFinished;
+    }
+
+    /**
+     * @return why the job failed, or null if it has not
+     */
+    public String getError() {
+        return error;
+    }
+
+    public boolean isFinished() {
+        return status == Status.COMPLETED || status == Status.FAILED;
+    }
+
+}
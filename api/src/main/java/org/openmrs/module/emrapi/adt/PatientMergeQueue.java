@@ -0,0 +1,114 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+package org.openmrs.module.emrapi.adt;
+
+import org.apache.commons.lang.time.DateUtils;
+import org.openmrs.User;
+import org.openmrs.api.context.Context;
+import org.openmrs.api.context.UserContext;
+
+import java.util.Date;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Runs {@link PatientMergeJob}s one at a time on a background thread, as the user who queued (or resumed) them, so that
+ * their privileges apply and the changes the merge makes are recorded against them; and keeps the jobs (in memory) for a
+ * day after they finish so that their outcome can be looked up. Queue and resume from the requesting user's thread.
+ */
+public class PatientMergeQueue {
+
+    private final Map<String, PatientMergeJob> jobs = new ConcurrentHashMap<String, PatientMergeJob>();
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "emrapi-patient-merge");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private int visitGroupsPerTransaction = 10;
+
+    public void setVisitGroupsPerTransaction(int visitGroupsPerTransaction) {
+        this.visitGroupsPerTransaction = visitGroupsPerTransaction;
+    }
+
+    public PatientMergeJob queue(Integer preferredPatientId, Integer notPreferredPatientId) {
+        removeJobsFinishedBefore(DateUtils.addDays(new Date(), -1));
+
+        User requestedBy = Context.getAuthenticatedUser();
+        PatientMergeJob job = new PatientMergeJob(preferredPatientId, notPreferredPatientId,
+                requestedBy == null ? null : requestedBy.getUserId(), visitGroupsPerTransaction);
+        jobs.put(job.getJobId(), job);
+        submit(job, Context.getUserContext());
+        return job;
+    }
+
+    public PatientMergeJob getJob(String jobId) {
+        return jobId == null ? null : jobs.get(jobId);
+    }
+
+    public PatientMergeJob resume(String jobId) {
+        PatientMergeJob job = getJob(jobId);
+        if (job == null) {
+            throw new IllegalArgumentException("No patient merge job " + jobId);
+        }
+        synchronized (job) {
+            job.requeue();
+        }
+        submit(job, Context.getUserContext());
+        return job;
+    }
+
+    /**
+     * Stops taking jobs; any queued jobs that have not started are dropped (and can be queued again, since each step of a
+     * merge is committed separately)
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private void submit(final PatientMergeJob job, final UserContext userContext) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Context.openSession();
+                try {
+                    Context.setUserContext(userContext);
+                    job.run(Context.getService(AdtService.class), Context.getPatientService());
+                }
+                finally {
+                    Context.closeSession();
+                }
+            }
+        });
+    }
+
+    private void removeJobsFinishedBefore(Date date) {
+        for (Iterator<PatientMergeJob> i = jobs.values().iterator(); i.hasNext(); ) {
+            PatientMergeJob job = i.next();
+            if (job.isFinished() && job.getDateFinished() != null && job.getDateFinished().before(date)) {
+                i.remove();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,67 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+
+package org.openmrs.module.emrapi.adt;
+
+import org.openmrs.Encounter;
+import org.openmrs.Patient;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Answers summary questions about a patient's encounters and visits with count/max projections, rather than loading
+ * every encounter or visit the patient has. As with the EncounterService getters, encounters of a type that the
+ * authenticated user may not view (on OpenMRS 1.10 and later) are left out.
+ */
+public interface PatientStatisticsDAO {
+
+    /**
+     * @param patient
+     * @return the non-voided encounter with the latest encounterDatetime (ties broken by highest id), or null
+     */
+    Encounter getLastEncounter(Patient patient);
+
+    /**
+     * @param patient
+     * @return the number of non-voided encounters for the patient
+     */
+    int getCountOfEncounters(Patient patient);
+
+    /**
+     * @param patient
+     * @return the number of non-voided visits for the patient
+     */
+    int getCountOfVisits(Patient patient);
+
+    /**
+     * @param patientIds
+     * @return the last encounter for each patient, keyed by patient id; patients with no encounters have no entry
+     */
+    Map<Integer, Encounter> getLastEncounters(Collection<Integer> patientIds);
+
+    /**
+     * @param patientIds
+     * @return the number of non-voided encounters, keyed by patient id; every requested patient has an entry
+     */
+    Map<Integer, Integer> getCountsOfEncounters(Collection<Integer> patientIds);
+
+    /**
+     * @param patientIds
+     * @return the number of non-voided visits, keyed by patient id; every requested patient has an entry
+     */
+    Map<Integer, Integer> getCountsOfVisits(Collection<Integer> patientIds);
+
+}
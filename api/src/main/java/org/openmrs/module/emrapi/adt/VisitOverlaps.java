@@ -0,0 +1,230 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+package org.openmrs.module.emrapi.adt;
+
+import org.openmrs.Location;
+import org.openmrs.Visit;
+import org.openmrs.util.OpenmrsUtil;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * Finds overlapping visits, as defined by {@link AdtService#visitsOverlap(Visit, Visit)}, among many visits at once.
+ * <p/>
+ * Two visits can only overlap if one's location is the same as or an ancestor of the other's, so their locations are
+ * in the same tree. Visits are grouped by the root of their location's tree, and each group is swept in order of start
+ * time, keeping aside only the visits that have not stopped by the time the next one starts. Each visit is therefore
+ * only compared to the visits still open when it starts, rather than to every other visit: O(n log n) for the usual
+ * case of a patient whose visits rarely overlap.
+ */
+class VisitOverlaps {
+
+    private static final Comparator<Visit> BY_START = new Comparator<Visit>() {
+        @Override
+        public int compare(Visit left, Visit right) {
+            return OpenmrsUtil.compareWithNullAsEarliest(left.getStartDatetime(), right.getStartDatetime());
+        }
+    };
+
+    private static final Comparator<Visit> BY_STOP = new Comparator<Visit>() {
+        @Override
+        public int compare(Visit left, Visit right) {
+            return OpenmrsUtil.compareWithNullAsLatest(left.getStopDatetime(), right.getStopDatetime());
+        }
+    };
+
+    private final LocationTreeIndex locationTreeIndex;
+
+    VisitOverlaps(LocationTreeIndex locationTreeIndex) {
+        this.locationTreeIndex = locationTreeIndex;
+    }
+
+    /**
+     * @param v1
+     * @param v2
+     * @return true if the visits are at the "same" location (one is the same as or an ancestor of the other, or both are
+     * null) and their date ranges overlap
+     */
+    boolean overlap(Visit v1, Visit v2) {
+        Location where1 = v1.getLocation();
+        Location where2 = v2.getLocation();
+        if ((where1 == null && where2 == null) ||
+                locationTreeIndex.isSameOrAncestor(where1, where2) ||
+                locationTreeIndex.isSameOrAncestor(where2, where1)) {
+            // "same" location, so check if date ranges overlap (assuming startDatetime is never null)
+            return (OpenmrsUtil.compareWithNullAsLatest(v1.getStartDatetime(), v2.getStopDatetime()) <= 0)
+                    && (OpenmrsUtil.compareWithNullAsLatest(v2.getStartDatetime(), v1.getStopDatetime()) <= 0);
+        }
+        return false;
+    }
+
+    /**
+     * @param visits
+     * @param otherVisits
+     * @return true if any of visits overlaps any of otherVisits
+     */
+    boolean anyOverlap(Collection<Visit> visits, Collection<Visit> otherVisits) {
+        final Set<Visit> others = identitySet(otherVisits);
+        List<Visit> all = new ArrayList<Visit>(visits);
+        all.addAll(otherVisits);
+
+        final boolean[] found = new boolean[1];
+        sweep(all, new Handler() {
+            @Override
+            public boolean handle(Visit earlier, Visit later) {
+                found[0] = others.contains(earlier) != others.contains(later);
+                return !found[0];
+            }
+        });
+        return found[0];
+    }
+
+    /**
+     * Groups the given visits into clusters that are connected by overlaps, counting only overlaps that involve at least
+     * one of the anchor visits.
+     *
+     * @param visits
+     * @param anchors a subset of visits
+     * @return clusters of two or more visits, each ordered by start time
+     */
+    List<List<Visit>> getClusters(Collection<Visit> visits, Collection<Visit> anchors) {
+        final Set<Visit> anchorSet = identitySet(anchors);
+        final Map<Visit, Visit> parents = new IdentityHashMap<Visit, Visit>();
+        for (Visit visit : visits) {
+            parents.put(visit, visit);
+        }
+
+        sweep(visits, new Handler() {
+            @Override
+            public boolean handle(Visit earlier, Visit later) {
+                if (anchorSet.contains(earlier) || anchorSet.contains(later)) {
+                    parents.put(find(parents, later), find(parents, earlier));
+                }
+                return true;
+            }
+        });
+
+        Map<Visit, List<Visit>> clusters = new IdentityHashMap<Visit, List<Visit>>();
+        List<List<Visit>> inOrder = new ArrayList<List<Visit>>();
+        for (Visit visit : sortedByStart(visits)) {
+            Visit root = find(parents, visit);
+            List<Visit> cluster = clusters.get(root);
+            if (cluster == null) {
+                cluster = new ArrayList<Visit>();
+                clusters.put(root, cluster);
+                inOrder.add(cluster);
+            }
+            cluster.add(visit);
+        }
+
+        List<List<Visit>> result = new ArrayList<List<Visit>>();
+        for (List<Visit> cluster : inOrder) {
+            if (cluster.size() > 1) {
+                result.add(cluster);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Calls handler with each pair of overlapping visits, the earlier-started one first, until it returns false
+     */
+    private void sweep(Collection<Visit> visits, Handler handler) {
+        Map<Object, List<Visit>> byTree = new LinkedHashMap<Object, List<Visit>>();
+        for (Visit visit : sortedByStart(visits)) {
+            Object tree = getTreeKey(visit.getLocation());
+            List<Visit> group = byTree.get(tree);
+            if (group == null) {
+                group = new ArrayList<Visit>();
+                byTree.put(tree, group);
+            }
+            group.add(visit);
+        }
+
+        for (List<Visit> group : byTree.values()) {
+            PriorityQueue<Visit> open = new PriorityQueue<Visit>(Math.max(1, group.size()), BY_STOP);
+            for (Visit visit : group) {
+                // anything that stopped before this visit started cannot overlap it, or any visit that starts later
+                while (visit.getStartDatetime() != null && !open.isEmpty() && open.peek().getStopDatetime() != null
+                        && open.peek().getStopDatetime().before(visit.getStartDatetime())) {
+                    open.poll();
+                }
+                for (Visit candidate : open) {
+                    if (overlap(candidate, visit) && !handler.handle(candidate, visit)) {
+                        return;
+                    }
+                }
+                open.add(visit);
+            }
+        }
+    }
+
+    /**
+     * @return something equal for any two locations in the same tree (including null for no location)
+     */
+    private Object getTreeKey(Location location) {
+        List<Location> selfAndAncestors = locationTreeIndex.getSelfAndAncestors(location);
+        if (selfAndAncestors.isEmpty()) {
+            return null;
+        }
+        Location root = selfAndAncestors.get(selfAndAncestors.size() - 1);
+        return root.getLocationId() != null ? root.getLocationId() : root;
+    }
+
+    private static List<Visit> sortedByStart(Collection<Visit> visits) {
+        List<Visit> sorted = new ArrayList<Visit>(visits);
+        Collections.sort(sorted, BY_START);
+        return sorted;
+    }
+
+    private static Set<Visit> identitySet(Collection<Visit> visits) {
+        Set<Visit> set = Collections.newSetFromMap(new IdentityHashMap<Visit, Boolean>());
+        set.addAll(visits);
+        return set;
+    }
+
+    private static Visit find(Map<Visit, Visit> parents, Visit visit) {
+        Visit root = visit;
+        while (parents.get(root) != root) {
+            root = parents.get(root);
+        }
+        // path compression
+        while (parents.get(visit) != root) {
+            Visit next = parents.get(visit);
+            parents.put(visit, root);
+            visit = next;
+        }
+        return root;
+    }
+
+    private interface Handler {
+
+        /**
+         * @return false to stop the sweep
+         */
+        boolean handle(Visit earlier, Visit later);
+
+    }
+
+}
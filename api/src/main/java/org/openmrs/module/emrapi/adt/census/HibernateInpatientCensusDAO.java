@@ -0,0 +1,209 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+
+package org.openmrs.module.emrapi.adt.census;
+
+import org.hibernate.Query;
+import org.openmrs.EncounterType;
+import org.openmrs.Location;
+import org.openmrs.Patient;
+import org.openmrs.PersonAttributeType;
+import org.openmrs.Visit;
+import org.openmrs.api.db.hibernate.DbSessionFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+public class HibernateInpatientCensusDAO implements InpatientCensusDAO {
+
+    private static final String ENTRY = InpatientCensusEntry.class.getName();
+
+    private DbSessionFactory sessionFactory;
+
+    public void setSessionFactory(DbSessionFactory sessionFactory) {
+        this.sessionFactory = sessionFactory;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<Object[]> getAdtEncounterRows(Visit visit, Collection<EncounterType> adtEncounterTypes) {
+        if (adtEncounterTypes == null || adtEncounterTypes.isEmpty() || (visit != null && visit.getVisitId() == null)) {
+            return Collections.emptyList();
+        }
+        StringBuilder hql = new StringBuilder();
+        hql.append("select visit.visitId, visit.patient.patientId, encounter.encounterType.encounterTypeId, ")
+                .append("    location.locationId, encounter.encounterDatetime ")
+                .append("from Encounter as encounter inner join encounter.visit as visit left join encounter.location as location ")
+                .append("where encounter.voided = false ")
+                .append("and encounter.encounterType in (:adtEncounterTypes) ")
+                .append("and visit.voided = false ")
+                .append("and visit.stopDatetime is null ");
+        if (visit != null) {
+            hql.append("and visit.visitId = :visitId ");
+        }
+        hql.append("order by visit.visitId, encounter.encounterDatetime, encounter.encounterId");
+
+        Query query = sessionFactory.getCurrentSession().createQuery(hql.toString());
+        query.setParameterList("adtEncounterTypes", adtEncounterTypes);
+        if (visit != null) {
+            query.setInteger("visitId", visit.getVisitId());
+        }
+        return (List<Object[]>) query.list();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<InpatientCensusRow> getAllRows() {
+        List<Object[]> results = sessionFactory.getCurrentSession().createQuery(
+                "select entry.visit.visitId, entry.patient.patientId, ward.locationId, entry.admittedSince " +
+                        "from " + ENTRY + " as entry left join entry.ward as ward " +
+                        "order by entry.visit.visitId").list();
+        List<InpatientCensusRow> rows = new ArrayList<InpatientCensusRow>(results.size());
+        for (Object[] result : results) {
+            rows.add(new InpatientCensusRow((Integer) result[0], (Integer) result[1], (Integer) result[2], (Date) result[3]));
+        }
+        return rows;
+    }
+
+    @Override
+    public InpatientCensusRow getRow(Integer visitId) {
+        Object[] result = (Object[]) sessionFactory.getCurrentSession().createQuery(
+                "select entry.visit.visitId, entry.patient.patientId, ward.locationId, entry.admittedSince " +
+                        "from " + ENTRY + " as entry left join entry.ward as ward " +
+                        "where entry.visit.visitId = :visitId")
+                .setInteger("visitId", visitId)
+                .uniqueResult();
+        return result == null ? null : new InpatientCensusRow((Integer) result[0], (Integer) result[1], (Integer) result[2], (Date) result[3]);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<Integer> getVisitIds(Patient patient) {
+        if (patient.getPatientId() == null) {
+            return Collections.emptyList();
+        }
+        return (List<Integer>) sessionFactory.getCurrentSession()
+                .createQuery("select entry.visit.visitId from " + ENTRY + " as entry where entry.patient.patientId = :patientId")
+                .setInteger("patientId", patient.getPatientId())
+                .list();
+    }
+
+    @Override
+    public void saveRow(InpatientCensusRow row) {
+        InpatientCensusEntry entry = (InpatientCensusEntry) sessionFactory.getCurrentSession()
+                .createQuery("from " + ENTRY + " as entry where entry.visit.visitId = :visitId")
+                .setInteger("visitId", row.getVisitId())
+                .uniqueResult();
+        if (entry == null) {
+            insertRow(row);
+        } else {
+            copy(row, entry);
+            sessionFactory.getCurrentSession().saveOrUpdate(entry);
+        }
+    }
+
+    @Override
+    public void insertRow(InpatientCensusRow row) {
+        InpatientCensusEntry entry = new InpatientCensusEntry();
+        copy(row, entry);
+        sessionFactory.getCurrentSession().save(entry);
+    }
+
+    private void copy(InpatientCensusRow row, InpatientCensusEntry entry) {
+        entry.setVisit((Visit) sessionFactory.getCurrentSession().load(Visit.class, row.getVisitId()));
+        entry.setPatient((Patient) sessionFactory.getCurrentSession().load(Patient.class, row.getPatientId()));
+        entry.setWard(row.getWardId() == null ? null : (Location) sessionFactory.getCurrentSession().load(Location.class, row.getWardId()));
+        entry.setAdmittedSince(row.getAdmittedSince());
+        entry.setDateChanged(new Date());
+    }
+
+    @Override
+    public void deleteRow(Integer visitId) {
+        sessionFactory.getCurrentSession()
+                .createQuery("delete from " + ENTRY + " where visit = :visit")
+                .setParameter("visit", sessionFactory.getCurrentSession().load(Visit.class, visitId))
+                .executeUpdate();
+    }
+
+    @Override
+    public int deleteAllRows() {
+        return sessionFactory.getCurrentSession().createQuery("delete from " + ENTRY).executeUpdate();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<Visit> getInpatientVisits(Collection<Location> visitLocations, Location ward,
+                                          PersonAttributeType testPatientAttributeType, Integer start, Integer length) {
+        if (visitLocations == null || visitLocations.isEmpty()) {
+            return Collections.emptyList();
+        }
+        Query query = createInpatientVisitsQuery("select visit ", "order by visit.startDatetime desc, visit.visitId desc",
+                visitLocations, ward, testPatientAttributeType);
+        if (start != null) {
+            query.setFirstResult(start);
+        }
+        if (length != null) {
+            query.setMaxResults(length);
+        }
+        return (List<Visit>) query.list();
+    }
+
+    @Override
+    public long getCountOfInpatientVisits(Collection<Location> visitLocations, Location ward, PersonAttributeType testPatientAttributeType) {
+        if (visitLocations == null || visitLocations.isEmpty()) {
+            return 0;
+        }
+        Query query = createInpatientVisitsQuery("select count(entry) ", "", visitLocations, ward, testPatientAttributeType);
+        return ((Number) query.uniqueResult()).longValue();
+    }
+
+    private Query createInpatientVisitsQuery(String select, String orderBy, Collection<Location> visitLocations, Location ward,
+                                             PersonAttributeType testPatientAttributeType) {
+        StringBuilder hql = new StringBuilder(select);
+        hql.append("from ").append(ENTRY).append(" as entry inner join entry.visit as visit ")
+                .append("where visit.location in (:visitLocations) ");
+        if (ward != null) {
+            hql.append("and entry.ward = :ward ");
+        }
+        if (testPatientAttributeType != null) {
+            hql.append("and not exists (select testPatient.personAttributeId from PersonAttribute as testPatient ")
+                    .append("    where testPatient.person = entry.patient ")
+                    .append("    and testPatient.voided = false ")
+                    .append("    and testPatient.attributeType = :testPatientAttributeType ")
+                    .append("    and testPatient.value = 'true') ");
+        }
+        hql.append(orderBy);
+
+        Query query = sessionFactory.getCurrentSession().createQuery(hql.toString());
+        query.setParameterList("visitLocations", visitLocations);
+        if (ward != null) {
+            query.setParameter("ward", ward);
+        }
+        if (testPatientAttributeType != null) {
+            query.setParameter("testPatientAttributeType", testPatientAttributeType);
+        }
+        return query;
+    }
+
+    @Override
+    public void flushAndClearSession() {
+        sessionFactory.getCurrentSession().flush();
+        sessionFactory.getCurrentSession().clear();
+    }
+
+}
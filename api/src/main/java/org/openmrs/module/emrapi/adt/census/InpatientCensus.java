@@ -0,0 +1,355 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+
+package org.openmrs.module.emrapi.adt.census;
+
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.Encounter;
+import org.openmrs.EncounterType;
+import org.openmrs.Location;
+import org.openmrs.Patient;
+import org.openmrs.PersonAttributeType;
+import org.openmrs.Visit;
+import org.openmrs.api.EncounterService;
+import org.openmrs.api.PatientService;
+import org.openmrs.api.VisitService;
+import org.openmrs.module.emrapi.EmrApiProperties;
+import org.openmrs.module.emrapi.utils.ServiceAdvice;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Optional materialized ward census: one row per open visit whose patient is currently admitted, holding the patient,
+ * their current ward and when they were admitted, so that "who is on ward X" is a single indexed read instead of a
+ * scan of encounter history.
+ * <p/>
+ * When enabled (see {@link EmrApiProperties#getUseInpatientCensusTable()}) the row for a visit is recomputed whenever
+ * one of its admission, transfer or discharge encounters is saved, voided, unvoided or purged through the
+ * {@link EncounterService} (which is how {@link org.openmrs.module.emrapi.adt.AdtService#createAdtEncounterFor} records
+ * them), whenever the visit itself is saved, ended, voided, unvoided or purged through the {@link VisitService}
+ * (which covers visit merges and closing visits), and when patients are merged. These updates happen in the same
+ * transaction as the change that caused them.
+ * <p/>
+ * Changes made behind the API's back (e.g. SQL scripts) are not seen; {@link #check()} reports any drift, and
+ * {@link #rebuild()} recomputes the whole table.
+ */
+public class InpatientCensus {
+
+    private static final Set<String> MAINTAINED_METHODS = new HashSet<String>(Arrays.asList(
+            "saveEncounter", "voidEncounter", "unvoidEncounter", "purgeEncounter",
+            "saveVisit", "endVisit", "voidVisit", "unvoidVisit", "purgeVisit",
+            "mergePatients"));
+
+    private final Log log = LogFactory.getLog(getClass());
+
+    private InpatientCensusDAO dao;
+
+    private EmrApiProperties emrApiProperties;
+
+    private EncounterService encounterService;
+
+    private VisitService visitService;
+
+    private PatientService patientService;
+
+    private final List<ServiceAdvice> maintenanceAdvice = new ArrayList<ServiceAdvice>();
+
+    public void setDao(InpatientCensusDAO dao) {
+        this.dao = dao;
+    }
+
+    public void setEmrApiProperties(EmrApiProperties emrApiProperties) {
+        this.emrApiProperties = emrApiProperties;
+    }
+
+    public void setEncounterService(EncounterService encounterService) {
+        this.encounterService = encounterService;
+    }
+
+    public void setVisitService(VisitService visitService) {
+        this.visitService = visitService;
+    }
+
+    public void setPatientService(PatientService patientService) {
+        this.patientService = patientService;
+    }
+
+    /**
+     * Registers advice on the encounter, visit and patient service methods that change admissions, which keeps the
+     * census up to date
+     */
+    public synchronized void registerMaintenanceAdvice() {
+        if (!maintenanceAdvice.isEmpty()) {
+            return;
+        }
+        MaintainOnChange advice = new MaintainOnChange();
+        for (Object service : new Object[] { encounterService, visitService, patientService }) {
+            ServiceAdvice registered = ServiceAdvice.register(service, advice,
+                    MAINTAINED_METHODS.toArray(new String[MAINTAINED_METHODS.size()]));
+            if (registered.isRegistered()) {
+                maintenanceAdvice.add(registered);
+            } else {
+                log.warn("Cannot listen for changes to " + service + ", so the inpatient census may drift; use check() and rebuild()");
+            }
+        }
+    }
+
+    /**
+     * Removes the advice added by {@link #registerMaintenanceAdvice()}, since the services outlive this module's
+     * application context
+     */
+    public synchronized void removeMaintenanceAdvice() {
+        for (ServiceAdvice registered : maintenanceAdvice) {
+            registered.remove();
+        }
+        maintenanceAdvice.clear();
+    }
+
+    public boolean isEnabled() {
+        return emrApiProperties.getUseInpatientCensusTable();
+    }
+
+    /**
+     * Recomputes the census row for a single visit from its encounters
+     *
+     * @param visit
+     */
+    public void refresh(Visit visit) {
+        if (visit == null || visit.getVisitId() == null) {
+            return;
+        }
+        AdtEncounterTypes types = new AdtEncounterTypes();
+        InpatientCensusRow expected = null;
+        if (types.isConfigured()) {
+            List<InpatientCensusRow> computed = compute(dao.getAdtEncounterRows(visit, types.all), types);
+            expected = computed.isEmpty() ? null : computed.get(0);
+        }
+        InpatientCensusRow actual = dao.getRow(visit.getVisitId());
+        if (expected == null) {
+            if (actual != null) {
+                dao.deleteRow(visit.getVisitId());
+            }
+        } else if (actual == null || !actual.matches(expected)) {
+            dao.saveRow(expected);
+        }
+    }
+
+    /**
+     * Recomputes the census rows of a patient's visits, e.g. after another patient has been merged into them
+     *
+     * @param patient
+     */
+    public void refresh(Patient patient) {
+        for (Integer visitId : dao.getVisitIds(patient)) {
+            refresh(visitService.getVisit(visitId));
+        }
+    }
+
+    /**
+     * Empties the census table and recomputes it from encounter history. Meant to be run once after enabling the
+     * census, or to repair drift found by {@link #check()}; ADT changes committed while a rebuild is running may need a
+     * second rebuild.
+     *
+     * @return the number of rows in the rebuilt table
+     */
+    public int rebuild() {
+        long start = System.currentTimeMillis();
+        int deleted = dao.deleteAllRows();
+        AdtEncounterTypes types = new AdtEncounterTypes();
+        if (!types.isConfigured()) {
+            return 0;
+        }
+        List<InpatientCensusRow> rows = compute(dao.getAdtEncounterRows(null, types.all), types);
+        int count = 0;
+        for (InpatientCensusRow row : rows) {
+            dao.insertRow(row);
+            if (++count % 500 == 0) {
+                dao.flushAndClearSession();
+            }
+        }
+        log.info("Rebuilt inpatient census: deleted " + deleted + " rows and inserted " + rows.size() + " in "
+                + (System.currentTimeMillis() - start) + " ms");
+        return rows.size();
+    }
+
+    /**
+     * Compares the census table against encounter history, without changing anything
+     *
+     * @return the differences found
+     */
+    public InpatientCensusCheck check() {
+        InpatientCensusCheck check = new InpatientCensusCheck();
+        AdtEncounterTypes types = new AdtEncounterTypes();
+        Map<Integer, InpatientCensusRow> expected = new TreeMap<Integer, InpatientCensusRow>();
+        if (types.isConfigured()) {
+            for (InpatientCensusRow row : compute(dao.getAdtEncounterRows(null, types.all), types)) {
+                expected.put(row.getVisitId(), row);
+            }
+        }
+        for (InpatientCensusRow actual : dao.getAllRows()) {
+            InpatientCensusRow shouldBe = expected.remove(actual.getVisitId());
+            if (shouldBe == null) {
+                check.addUnexpected(actual);
+            } else if (!shouldBe.matches(actual)) {
+                check.addMismatched(shouldBe);
+            }
+        }
+        for (InpatientCensusRow missing : expected.values()) {
+            check.addMissing(missing);
+        }
+        return check;
+    }
+
+    /**
+     * @see InpatientCensusDAO#getInpatientVisits(Collection, Location, PersonAttributeType, Integer, Integer)
+     */
+    public List<Visit> getInpatientVisits(Collection<Location> visitLocations, Location ward,
+                                          PersonAttributeType testPatientAttributeType, Integer start, Integer length) {
+        return dao.getInpatientVisits(visitLocations, ward, testPatientAttributeType, start, length);
+    }
+
+    /**
+     * @see InpatientCensusDAO#getCountOfInpatientVisits(Collection, Location, PersonAttributeType)
+     */
+    public long getCountOfInpatientVisits(Collection<Location> visitLocations, Location ward,
+                                          PersonAttributeType testPatientAttributeType) {
+        return dao.getCountOfInpatientVisits(visitLocations, ward, testPatientAttributeType);
+    }
+
+    /**
+     * Walks ADT encounter rows (ordered by visit, then time) and computes one census row per visit whose patient is
+     * still admitted: the visit has an admission with no discharge at or after the latest one. The ward is the
+     * location of the latest admission or transfer. This matches the ward census query in
+     * {@link org.openmrs.module.emrapi.adt.AdtDAO#getInpatientVisits}.
+     */
+    private List<InpatientCensusRow> compute(List<Object[]> encounterRows, AdtEncounterTypes types) {
+        List<InpatientCensusRow> rows = new ArrayList<InpatientCensusRow>();
+        Iterator<Object[]> iterator = encounterRows.iterator();
+        Object[] next = iterator.hasNext() ? iterator.next() : null;
+        while (next != null) {
+            Integer visitId = (Integer) next[0];
+            Integer patientId = (Integer) next[1];
+            Date lastAdmission = null;
+            Date lastDischarge = null;
+            Integer wardId = null;
+            while (next != null && visitId.equals(next[0])) {
+                Integer encounterTypeId = (Integer) next[2];
+                Date encounterDatetime = (Date) next[4];
+                if (encounterTypeId.equals(types.admissionId)) {
+                    lastAdmission = encounterDatetime;
+                    wardId = (Integer) next[3];
+                } else if (encounterTypeId.equals(types.transferId)) {
+                    wardId = (Integer) next[3];
+                } else if (encounterTypeId.equals(types.dischargeId)) {
+                    lastDischarge = encounterDatetime;
+                }
+                next = iterator.hasNext() ? iterator.next() : null;
+            }
+            if (lastAdmission != null && (lastDischarge == null || lastDischarge.getTime() < lastAdmission.getTime())) {
+                rows.add(new InpatientCensusRow(visitId, patientId, wardId, lastAdmission));
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * The configured admission, transfer and discharge encounter types, looked up once per operation
+     */
+    private class AdtEncounterTypes {
+
+        private final List<EncounterType> all = new ArrayList<EncounterType>();
+
+        private Integer admissionId;
+
+        private Integer transferId;
+
+        private Integer dischargeId;
+
+        AdtEncounterTypes() {
+            admissionId = add(emrApiProperties.getAdmissionEncounterType());
+            transferId = add(emrApiProperties.getTransferWithinHospitalEncounterType());
+            dischargeId = add(emrApiProperties.getExitFromInpatientEncounterType());
+        }
+
+        private Integer add(EncounterType type) {
+            if (type == null) {
+                return null;
+            }
+            all.add(type);
+            return type.getEncounterTypeId();
+        }
+
+        boolean isConfigured() {
+            return admissionId != null;
+        }
+
+        boolean includes(EncounterType type) {
+            return type != null && all.contains(type);
+        }
+
+    }
+
+    private class MaintainOnChange implements MethodInterceptor {
+
+        @Override
+        public Object invoke(MethodInvocation invocation) throws Throwable {
+            String name = invocation.getMethod().getName();
+            Object[] args = invocation.getArguments();
+            if (args.length == 0 || !isEnabled()) {
+                return invocation.proceed();
+            }
+
+            if ("purgeVisit".equals(name) && args[0] instanceof Visit && ((Visit) args[0]).getVisitId() != null) {
+                // the row references the visit, so it has to go first
+                dao.deleteRow(((Visit) args[0]).getVisitId());
+                return invocation.proceed();
+            }
+
+            Object returnValue = invocation.proceed();
+            if (args[0] instanceof Encounter) {
+                Encounter encounter = (Encounter) args[0];
+                if (encounter.getVisit() != null && new AdtEncounterTypes().includes(encounter.getEncounterType())) {
+                    refresh(encounter.getVisit());
+                }
+            } else if (args[0] instanceof Visit) {
+                refresh((Visit) args[0]);
+            } else if ("mergePatients".equals(name) && args.length > 1) {
+                // the non-preferred patient's visits now belong to the preferred one
+                if (args[1] instanceof Patient) {
+                    refresh((Patient) args[1]);
+                } else if (args[1] instanceof List) {
+                    for (Object notPreferred : (List<?>) args[1]) {
+                        refresh((Patient) notPreferred);
+                    }
+                }
+            }
+            return returnValue;
+        }
+
+    }
+
+}
@@ -0,0 +1,76 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+
+package org.openmrs.module.emrapi.adt.census;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Differences between the inpatient census table and what encounter history says it should contain, as found by
+ * {@link InpatientCensus#check()}
+ */
+public class InpatientCensusCheck {
+
+    private List<InpatientCensusRow> missing = new ArrayList<InpatientCensusRow>();
+
+    private List<InpatientCensusRow> unexpected = new ArrayList<InpatientCensusRow>();
+
+    private List<InpatientCensusRow> mismatched = new ArrayList<InpatientCensusRow>();
+
+    void addMissing(InpatientCensusRow expected) {
+        missing.add(expected);
+    }
+
+    void addUnexpected(InpatientCensusRow actual) {
+        unexpected.add(actual);
+    }
+
+    void addMismatched(InpatientCensusRow expected) {
+        mismatched.add(expected);
+    }
+
+    /**
+     * @return rows that should be in the table but are not (as they should be)
+     */
+    public List<InpatientCensusRow> getMissing() {
+        return Collections.unmodifiableList(missing);
+    }
+
+    /**
+     * @return rows that are in the table but should not be (as they are)
+     */
+    public List<InpatientCensusRow> getUnexpected() {
+        return Collections.unmodifiableList(unexpected);
+    }
+
+    /**
+     * @return rows whose patient, ward or admission time is wrong in the table (as they should be)
+     */
+    public List<InpatientCensusRow> getMismatched() {
+        return Collections.unmodifiableList(mismatched);
+    }
+
+    public boolean isConsistent() {
+        return missing.isEmpty() && unexpected.isEmpty() && mismatched.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "missing: " + missing + ", unexpected: " + unexpected + ", mismatched: " + mismatched;
+    }
+
+}
@@ -0,0 +1,110 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+
+package org.openmrs.module.emrapi.adt.census;
+
+import org.openmrs.EncounterType;
+import org.openmrs.Location;
+import org.openmrs.Patient;
+import org.openmrs.PersonAttributeType;
+import org.openmrs.Visit;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Reads and writes the emrapi_inpatient_census table, and the encounter history it is derived from
+ */
+public interface InpatientCensusDAO {
+
+    /**
+     * Returns the non-voided encounters of the given types in open, non-voided visits, as rows of
+     * [visit id, patient id, encounter type id, location id, encounter datetime].
+     *
+     * @param visit optional; if given, only this visit's encounters are returned
+     * @param adtEncounterTypes admission, transfer and discharge encounter types (required)
+     * @return rows ordered by visit id, then encounter datetime, then encounter id
+     */
+    List<Object[]> getAdtEncounterRows(Visit visit, Collection<EncounterType> adtEncounterTypes);
+
+    /**
+     * @return every census row, in visit id order
+     */
+    List<InpatientCensusRow> getAllRows();
+
+    /**
+     * @param visitId
+     * @return the census row for the visit, or null if there is none
+     */
+    InpatientCensusRow getRow(Integer visitId);
+
+    /**
+     * @param patient
+     * @return ids of the visits with a census row for this patient
+     */
+    List<Integer> getVisitIds(Patient patient);
+
+    /**
+     * Inserts the census row for row's visit, or updates it if there already is one
+     *
+     * @param row
+     */
+    void saveRow(InpatientCensusRow row);
+
+    /**
+     * Inserts a census row, assuming there is none yet for its visit
+     *
+     * @param row
+     */
+    void insertRow(InpatientCensusRow row);
+
+    /**
+     * Deletes the census row for the given visit, if there is one
+     *
+     * @param visitId
+     */
+    void deleteRow(Integer visitId);
+
+    /**
+     * @return the number of rows deleted
+     */
+    int deleteAllRows();
+
+    /**
+     * Census rows whose visit is at one of the given visit locations, optionally restricted to one ward. Test
+     * patients are excluded.
+     *
+     * @param visitLocations the visit location and its descendants (required)
+     * @param ward optional
+     * @param testPatientAttributeType optional; patients with this attribute set to "true" are excluded
+     * @param start index of the first result to return, or null to start at the beginning
+     * @param length maximum number of results, or null for all
+     * @return visits, most recently started first
+     */
+    List<Visit> getInpatientVisits(Collection<Location> visitLocations, Location ward,
+                                   PersonAttributeType testPatientAttributeType, Integer start, Integer length);
+
+    /**
+     * @return the total number of visits {@link #getInpatientVisits} would return without paging
+     */
+    long getCountOfInpatientVisits(Collection<Location> visitLocations, Location ward, PersonAttributeType testPatientAttributeType);
+
+    /**
+     * Flushes pending changes and clears the current session, so that a rebuild does not accumulate entities in the
+     * first-level cache
+     */
+    void flushAndClearSession();
+
+}
@@ -0,0 +1,90 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+
+package org.openmrs.module.emrapi.adt.census;
+
+import org.openmrs.Location;
+import org.openmrs.Patient;
+import org.openmrs.Visit;
+
+import java.util.Date;
+
+/**
+ * One row of the inpatient census: a visit whose patient is currently admitted, the ward they are on (the location of
+ * their latest admission or transfer) and when they were admitted. Maintained by {@link InpatientCensus}.
+ */
+public class InpatientCensusEntry {
+
+    private Integer inpatientCensusEntryId;
+
+    private Visit visit;
+
+    private Patient patient;
+
+    private Location ward;
+
+    private Date admittedSince;
+
+    private Date dateChanged;
+
+    public Integer getInpatientCensusEntryId() {
+        return inpatientCensusEntryId;
+    }
+
+    public void setInpatientCensusEntryId(Integer inpatientCensusEntryId) {
+        this.inpatientCensusEntryId = inpatientCensusEntryId;
+    }
+
+    public Visit getVisit() {
+        return visit;
+    }
+
+    public void setVisit(Visit visit) {
+        this.visit = visit;
+    }
+
+    public Patient getPatient() {
+        return patient;
+    }
+
+    public void setPatient(Patient patient) {
+        this.patient = patient;
+    }
+
+    public Location getWard() {
+        return ward;
+    }
+
+    public void setWard(Location ward) {
+        this.ward = ward;
+    }
+
+    public Date getAdmittedSince() {
+        return admittedSince;
+    }
+
+    public void setAdmittedSince(Date admittedSince) {
+        this.admittedSince = admittedSince;
+    }
+
+    public Date getDateChanged() {
+        return dateChanged;
+    }
+
+    public void setDateChanged(Date dateChanged) {
+        this.dateChanged = dateChanged;
+    }
+
+}
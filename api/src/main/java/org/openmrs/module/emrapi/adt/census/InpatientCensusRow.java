@@ -0,0 +1,76 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+
+package org.openmrs.module.emrapi.adt.census;
+
+import org.openmrs.util.OpenmrsUtil;
+
+import java.util.Date;
+
+/**
+ * The content of one census row, by id, as computed from encounter history or as read back from the table
+ */
+public class InpatientCensusRow {
+
+    private final Integer visitId;
+
+    private final Integer patientId;
+
+    private final Integer wardId;
+
+    private final Date admittedSince;
+
+    public InpatientCensusRow(Integer visitId, Integer patientId, Integer wardId, Date admittedSince) {
+        this.visitId = visitId;
+        this.patientId = patientId;
+        this.wardId = wardId;
+        this.admittedSince = admittedSince;
+    }
+
+    public Integer getVisitId() {
+        return visitId;
+    }
+
+    public Integer getPatientId() {
+        return patientId;
+    }
+
+    public Integer getWardId() {
+        return wardId;
+    }
+
+    public Date getAdmittedSince() {
+        return admittedSince;
+    }
+
+    /**
+     * @param other
+     * @return true if other has the same visit, patient, ward and admission time (comparing times by their
+     * millisecond value, since the database may hand back a Timestamp)
+     */
+    public boolean matches(InpatientCensusRow other) {
+        return OpenmrsUtil.nullSafeEquals(visitId, other.visitId)
+                && OpenmrsUtil.nullSafeEquals(patientId, other.patientId)
+                && OpenmrsUtil.nullSafeEquals(wardId, other.wardId)
+                && (admittedSince == null ? other.admittedSince == null
+                : other.admittedSince != null && admittedSince.getTime() == other.admittedSince.getTime());
+    }
+
+    @Override
+    public String toString() {
+        return "visit " + visitId + " (patient " + patientId + ") on ward " + wardId + " since " + admittedSince;
+    }
+
+}
@@ -23,6 +23,24 @@ import java.util.List;
 @Handler(supports = AwaitingAdmissionVisitQuery.class)
 public class AwaitingAdmissionVisitQueryEvaluator implements VisitQueryEvaluator {
 
+    /**
+     * How the "no admission encounter" and "no later deny-admission decision" rules are expressed
+     */
+    public enum Strategy {
+
+        /**
+         * (select count(*) ...) = 0; the database has to count every matching row for each candidate visit
+         */
+        CORRELATED_COUNT,
+
+        /**
+         * not exists (select ...); lets the database stop at the first matching row, and plan the check as an anti-join
+         */
+        NOT_EXISTS
+    }
+
+    private final Strategy strategy;
+
     @Autowired
     AdtService adtService;
 
@@ -38,6 +56,19 @@ public class AwaitingAdmissionVisitQueryEvaluator implements VisitQueryEvaluator
     @Autowired
     EvaluationService evaluationService;
 
+    public AwaitingAdmissionVisitQueryEvaluator() {
+        this(Strategy.NOT_EXISTS);
+    }
+
+    // for comparing the plans; NOT_EXISTS should be used otherwise
+    public AwaitingAdmissionVisitQueryEvaluator(Strategy strategy) {
+        this.strategy = strategy;
+    }
+
+    public Strategy getStrategy() {
+        return strategy;
+    }
+
     @Override
     public VisitQueryResult evaluate(VisitQuery visitQuery, EvaluationContext evaluationContext) throws EvaluationException {
 
@@ -64,19 +95,17 @@ public class AwaitingAdmissionVisitQueryEvaluator implements VisitQueryEvaluator
                 .whereEqual("visit.location", visitLocation)
                 .whereEqual("visit.patient.dead", false) // exclude dead patients
                 .whereNull("visit.stopDatetime")   // stopDatetime = null means "active visit"
-                .where("(select count(*) from Encounter as admission "    // count=0, ie no admission encounters
+                .where(none("admission.encounterId", "Encounter as admission "    // no admission encounters
                         + "where admission.visit = visit "
                         + "and admission.voided = false "
-                        + "and admission.encounterType = :admissionEncounterType"
-                        + ") = 0")
-                .where("(select count(*) from Obs as admitDecision inner join admitDecision.encounter as encounterInVisit "   // count=0, ie no admission decision obs with value=deny
+                        + "and admission.encounterType = :admissionEncounterType"))
+                .where(none("admitDecision.obsId", "Obs as admitDecision inner join admitDecision.encounter as encounterInVisit "   // no admission decision obs with value=deny
                             + "where encounterInVisit.visit = visit "
                             + "and encounterInVisit.voided = false "
                             + "and admitDecision.voided = false "
                             + "and admitDecision.concept = :admissionDecisionConcept "
                             + "and admitDecision.valueCoded = :denyAdmissionConcept "
-                            + "and encounterInVisit.encounterDatetime > dispoEncounter.encounterDatetime "  // see https://issues.openmrs.org/browse/EA-31
-                            + ") = 0")
+                            + "and encounterInVisit.encounterDatetime > dispoEncounter.encounterDatetime"))  // see https://issues.openmrs.org/browse/EA-31
                 // restrict by context
                 .whereVisitIn("visit", evaluationContext)
                 // add parameters
@@ -92,4 +121,16 @@ public class AwaitingAdmissionVisitQueryEvaluator implements VisitQueryEvaluator
 
     }
 
+    /**
+     * @param column any non-null column of the subquery
+     * @param fromAndWhere the subquery, after "from"
+     * @return a condition that holds when the subquery has no rows, in the form the current strategy calls for
+     */
+    private String none(String column, String fromAndWhere) {
+        if (strategy == Strategy.CORRELATED_COUNT) {
+            return "(select count(*) from " + fromAndWhere + ") = 0";
+        }
+        return "not exists (select " + column + " from " + fromAndWhere + ")";
+    }
+
 }
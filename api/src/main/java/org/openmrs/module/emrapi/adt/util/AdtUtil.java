@@ -24,5 +24,17 @@ public class AdtUtil {
         return admissionDispositionConcepts;
     }
 
+    public static List<Concept> getKeepsVisitOpenDispositionsConcepts(EmrConceptService emrConceptService, DispositionService dispositionService) {
+
+        List<Concept> keepsVisitOpenDispositionConcepts = new ArrayList<Concept>();
+
+        for (Disposition disposition : dispositionService.getDispositions()) {
+            if (disposition.getKeepsVisitOpen() != null && disposition.getKeepsVisitOpen()) {
+                keepsVisitOpenDispositionConcepts.add(emrConceptService.getConcept(disposition.getConceptCode()));
+            }
+        }
+
+        return keepsVisitOpenDispositionConcepts;
+    }
 
 }
@@ -4,7 +4,9 @@ import org.openmrs.Encounter;
 import org.openmrs.Patient;
 import org.openmrs.Person;
 import org.openmrs.Visit;
+import org.openmrs.api.context.Context;
 import org.openmrs.module.emrapi.account.AccountDomainWrapper;
+import org.openmrs.module.emrapi.adt.AdtService;
 import org.openmrs.module.emrapi.encounter.EncounterDomainWrapper;
 import org.openmrs.module.emrapi.patient.PatientDomainWrapper;
 import org.openmrs.module.emrapi.visit.VisitDomainWrapper;
@@ -12,6 +14,11 @@ import org.springframework.context.ApplicationContext;
 import org.springframework.context.ApplicationContextAware;
 import org.springframework.stereotype.Component;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+
 @Component("domainWrapperFactory")
 public class DomainWrapperFactory implements ApplicationContextAware {
 
@@ -39,6 +46,32 @@ public class DomainWrapperFactory implements ApplicationContextAware {
         return visitDomainWrapper;
     }
 
+    /**
+     * Wraps each of the given visits. List pages that show whether each visit is awaiting admission should pass
+     * prefetchAwaitingAdmission = true, so that it is evaluated for all the visits together rather than with one query
+     * per visit.
+     *
+     * @param visits
+     * @param prefetchAwaitingAdmission
+     * @return wrappers, in the same order as visits
+     */
+    public List<VisitDomainWrapper> newVisitDomainWrappers(Collection<Visit> visits, boolean prefetchAwaitingAdmission) {
+        Set<Integer> awaitingAdmission = null;
+        if (prefetchAwaitingAdmission) {
+            awaitingAdmission = Context.getService(AdtService.class).getVisitIdsAwaitingAdmission(visits);
+        }
+
+        List<VisitDomainWrapper> visitDomainWrappers = new ArrayList<VisitDomainWrapper>();
+        for (Visit visit : visits) {
+            VisitDomainWrapper visitDomainWrapper = newVisitDomainWrapper(visit);
+            if (awaitingAdmission != null) {
+                visitDomainWrapper.setAwaitingAdmission(awaitingAdmission.contains(visit.getVisitId()));
+            }
+            visitDomainWrappers.add(visitDomainWrapper);
+        }
+        return visitDomainWrappers;
+    }
+
     public AccountDomainWrapper newAccountDomainWrapper() {
         AccountDomainWrapper accountDomainWrapper = new AccountDomainWrapper();
         return (AccountDomainWrapper) autowire(accountDomainWrapper);
@@ -31,4 +31,8 @@ public class DefaultOrderServiceImpl implements EmrOrderService{
     @Override
     public void saveOrders(List<EncounterTransaction.Order> orders, Encounter encounter) {
     }
+
+    @Override
+    public void save(List<EncounterTransaction.DrugOrder> drugOrders, List<EncounterTransaction.Order> orders, Encounter encounter) {
+    }
 }
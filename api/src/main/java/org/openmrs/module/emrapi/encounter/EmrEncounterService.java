@@ -15,6 +15,7 @@ package org.openmrs.module.emrapi.encounter;
 
 import org.openmrs.api.OpenmrsService;
 import org.openmrs.module.emrapi.encounter.domain.EncounterTransaction;
+import org.openmrs.module.emrapi.encounter.domain.EncounterTransactionSaveResult;
 
 import java.util.List;
 
@@ -31,9 +32,35 @@ public interface EmrEncounterService extends OpenmrsService {
 
     EncounterTransaction save(EncounterTransaction encounterTransaction);
 
+    /**
+     * Saves the given encounter transactions, in order, in a single transaction. Each patient, visit, encounter type,
+     * location and provider they refer to is looked up once, and the session is flushed once at the end. If any of them
+     * fails, none are saved.
+     *
+     * @param encounterTransactions
+     * @return the saved encounter transactions (with their visit and encounter uuids), in the same order
+     */
+    List<EncounterTransaction> saveBatch(List<EncounterTransaction> encounterTransactions);
+
+    /**
+     * Saves many encounter transactions, in order, with {@link #saveBatch(List)}, a batch at a time (see
+     * {@link org.openmrs.module.emrapi.EmrApiConstants#GP_ENCOUNTER_TRANSACTION_BATCH_SIZE}), each batch in its own
+     * transaction. If a batch fails, its encounter transactions are saved again one at a time, so that a failure only
+     * affects the encounter transaction that caused it. Any transaction in progress is suspended while this runs.
+     *
+     * @param encounterTransactions
+     * @return a result for each encounter transaction, in the same order
+     */
+    List<EncounterTransactionSaveResult> saveAll(List<EncounterTransaction> encounterTransactions);
+
     List<EncounterTransaction> find(EncounterSearchParameters encounterSearchParameters);
 
     EncounterTransaction getActiveEncounter(ActiveEncounterParameters activeEncounterParameters);
 
     EncounterTransaction getEncounterTransaction(String uuid, Boolean includeAll);
+
+    /**
+     * @return which encounter matcher is in use, and how often it has been used and looked up since startup
+     */
+    EncounterMatcherMetrics getEncounterMatcherMetrics();
 }
@@ -13,7 +13,10 @@
  */
 package org.openmrs.module.emrapi.encounter;
 
+import org.apache.commons.lang.math.NumberUtils;
 import org.apache.commons.lang.time.DateUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.hibernate.FlushMode;
 import org.openmrs.Encounter;
 import org.openmrs.EncounterType;
@@ -23,6 +26,7 @@ import org.openmrs.Obs;
 import org.openmrs.Patient;
 import org.openmrs.Provider;
 import org.openmrs.Visit;
+import org.openmrs.VisitType;
 import org.openmrs.api.AdministrationService;
 import org.openmrs.api.EncounterService;
 import org.openmrs.api.LocationService;
@@ -31,13 +35,14 @@ import org.openmrs.api.ProviderService;
 import org.openmrs.api.VisitService;
 import org.openmrs.api.context.Context;
 import org.openmrs.api.impl.BaseOpenmrsService;
+import org.openmrs.module.emrapi.EmrApiConstants;
 import org.openmrs.module.emrapi.db.DbSessionUtil;
 import org.openmrs.module.emrapi.encounter.domain.EncounterTransaction;
-import org.openmrs.module.emrapi.encounter.exception.EncounterMatcherNotFoundException;
+import org.openmrs.module.emrapi.encounter.domain.EncounterTransactionSaveResult;
 import org.openmrs.module.emrapi.encounter.matcher.BaseEncounterMatcher;
-import org.openmrs.module.emrapi.encounter.matcher.DefaultEncounterMatcher;
 import org.openmrs.module.emrapi.encounter.postprocessor.EncounterTransactionHandler;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.util.ArrayList;
@@ -50,12 +55,13 @@ import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 
-import static org.apache.commons.lang.StringUtils.isNotEmpty;
 import static org.openmrs.module.emrapi.utils.GeneralUtils.getCurrentDateIfNull;
 
 @Transactional
 public class EmrEncounterServiceImpl extends BaseOpenmrsService implements EmrEncounterService {
 
+    private final Log log = LogFactory.getLog(getClass());
+
     private final EncounterTransactionMapper encounterTransactionMapper;
     private PatientService patientService;
     private VisitService visitService;
@@ -68,7 +74,11 @@ public class EmrEncounterServiceImpl extends BaseOpenmrsService implements EmrEn
     private ProviderService providerService;
     private AdministrationService administrationService;
 
-    private Map<String, BaseEncounterMatcher> encounterMatcherMap = new HashMap<String, BaseEncounterMatcher>();
+    private EmrEncounterService emrEncounterService;
+
+    private EncounterMetadataCache metadataCache;
+
+    private final EncounterMatcherResolver encounterMatcherResolver;
     private List<EncounterTransactionHandler> encounterTransactionHandlers;
 
     public EmrEncounterServiceImpl(PatientService patientService, VisitService visitService, EncounterService encounterService,
@@ -90,48 +100,126 @@ public class EmrEncounterServiceImpl extends BaseOpenmrsService implements EmrEn
         this.encounterTransactionMapper = encounterTransactionMapper;
         this.encounterProviderServiceHelper = encounterProviderServiceHelper;
         this.emrOrderService = emrOrderService;
+        this.encounterMatcherResolver = new EncounterMatcherResolver(administrationService);
     }
 
     @Override
     public void onStartup() {
         try {
             super.onStartup();
-            List<BaseEncounterMatcher> encounterMatchers = Context.getRegisteredComponents(BaseEncounterMatcher.class);
-            for (BaseEncounterMatcher encounterMatcher : encounterMatchers) {
-                encounterMatcherMap.put(encounterMatcher.getClass().getCanonicalName(), encounterMatcher);
-            }
+            encounterMatcherResolver.setEncounterMatchers(Context.getRegisteredComponents(BaseEncounterMatcher.class));
+            administrationService.addGlobalPropertyListener(encounterMatcherResolver);
             encounterTransactionHandlers = Context.getRegisteredComponents(EncounterTransactionHandler.class);
         } catch (Exception e) {
             e.printStackTrace();
         }
     }
 
+    @Override
+    public void onShutdown() {
+        try {
+            administrationService.removeGlobalPropertyListener(encounterMatcherResolver);
+            super.onShutdown();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
     @Override
     public EncounterTransaction save(EncounterTransaction encounterTransaction) {
+        return saveBatch(Collections.singletonList(encounterTransaction)).get(0);
+    }
 
-        EncounterTransaction updatedEncounterTransaction = null;
+    @Override
+    public List<EncounterTransaction> saveBatch(List<EncounterTransaction> encounterTransactions) {
+
+        List<EncounterTransaction> updatedEncounterTransactions = new ArrayList<EncounterTransaction>();
 
         FlushMode flushMode = DbSessionUtil.getCurrentFlushMode();
         DbSessionUtil.setManualFlushMode();
         Context.flushSession();
 
         try {
-            updatedEncounterTransaction = saveInternal(encounterTransaction);
+            References references = new References();
+            for (EncounterTransaction encounterTransaction : encounterTransactions) {
+                updatedEncounterTransactions.add(saveInternal(encounterTransaction, references));
+            }
         } finally {
             DbSessionUtil.setFlushMode(flushMode);
         }
 
-        return updatedEncounterTransaction;
+        return updatedEncounterTransactions;
+    }
+
+    @Override
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public List<EncounterTransactionSaveResult> saveAll(List<EncounterTransaction> encounterTransactions) {
+        List<EncounterTransactionSaveResult> results = new ArrayList<EncounterTransactionSaveResult>();
+        int batchSize = NumberUtils.toInt(administrationService.getGlobalProperty(EmrApiConstants.GP_ENCOUNTER_TRANSACTION_BATCH_SIZE),
+                EmrApiConstants.DEFAULT_ENCOUNTER_TRANSACTION_BATCH_SIZE);
+        batchSize = Math.max(1, batchSize);
+
+        for (int from = 0; from < encounterTransactions.size(); from += batchSize) {
+            List<EncounterTransaction> batch = encounterTransactions.subList(from, Math.min(from + batchSize, encounterTransactions.size()));
+            // each call goes through the service proxy, so that each batch (or retry) commits or rolls back on its own
+            try {
+                List<EncounterTransaction> saved = getEmrEncounterService().saveBatch(batch);
+                for (int i = 0; i < saved.size(); i++) {
+                    results.add(EncounterTransactionSaveResult.saved(from + i, saved.get(i)));
+                }
+            } catch (RuntimeException batchFailure) {
+                // the rollback left nothing of the batch behind, so save each one separately to find which failed,
+                // starting from a session without the rolled back objects in it
+                Context.clearSession();
+                for (int i = 0; i < batch.size(); i++) {
+                    try {
+                        results.add(EncounterTransactionSaveResult.saved(from + i, getEmrEncounterService().save(batch.get(i))));
+                    } catch (RuntimeException failure) {
+                        log.warn("Failed to save encounter transaction " + (from + i) + " of " + encounterTransactions.size(), failure);
+                        results.add(EncounterTransactionSaveResult.failed(from + i, failure));
+                    } finally {
+                        Context.clearSession();
+                    }
+                }
+            }
+            // the batch is committed, and only its results are returned, so stop the session growing with every batch
+            Context.clearSession();
+        }
+        return results;
+    }
+
+    private EmrEncounterService getEmrEncounterService() {
+        if (emrEncounterService == null) {
+            emrEncounterService = Context.getService(EmrEncounterService.class);
+        }
+        return emrEncounterService;
+    }
+
+    public void setEmrEncounterService(EmrEncounterService emrEncounterService) {
+        this.emrEncounterService = emrEncounterService;
+    }
+
+    public void setMetadataCache(EncounterMetadataCache metadataCache) {
+        this.metadataCache = metadataCache;
+    }
+
+    private EncounterType getEncounterTypeByUuid(String uuid) {
+        return metadataCache != null ? metadataCache.getEncounterType(uuid) : encounterService.getEncounterTypeByUuid(uuid);
+    }
+
+    private Location getLocationByUuid(String uuid) {
+        return metadataCache != null ? metadataCache.getLocation(uuid) : locationService.getLocationByUuid(uuid);
     }
 
-        private EncounterTransaction saveInternal(EncounterTransaction encounterTransaction) {
-        Patient patient = patientService.getPatientByUuid(encounterTransaction.getPatientUuid());
-        Visit visit = findOrCreateVisit(encounterTransaction, patient);
-        Encounter encounter = findOrCreateEncounter(encounterTransaction, patient, visit);
+    private EncounterTransaction saveInternal(EncounterTransaction encounterTransaction, References references) {
+        Patient patient = references.getPatient(encounterTransaction.getPatientUuid());
+        Visit visit = findOrCreateVisit(encounterTransaction, patient, references);
+        Encounter encounter = findOrCreateEncounter(encounterTransaction, patient, visit, references);
 
-        encounterObservationServiceHelper.update(encounter, encounterTransaction.getObservations());
-        encounterObservationServiceHelper.updateDiagnoses(encounter, encounterTransaction.getDiagnoses());
-        encounterDispositionServiceHelper.update(encounter, encounterTransaction.getDisposition());
+        ObsIndex existingObs = ObsIndex.forEncounter(encounter);
+        encounterObservationServiceHelper.update(encounter, encounterTransaction.getObservations(), existingObs);
+        encounterObservationServiceHelper.updateDiagnoses(encounter, encounterTransaction.getDiagnoses(), existingObs);
+        encounterDispositionServiceHelper.update(encounter, encounterTransaction.getDisposition(), existingObs);
         encounterProviderServiceHelper.update(encounter, encounterTransaction.getProviders());
 
         if(encounterTransactionHandlers != null){
@@ -140,8 +228,8 @@ public class EmrEncounterServiceImpl extends BaseOpenmrsService implements EmrEn
             }
         }
 
-        emrOrderService.save(encounterTransaction.getDrugOrders(), encounter);
-        emrOrderService.saveOrders(encounterTransaction.getOrders(), encounter);
+        // orders are added last, and the encounter saved once with everything in it
+        emrOrderService.save(encounterTransaction.getDrugOrders(), encounterTransaction.getOrders(), encounter);
 
         return new EncounterTransaction(visit.getUuid(), encounter.getUuid());
     }
@@ -149,7 +237,7 @@ public class EmrEncounterServiceImpl extends BaseOpenmrsService implements EmrEn
     @Override
     public EncounterTransaction getActiveEncounter(ActiveEncounterParameters activeEncounterParameters) {
         Patient patient = patientService.getPatientByUuid(activeEncounterParameters.getPatientUuid());
-        EncounterType encounterType = encounterService.getEncounterTypeByUuid(activeEncounterParameters.getEncounterTypeUuid());
+        EncounterType encounterType = getEncounterTypeByUuid(activeEncounterParameters.getEncounterTypeUuid());
 
         Provider provider = null;
         Location location = null;
@@ -159,7 +247,7 @@ public class EmrEncounterServiceImpl extends BaseOpenmrsService implements EmrEn
             providers.add(provider);
 
         if(activeEncounterParameters.getLocationUuid() != null){
-            location = locationService.getLocationByUuid(activeEncounterParameters.getLocationUuid());
+            location = getLocationByUuid(activeEncounterParameters.getLocationUuid());
         }
         EncounterParameters encounterParameters = EncounterParameters.instance().
                             setPatient(patient).setEncounterType(encounterType).setProviders(providers).setLocation(location);
@@ -200,7 +288,7 @@ public class EmrEncounterServiceImpl extends BaseOpenmrsService implements EmrEn
 
     @Override
     public List<EncounterTransaction> find(EncounterSearchParameters encounterSearchParameters) {
-        EncounterSearchParametersBuilder searchParameters = new EncounterSearchParametersBuilder(encounterSearchParameters, patientService, encounterService, locationService, providerService, visitService);
+        EncounterSearchParametersBuilder searchParameters = new EncounterSearchParametersBuilder(encounterSearchParameters, patientService, encounterService, locationService, providerService, visitService, metadataCache);
         List<Encounter> encounters = encounterService.getEncounters(searchParameters.getPatient(), searchParameters.getLocation(), searchParameters.getStartDate(),
                 searchParameters.getEndDate(), new ArrayList<Form>(), searchParameters.getEncounterTypes(),
                 searchParameters.getProviders(), searchParameters.getVisitTypes(), searchParameters.getVisits(),
@@ -247,12 +335,13 @@ public class EmrEncounterServiceImpl extends BaseOpenmrsService implements EmrEn
         return activeVisits != null && !activeVisits.isEmpty() ? activeVisits.get(0) : null;
     }
 
-    private Encounter findOrCreateEncounter(EncounterTransaction encounterTransaction, Patient patient, Visit visit) {
+    private Encounter findOrCreateEncounter(EncounterTransaction encounterTransaction, Patient patient, Visit visit,
+                                            References references) {
 
-        EncounterType encounterType = encounterService.getEncounterTypeByUuid(encounterTransaction.getEncounterTypeUuid());
-        Location location = locationService.getLocationByUuid(encounterTransaction.getLocationUuid());
+        EncounterType encounterType = references.getEncounterType(encounterTransaction.getEncounterTypeUuid());
+        Location location = references.getLocation(encounterTransaction.getLocationUuid());
         Date encounterDateTime = getCurrentDateIfNull(encounterTransaction.getEncounterDateTime());
-        Set<Provider> providers = getProviders(encounterTransaction.getProviders());
+        Set<Provider> providers = getProviders(encounterTransaction.getProviders(), references);
 
         EncounterParameters encounterParameters = EncounterParameters.instance()
                 .setLocation(location).setEncounterType(encounterType)
@@ -278,16 +367,16 @@ public class EmrEncounterServiceImpl extends BaseOpenmrsService implements EmrEn
     }
 
     private Encounter findEncounter(Visit visit, EncounterParameters encounterParameters) {
+        return encounterMatcherResolver.findEncounter(visit, encounterParameters);
+    }
 
-        String matcherClass = administrationService.getGlobalProperty("emr.encounterMatcher");
-        BaseEncounterMatcher encounterMatcher = isNotEmpty(matcherClass)? encounterMatcherMap.get(matcherClass) : new DefaultEncounterMatcher();
-        if (encounterMatcher == null) {
-            throw new EncounterMatcherNotFoundException();
-        }
-        return encounterMatcher.findEncounter(visit, encounterParameters);
+    @Override
+    @Transactional(readOnly = true)
+    public EncounterMatcherMetrics getEncounterMatcherMetrics() {
+        return encounterMatcherResolver.getMetrics();
     }
 
-    private Set<Provider> getProviders(Set<EncounterTransaction.Provider> encounteProviders) {
+    private Set<Provider> getProviders(Set<EncounterTransaction.Provider> encounteProviders, References references) {
 
         if (encounteProviders == null){
             return Collections.EMPTY_SET;
@@ -296,17 +385,17 @@ public class EmrEncounterServiceImpl extends BaseOpenmrsService implements EmrEn
         Set<Provider> providers = new HashSet<Provider>();
 
         for (EncounterTransaction.Provider encounterProvider : encounteProviders) {
-            Provider provider = providerService.getProviderByUuid(encounterProvider.getUuid());
+            Provider provider = references.getProvider(encounterProvider.getUuid());
             providers.add(provider);
         }
         return providers;
     }
 
-    private Visit findOrCreateVisit(EncounterTransaction encounterTransaction, Patient patient) {
+    private Visit findOrCreateVisit(EncounterTransaction encounterTransaction, Patient patient, References references) {
 
         // return the visit that was explicitly asked for in the EncounterTransaction Object
         if(encounterTransaction.getVisitUuid() != null && !encounterTransaction.getVisitUuid().isEmpty()){
-            return visitService.getVisitByUuid(encounterTransaction.getVisitUuid());
+            return references.getVisit(encounterTransaction.getVisitUuid());
         }
 
         String visitLocationUuid = encounterTransaction.getVisitLocationUuid();
@@ -316,14 +405,76 @@ public class EmrEncounterServiceImpl extends BaseOpenmrsService implements EmrEn
             return activeVisit;
         }
 
-        Location location = locationService.getLocationByUuid(visitLocationUuid);
+        Location location = references.getLocation(visitLocationUuid);
         Visit visit = new Visit();
         visit.setLocation(location);
         visit.setPatient(patient);
-        visit.setVisitType(visitService.getVisitTypeByUuid(encounterTransaction.getVisitTypeUuid()));
+        visit.setVisitType(references.getVisitType(encounterTransaction.getVisitTypeUuid()));
         visit.setStartDatetime(getCurrentDateIfNull(encounterTransaction.getEncounterDateTime()));
         visit.setEncounters(new HashSet<Encounter>());
         visit.setUuid(UUID.randomUUID().toString());
         return visitService.saveVisit(visit);
     }
+
+    /**
+     * The patients, visits and metadata that the encounter transactions saved together refer to, each looked up by
+     * uuid only once
+     */
+    private class References {
+
+        private final Map<String, Patient> patients = new HashMap<String, Patient>();
+
+        private final Map<String, Visit> visits = new HashMap<String, Visit>();
+
+        private final Map<String, VisitType> visitTypes = new HashMap<String, VisitType>();
+
+        private final Map<String, EncounterType> encounterTypes = new HashMap<String, EncounterType>();
+
+        private final Map<String, Location> locations = new HashMap<String, Location>();
+
+        private final Map<String, Provider> providers = new HashMap<String, Provider>();
+
+        Patient getPatient(String uuid) {
+            if (!patients.containsKey(uuid)) {
+                patients.put(uuid, patientService.getPatientByUuid(uuid));
+            }
+            return patients.get(uuid);
+        }
+
+        Visit getVisit(String uuid) {
+            if (!visits.containsKey(uuid)) {
+                visits.put(uuid, visitService.getVisitByUuid(uuid));
+            }
+            return visits.get(uuid);
+        }
+
+        VisitType getVisitType(String uuid) {
+            if (!visitTypes.containsKey(uuid)) {
+                visitTypes.put(uuid, metadataCache != null ? metadataCache.getVisitType(uuid) : visitService.getVisitTypeByUuid(uuid));
+            }
+            return visitTypes.get(uuid);
+        }
+
+        EncounterType getEncounterType(String uuid) {
+            if (!encounterTypes.containsKey(uuid)) {
+                encounterTypes.put(uuid, getEncounterTypeByUuid(uuid));
+            }
+            return encounterTypes.get(uuid);
+        }
+
+        Location getLocation(String uuid) {
+            if (!locations.containsKey(uuid)) {
+                locations.put(uuid, getLocationByUuid(uuid));
+            }
+            return locations.get(uuid);
+        }
+
+        Provider getProvider(String uuid) {
+            if (!providers.containsKey(uuid)) {
+                providers.put(uuid, providerService.getProviderByUuid(uuid));
+            }
+            return providers.get(uuid);
+        }
+
+    }
 }
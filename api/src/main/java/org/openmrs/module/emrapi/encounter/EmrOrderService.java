@@ -8,4 +8,10 @@ import java.util.*;
 public interface EmrOrderService {
     void save(List<EncounterTransaction.DrugOrder> drugOrders, Encounter encounter);
     void saveOrders(List<EncounterTransaction.Order> orders, Encounter encounter);
+
+    /**
+     * Adds both the drug orders and the other orders to the encounter, and then saves it once (rather than once for each
+     * kind of order, as calling {@link #save(List, Encounter)} and {@link #saveOrders(List, Encounter)} would)
+     */
+    void save(List<EncounterTransaction.DrugOrder> drugOrders, List<EncounterTransaction.Order> orders, Encounter encounter);
 }
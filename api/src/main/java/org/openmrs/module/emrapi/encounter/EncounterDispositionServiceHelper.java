@@ -26,13 +26,13 @@ import org.openmrs.module.emrapi.encounter.exception.ConceptNotFoundException;
 import java.text.ParseException;
 import java.util.Collection;
 import java.util.Date;
-import java.util.Set;
 
 import static org.openmrs.module.emrapi.utils.GeneralUtils.getCurrentDateIfNull;
 
 public class EncounterDispositionServiceHelper {
 
     private ConceptService conceptService;
+    private EncounterMetadataCache metadataCache;
     private Concept dispositionConcept;
     private Concept dispositionGroupConcept;
 
@@ -44,20 +44,32 @@ public class EncounterDispositionServiceHelper {
 
     }
 
+    public void setMetadataCache(EncounterMetadataCache metadataCache) {
+        this.metadataCache = metadataCache;
+    }
+
     public void update(Encounter encounter, EncounterTransaction.Disposition disposition) {
+        update(encounter, disposition, ObsIndex.forEncounter(encounter));
+    }
+
+    /**
+     * @param existingObs the encounter's top level obs; the disposition added to the encounter is added to it too
+     */
+    public void update(Encounter encounter, EncounterTransaction.Disposition disposition, ObsIndex existingObs) {
         try {
             if (isValid(disposition)) {
                 dispositionGroupConcept = getDispositionGroupConcept();
                 dispositionConcept = getDispositionConcept();
-                Obs dispositionObsGroup = getExistingDisposition(encounter);
+                Obs dispositionObsGroup = existingObs.getByConceptUuid(dispositionGroupConcept.getUuid());
                 if (dispositionObsGroup == null) {
                     dispositionObsGroup = createObsGroupForDisposition(disposition);
                 } else if (disposition.isVoided()) {
                     dispositionObsGroup = voidDisposition(dispositionObsGroup, disposition);
                 } else {
-                    dispositionObsGroup = editExistingDisposition(dispositionObsGroup, disposition);
+                    dispositionObsGroup = editExistingDisposition(dispositionObsGroup, existingObs.getGroupMembers(dispositionObsGroup), disposition);
                 }
                 encounter.addObs(dispositionObsGroup);
+                existingObs.add(dispositionObsGroup);
             }
         } catch (ParseException e) {
             throw new IllegalArgumentException(e);
@@ -94,16 +106,17 @@ public class EncounterDispositionServiceHelper {
         return obs;
     }
 
-    private Obs editExistingDisposition(Obs existingDispositionObsGroup, EncounterTransaction.Disposition disposition) throws ParseException {
-        Obs existingDisposition = getMatchingObservation(existingDispositionObsGroup.getGroupMembers(),
-                dispositionConcept.getUuid());
+    private Obs editExistingDisposition(Obs existingDispositionObsGroup, ObsIndex existingMembers,
+                                        EncounterTransaction.Disposition disposition) throws ParseException {
+        Obs existingDisposition = existingMembers.getByConceptUuid(dispositionConcept.getUuid());
         mapDispositionProperties(existingDisposition, disposition.getCode());
         if (disposition.getAdditionalObs() != null) {
             for (EncounterTransaction.Observation additionalObs : disposition.getAdditionalObs()) {
-                Obs matchingObs = getMatchingObservation(existingDispositionObsGroup.getGroupMembers(),
-                        additionalObs.getConceptUuid());
+                Obs matchingObs = existingMembers.getByConceptUuid(additionalObs.getConceptUuid());
                 if (matchingObs == null) {
-                    existingDispositionObsGroup.addGroupMember(createObsFromETObservation(additionalObs));
+                    Obs newObs = createObsFromETObservation(additionalObs);
+                    existingDispositionObsGroup.addGroupMember(newObs);
+                    existingMembers.add(newObs);
                 } else {
                     updateObsFromObservation(additionalObs, matchingObs);
                 }
@@ -113,16 +126,6 @@ public class EncounterDispositionServiceHelper {
     }
 
 
-    private Obs getExistingDisposition(Encounter encounter) {
-        Set<Obs> obsAtTopLevel = encounter.getObsAtTopLevel(false);
-        for (Obs obs : obsAtTopLevel) {
-            if (obs.getConcept().getUuid().equals(dispositionGroupConcept.getUuid())) {
-                return obs;
-            }
-        }
-        return null;
-    }
-
     private Obs createObsFromETObservation(EncounterTransaction.Observation observation) throws ParseException {
         Obs obs = new Obs();
         updateObsFromObservation(observation, obs);
@@ -171,20 +174,13 @@ public class EncounterDispositionServiceHelper {
 
 
     private Concept getConceptByUuid(String conceptUuid) {
-        Concept concept = conceptService.getConceptByUuid(conceptUuid);
+        Concept concept = metadataCache != null ? metadataCache.getConcept(conceptUuid) : conceptService.getConceptByUuid(conceptUuid);
         if (concept == null) {
             throw new ConceptNotFoundException("Observation concept does not exist" + conceptUuid);
         }
         return concept;
     }
 
-    private Obs getMatchingObservation(Set<Obs> existingObservations, String conceptUUID) {
-        for (Obs obs : existingObservations) {
-            if (StringUtils.equals(obs.getConcept().getUuid(), conceptUUID)) return obs;
-        }
-        return null;
-    }
-
     private Concept getMatchingAnswer(Collection<ConceptAnswer> answers, String dispositionCode) {
         Concept answerConcept = conceptService.getConceptByMapping(dispositionCode, EmrApiConstants.EMR_CONCEPT_SOURCE_NAME);
         for (ConceptAnswer answer : answers) {
@@ -0,0 +1,65 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+package org.openmrs.module.emrapi.encounter;
+
+/**
+ * How the encounter matcher has been used since startup
+ */
+public class EncounterMatcherMetrics {
+
+    private final String matcherClass;
+
+    private final long lookups;
+
+    private final long resolutions;
+
+    private final long matchingTimeMillis;
+
+    public EncounterMatcherMetrics(String matcherClass, long lookups, long resolutions, long matchingTimeMillis) {
+        this.matcherClass = matcherClass;
+        this.lookups = lookups;
+        this.resolutions = resolutions;
+        this.matchingTimeMillis = matchingTimeMillis;
+    }
+
+    /**
+     * @return the class name of the matcher in use, or null if it has not been resolved yet
+     */
+    public String getMatcherClass() {
+        return matcherClass;
+    }
+
+    /**
+     * @return the number of times an encounter has been looked for with the matcher
+     */
+    public long getLookups() {
+        return lookups;
+    }
+
+    /**
+     * @return the number of times the matcher has been resolved from the global property
+     */
+    public long getResolutions() {
+        return resolutions;
+    }
+
+    /**
+     * @return the total time spent in the matcher
+     */
+    public long getMatchingTimeMillis() {
+        return matchingTimeMillis;
+    }
+
+}
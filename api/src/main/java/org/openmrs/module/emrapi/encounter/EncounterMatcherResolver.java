@@ -0,0 +1,140 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+package org.openmrs.module.emrapi.encounter;
+
+import org.openmrs.Encounter;
+import org.openmrs.GlobalProperty;
+import org.openmrs.Visit;
+import org.openmrs.api.AdministrationService;
+import org.openmrs.api.GlobalPropertyListener;
+import org.openmrs.module.emrapi.EmrApiConstants;
+import org.openmrs.module.emrapi.encounter.exception.EncounterMatcherNotFoundException;
+import org.openmrs.module.emrapi.encounter.matcher.BaseEncounterMatcher;
+import org.openmrs.module.emrapi.encounter.matcher.DefaultEncounterMatcher;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.apache.commons.lang.StringUtils.isNotEmpty;
+
+/**
+ * Finds the encounter to update with the matcher named by {@link EmrApiConstants#GP_ENCOUNTER_MATCHER} (or
+ * {@link DefaultEncounterMatcher} if it is not set). The global property is read the first time a matcher is needed,
+ * and after that only when this hears that it has changed.
+ */
+public class EncounterMatcherResolver implements GlobalPropertyListener {
+
+    private final AdministrationService administrationService;
+
+    private Map<String, BaseEncounterMatcher> encounterMatchers = new HashMap<String, BaseEncounterMatcher>();
+
+    private volatile Resolution resolution;
+
+    private final AtomicLong lookups = new AtomicLong();
+
+    private final AtomicLong resolutions = new AtomicLong();
+
+    private final AtomicLong matchingNanos = new AtomicLong();
+
+    public EncounterMatcherResolver(AdministrationService administrationService) {
+        this.administrationService = administrationService;
+    }
+
+    /**
+     * @param encounterMatchers the matchers that the global property can name, by their canonical class name
+     */
+    public synchronized void setEncounterMatchers(List<BaseEncounterMatcher> encounterMatchers) {
+        Map<String, BaseEncounterMatcher> byClassName = new HashMap<String, BaseEncounterMatcher>();
+        for (BaseEncounterMatcher encounterMatcher : encounterMatchers) {
+            byClassName.put(encounterMatcher.getClass().getCanonicalName(), encounterMatcher);
+        }
+        this.encounterMatchers = byClassName;
+        resolution = null;
+    }
+
+    /**
+     * @throws EncounterMatcherNotFoundException if the global property names a matcher that is not registered
+     */
+    public Encounter findEncounter(Visit visit, EncounterParameters encounterParameters) {
+        Resolution current = resolution;
+        if (current == null) {
+            current = resolveFromGlobalProperty();
+        }
+        if (current.encounterMatcher == null) {
+            throw new EncounterMatcherNotFoundException();
+        }
+        lookups.incrementAndGet();
+        long start = System.nanoTime();
+        try {
+            return current.encounterMatcher.findEncounter(visit, encounterParameters);
+        }
+        finally {
+            matchingNanos.addAndGet(System.nanoTime() - start);
+        }
+    }
+
+    public EncounterMatcherMetrics getMetrics() {
+        Resolution current = resolution;
+        return new EncounterMatcherMetrics(current == null ? null : current.matcherClass, lookups.get(), resolutions.get(),
+                matchingNanos.get() / 1000000);
+    }
+
+    private synchronized Resolution resolveFromGlobalProperty() {
+        if (resolution == null) {
+            resolve(administrationService.getGlobalProperty(EmrApiConstants.GP_ENCOUNTER_MATCHER));
+        }
+        return resolution;
+    }
+
+    private synchronized void resolve(String matcherClass) {
+        BaseEncounterMatcher encounterMatcher = isNotEmpty(matcherClass) ? encounterMatchers.get(matcherClass) : new DefaultEncounterMatcher();
+        resolution = new Resolution(isNotEmpty(matcherClass) ? matcherClass : DefaultEncounterMatcher.class.getCanonicalName(), encounterMatcher);
+        resolutions.incrementAndGet();
+    }
+
+    @Override
+    public boolean supportsPropertyName(String propertyName) {
+        return EmrApiConstants.GP_ENCOUNTER_MATCHER.equals(propertyName);
+    }
+
+    @Override
+    public void globalPropertyChanged(GlobalProperty newValue) {
+        resolve(newValue.getPropertyValue());
+    }
+
+    @Override
+    public void globalPropertyDeleted(String propertyName) {
+        resolve(null);
+    }
+
+    /**
+     * The configured matcher class, and the matcher itself (null if no such matcher is registered)
+     */
+    private static class Resolution {
+
+        private final String matcherClass;
+
+        private final BaseEncounterMatcher encounterMatcher;
+
+        Resolution(String matcherClass, BaseEncounterMatcher encounterMatcher) {
+            this.matcherClass = matcherClass;
+            this.encounterMatcher = encounterMatcher;
+        }
+
+    }
+
+}
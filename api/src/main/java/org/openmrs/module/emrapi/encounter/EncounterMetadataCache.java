@@ -0,0 +1,324 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+package org.openmrs.module.emrapi.encounter;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.Concept;
+import org.openmrs.Drug;
+import org.openmrs.EncounterRole;
+import org.openmrs.EncounterType;
+import org.openmrs.Location;
+import org.openmrs.OpenmrsObject;
+import org.openmrs.VisitType;
+import org.openmrs.api.ConceptService;
+import org.openmrs.api.EncounterService;
+import org.openmrs.api.LocationService;
+import org.openmrs.api.VisitService;
+import org.openmrs.module.emrapi.utils.ServiceAdvice;
+import org.springframework.aop.AfterReturningAdvice;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Resolves the metadata that encounter transactions refer to by uuid (concepts, drugs, encounter types, encounter
+ * roles, locations and visit types) without a uuid query each time.
+ * <p/>
+ * Only the uuid to id mapping is shared between requests: the object itself is loaded by id, which Hibernate answers
+ * from the session (so repeated lookups within a request are free) or its second-level cache, and never hands out an
+ * object belonging to another session. The mapping is bounded (least recently used entries are dropped), each entry
+ * expires after a while, and everything is thrown away whenever any of these kinds of metadata is saved, retired,
+ * unretired or purged through its service (and again when that transaction completes, in case it rolled back).
+ */
+public class EncounterMetadataCache {
+
+    private final Log log = LogFactory.getLog(getClass());
+
+    private ConceptService conceptService;
+
+    private EncounterService encounterService;
+
+    private LocationService locationService;
+
+    private VisitService visitService;
+
+    private int maxEntries = 5000;
+
+    private long timeToLiveMillis = 10 * 60 * 1000;
+
+    private final Map<String, Entry> ids = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > maxEntries;
+        }
+    };
+
+    private final AtomicLong generation = new AtomicLong();
+
+    private final List<ServiceAdvice> invalidationAdvice = new ArrayList<ServiceAdvice>();
+
+    public void setConceptService(ConceptService conceptService) {
+        this.conceptService = conceptService;
+    }
+
+    public void setEncounterService(EncounterService encounterService) {
+        this.encounterService = encounterService;
+    }
+
+    public void setLocationService(LocationService locationService) {
+        this.locationService = locationService;
+    }
+
+    public void setVisitService(VisitService visitService) {
+        this.visitService = visitService;
+    }
+
+    /**
+     * @param maxEntries how many uuids to remember, across all kinds of metadata
+     */
+    public void setMaxEntries(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * @param timeToLiveSeconds how long to remember each uuid for
+     */
+    public void setTimeToLiveSeconds(int timeToLiveSeconds) {
+        this.timeToLiveMillis = timeToLiveSeconds * 1000L;
+    }
+
+    /**
+     * Registers advice on the metadata services' save, retire, unretire and purge methods that invalidates this cache
+     * whenever the metadata it holds changes
+     */
+    public synchronized void registerInvalidationAdvice() {
+        if (!invalidationAdvice.isEmpty()) {
+            return;
+        }
+        InvalidateOnMetadataChange advice = new InvalidateOnMetadataChange();
+        for (Object service : new Object[] { conceptService, encounterService, locationService, visitService }) {
+            ServiceAdvice registered = ServiceAdvice.register(service, advice, "save*", "retire*", "unretire*", "purge*");
+            if (registered.isRegistered()) {
+                invalidationAdvice.add(registered);
+            } else {
+                log.warn("Cannot listen for metadata changes on " + service + ", so the encounter metadata cache will be cleared only as entries expire");
+            }
+        }
+    }
+
+    /**
+     * Removes the advice added by {@link #registerInvalidationAdvice()}, since the services outlive this module's
+     * application context
+     */
+    public synchronized void removeInvalidationAdvice() {
+        for (ServiceAdvice registered : invalidationAdvice) {
+            registered.remove();
+        }
+        invalidationAdvice.clear();
+        invalidate();
+    }
+
+    public void invalidate() {
+        generation.incrementAndGet();
+        synchronized (ids) {
+            ids.clear();
+        }
+    }
+
+    public Concept getConcept(String uuid) {
+        return resolve(Concept.class, uuid, new Lookup<Concept>() {
+            @Override
+            Concept byId(Integer id) {
+                return conceptService.getConcept(id);
+            }
+
+            @Override
+            Concept byUuid(String uuid) {
+                return conceptService.getConceptByUuid(uuid);
+            }
+        });
+    }
+
+    public Drug getDrug(String uuid) {
+        return resolve(Drug.class, uuid, new Lookup<Drug>() {
+            @Override
+            Drug byId(Integer id) {
+                return conceptService.getDrug(id);
+            }
+
+            @Override
+            Drug byUuid(String uuid) {
+                return conceptService.getDrugByUuid(uuid);
+            }
+        });
+    }
+
+    public EncounterType getEncounterType(String uuid) {
+        return resolve(EncounterType.class, uuid, new Lookup<EncounterType>() {
+            @Override
+            EncounterType byId(Integer id) {
+                return encounterService.getEncounterType(id);
+            }
+
+            @Override
+            EncounterType byUuid(String uuid) {
+                return encounterService.getEncounterTypeByUuid(uuid);
+            }
+        });
+    }
+
+    public EncounterRole getEncounterRole(String uuid) {
+        return resolve(EncounterRole.class, uuid, new Lookup<EncounterRole>() {
+            @Override
+            EncounterRole byId(Integer id) {
+                return encounterService.getEncounterRole(id);
+            }
+
+            @Override
+            EncounterRole byUuid(String uuid) {
+                return encounterService.getEncounterRoleByUuid(uuid);
+            }
+        });
+    }
+
+    public Location getLocation(String uuid) {
+        return resolve(Location.class, uuid, new Lookup<Location>() {
+            @Override
+            Location byId(Integer id) {
+                return locationService.getLocation(id);
+            }
+
+            @Override
+            Location byUuid(String uuid) {
+                return locationService.getLocationByUuid(uuid);
+            }
+        });
+    }
+
+    public VisitType getVisitType(String uuid) {
+        return resolve(VisitType.class, uuid, new Lookup<VisitType>() {
+            @Override
+            VisitType byId(Integer id) {
+                return visitService.getVisitType(id);
+            }
+
+            @Override
+            VisitType byUuid(String uuid) {
+                return visitService.getVisitTypeByUuid(uuid);
+            }
+        });
+    }
+
+    private <T extends OpenmrsObject> T resolve(Class<T> type, String uuid, Lookup<T> lookup) {
+        if (StringUtils.isBlank(uuid)) {
+            return lookup.byUuid(uuid);
+        }
+        String key = type.getSimpleName() + ":" + uuid;
+        long now = System.currentTimeMillis();
+
+        Integer id = null;
+        synchronized (ids) {
+            Entry entry = ids.get(key);
+            if (entry != null && entry.expires > now) {
+                id = entry.id;
+            } else if (entry != null) {
+                ids.remove(key);
+            }
+        }
+        if (id != null) {
+            T found = lookup.byId(id);
+            if (found != null) {
+                return found;
+            }
+        }
+
+        long lookupGeneration = generation.get();
+        T found = lookup.byUuid(uuid);
+        if (found != null && found.getId() != null) {
+            synchronized (ids) {
+                // don't remember anything looked up while the metadata was changing
+                if (generation.get() == lookupGeneration) {
+                    ids.put(key, new Entry(found.getId(), now + timeToLiveMillis));
+                }
+            }
+        }
+        return found;
+    }
+
+    private abstract static class Lookup<T> {
+
+        abstract T byId(Integer id);
+
+        abstract T byUuid(String uuid);
+
+    }
+
+    private static class Entry {
+
+        private final Integer id;
+
+        private final long expires;
+
+        Entry(Integer id, long expires) {
+            this.id = id;
+            this.expires = expires;
+        }
+
+    }
+
+    private class InvalidateOnMetadataChange implements AfterReturningAdvice {
+
+        @Override
+        public void afterReturning(Object returnValue, Method method, Object[] args, Object target) throws Throwable {
+            if (changesCachedMetadata(args)) {
+                invalidate();
+                if (TransactionSynchronizationManager.isSynchronizationActive()) {
+                    TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                        @Override
+                        public void afterCompletion(int status) {
+                            invalidate();
+                        }
+                    });
+                }
+            }
+        }
+
+        /**
+         * e.g. saving an encounter or a concept class leaves the cache alone; saving an encounter type or a concept does not
+         */
+        private boolean changesCachedMetadata(Object[] args) {
+            if (args == null) {
+                return false;
+            }
+            for (Object arg : args) {
+                if (arg instanceof Concept || arg instanceof Drug || arg instanceof EncounterType || arg instanceof EncounterRole
+                        || arg instanceof Location || arg instanceof VisitType) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+    }
+
+}
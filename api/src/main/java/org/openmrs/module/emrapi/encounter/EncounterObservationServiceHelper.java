@@ -29,7 +29,6 @@ import org.springframework.beans.factory.annotation.Autowired;
 
 import java.util.Date;
 import java.util.List;
-import java.util.Set;
 
 /**
  * Add/update/delete a {@link org.openmrs.Obs} on an {@link org.openmrs.Encounter}.
@@ -41,6 +40,7 @@ public class EncounterObservationServiceHelper {
     private ObsService obsService;
     private OrderService orderService;
     private ObsMapper obsMapper;
+    private EncounterMetadataCache metadataCache;
 
     @Autowired
     public EncounterObservationServiceHelper(ConceptService conceptService,
@@ -54,17 +54,36 @@ public class EncounterObservationServiceHelper {
         this.obsMapper = obsMapper;
     }
 
+    public void setMetadataCache(EncounterMetadataCache metadataCache) {
+        this.metadataCache = metadataCache;
+    }
+
     public void update(Encounter encounter, List<EncounterTransaction.Observation> observations) {
-            Set<Obs> existingObservations = encounter.getObsAtTopLevel(false);
+        update(encounter, observations, ObsIndex.forEncounter(encounter));
+    }
+
+    /**
+     * @param existingObs the encounter's top level obs; the obs added to the encounter are added to it too
+     */
+    public void update(Encounter encounter, List<EncounterTransaction.Observation> observations, ObsIndex existingObs) {
             for (EncounterTransaction.Observation observationData : observations) {
-                Obs obsFound = this.obsMapper.getMatchingObservation(existingObservations,observationData.getUuid());
-                encounter.addObs(this.obsMapper.transformEtObs(encounter,obsFound, observationData));
+                Obs obsFound = existingObs.getByUuid(observationData.getUuid());
+                Obs obs = this.obsMapper.transformEtObs(encounter,obsFound, observationData);
+                encounter.addObs(obs);
+                existingObs.add(obs);
             }
     }
 
     public void updateDiagnoses(Encounter encounter, List<EncounterTransaction.Diagnosis> diagnoses) {
+        updateDiagnoses(encounter, diagnoses, ObsIndex.forEncounter(encounter));
+    }
+
+    /**
+     * @param existingObs the encounter's top level obs; the diagnoses added to the encounter are added to it too
+     */
+    public void updateDiagnoses(Encounter encounter, List<EncounterTransaction.Diagnosis> diagnoses, ObsIndex existingObs) {
         for (EncounterTransaction.Diagnosis diagnosisRequest : diagnoses) {
-            org.openmrs.module.emrapi.diagnosis.Diagnosis diagnosis = createDiagnosis(diagnosisRequest);
+            org.openmrs.module.emrapi.diagnosis.Diagnosis diagnosis = createDiagnosis(diagnosisRequest, existingObs);
             Obs obs = emrApiProperties.getDiagnosisMetadata().buildDiagnosisObsGroup(diagnosis);
             if (diagnosisRequest.getDiagnosisDateTime() != null) {
                 obs.setObsDatetime(diagnosisRequest.getDiagnosisDateTime());
@@ -77,6 +96,7 @@ public class EncounterObservationServiceHelper {
                 voidDiagnosisObservation(diagnosisRequest, obs);
             }
             encounter.addObs(obs);
+            existingObs.add(obs);
         }
     }
 
@@ -89,11 +109,14 @@ public class EncounterObservationServiceHelper {
         }
     }
 
-    private org.openmrs.module.emrapi.diagnosis.Diagnosis createDiagnosis(EncounterTransaction.Diagnosis diagnosisRequest) {
+    private org.openmrs.module.emrapi.diagnosis.Diagnosis createDiagnosis(EncounterTransaction.Diagnosis diagnosisRequest, ObsIndex encounterObs) {
         CodedOrFreeTextAnswer codedOrFreeTextAnswer = getCodedOrFreeTextAnswer(diagnosisRequest);
         org.openmrs.module.emrapi.diagnosis.Diagnosis.Order order = org.openmrs.module.emrapi.diagnosis.Diagnosis.Order.valueOf(diagnosisRequest.getOrder());
         org.openmrs.module.emrapi.diagnosis.Diagnosis.Certainty certainty = org.openmrs.module.emrapi.diagnosis.Diagnosis.Certainty.valueOf(diagnosisRequest.getCertainty());
-        Obs existingObs = obsService.getObsByUuid(diagnosisRequest.getExistingObs());
+        Obs existingObs = encounterObs.getByUuid(diagnosisRequest.getExistingObs());
+        if (existingObs == null && diagnosisRequest.getExistingObs() != null) {
+            existingObs = obsService.getObsByUuid(diagnosisRequest.getExistingObs());
+        }
         org.openmrs.module.emrapi.diagnosis.Diagnosis diagnosis = new org.openmrs.module.emrapi.diagnosis.Diagnosis(codedOrFreeTextAnswer, order);
         diagnosis.setCertainty(certainty);
         diagnosis.setExistingObs(existingObs);
@@ -106,7 +129,7 @@ public class EncounterObservationServiceHelper {
         }
         EncounterTransaction.Concept codedAnswer = diagnosisRequest.getCodedAnswer();
         if(codedAnswer != null) {
-            Concept concept = conceptService.getConceptByUuid(codedAnswer.getUuid());
+            Concept concept = metadataCache != null ? metadataCache.getConcept(codedAnswer.getUuid()) : conceptService.getConceptByUuid(codedAnswer.getUuid());
             if (concept == null) {
                 throw new ConceptNotFoundException("Coded answer concept does not exist" + codedAnswer.getUuid());
             }
@@ -26,12 +26,17 @@ import java.util.Set;
 public class EncounterProviderServiceHelper {
     private ProviderService providerService;
     private EncounterService encounterService;
+    private EncounterMetadataCache metadataCache;
 
     public EncounterProviderServiceHelper(ProviderService providerService, EncounterService encounterService) {
         this.providerService = providerService;
         this.encounterService = encounterService;
     }
 
+    public void setMetadataCache(EncounterMetadataCache metadataCache) {
+        this.metadataCache = metadataCache;
+    }
+
     public void update(Encounter encounter, Set<EncounterTransaction.Provider> providers) {
         for (EncounterTransaction.Provider provider : providers) {
             EncounterProvider encounterProvider = findProvider(encounter, provider.getUuid(), provider.getEncounterRoleUuid());
@@ -40,11 +45,11 @@ public class EncounterProviderServiceHelper {
                 EncounterRole encounterRole = null;
 
                 if (StringUtils.isNotEmpty(provider.getEncounterRoleUuid())) {
-                    encounterRole = encounterService.getEncounterRoleByUuid(provider.getEncounterRoleUuid());
+                    encounterRole = getEncounterRoleByUuid(provider.getEncounterRoleUuid());
                 }
 
                 if (encounterRole == null) {
-                    encounterRole = encounterService.getEncounterRoleByUuid(EncounterRole.UNKNOWN_ENCOUNTER_ROLE_UUID);
+                    encounterRole = getEncounterRoleByUuid(EncounterRole.UNKNOWN_ENCOUNTER_ROLE_UUID);
                 }
 
                 encounter.addProvider(encounterRole, providerService.getProviderByUuid(provider.getUuid()));
@@ -52,6 +57,10 @@ public class EncounterProviderServiceHelper {
         }
     }
 
+    private EncounterRole getEncounterRoleByUuid(String uuid) {
+        return metadataCache != null ? metadataCache.getEncounterRole(uuid) : encounterService.getEncounterRoleByUuid(uuid);
+    }
+
     // returns first matching provider by providerUuid and encounterRoleUuid; if encounterRoleUuid is null, just match on provider
     private EncounterProvider findProvider(Encounter encounter, String providerUuid, String encounterRoleUuid) {
         for (EncounterProvider encounterProvider : encounter.getEncounterProviders()) {
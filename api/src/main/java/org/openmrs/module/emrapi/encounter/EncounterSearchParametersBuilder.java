@@ -36,14 +36,20 @@ public class EncounterSearchParametersBuilder {
     private LocationService locationService;
     private ProviderService providerService;
     private VisitService visitService;
+    private EncounterMetadataCache metadataCache;
 
     public EncounterSearchParametersBuilder(EncounterSearchParameters encounterSearchParameters, PatientService patientService, EncounterService encounterService, LocationService locationService, ProviderService providerService, VisitService visitService) {
+        this(encounterSearchParameters, patientService, encounterService, locationService, providerService, visitService, null);
+    }
+
+    public EncounterSearchParametersBuilder(EncounterSearchParameters encounterSearchParameters, PatientService patientService, EncounterService encounterService, LocationService locationService, ProviderService providerService, VisitService visitService, EncounterMetadataCache metadataCache) {
         this.encounterSearchParameters = encounterSearchParameters;
         this.patientService = patientService;
         this.encounterService = encounterService;
         this.locationService = locationService;
         this.providerService = providerService;
         this.visitService = visitService;
+        this.metadataCache = metadataCache;
     }
 
     public Patient getPatient() {
@@ -51,7 +57,8 @@ public class EncounterSearchParametersBuilder {
     }
 
     public Location getLocation() {
-        return locationService.getLocationByUuid(encounterSearchParameters.getLocationUuid());
+        String locationUuid = encounterSearchParameters.getLocationUuid();
+        return metadataCache != null ? metadataCache.getLocation(locationUuid) : locationService.getLocationByUuid(locationUuid);
 
     }
 
@@ -67,7 +74,7 @@ public class EncounterSearchParametersBuilder {
     public Collection<EncounterType> getEncounterTypes() {
         Collection<EncounterType> encounterTypes = new HashSet<EncounterType>();
         for (String encounterTypeUuid : encounterSearchParameters.getEncounterTypeUuids()) {
-            encounterTypes.add(encounterService.getEncounterTypeByUuid(encounterTypeUuid));
+            encounterTypes.add(metadataCache != null ? metadataCache.getEncounterType(encounterTypeUuid) : encounterService.getEncounterTypeByUuid(encounterTypeUuid));
         }
         return encounterTypes;
     }
@@ -83,7 +90,7 @@ public class EncounterSearchParametersBuilder {
     public Collection<VisitType> getVisitTypes() {
         Collection<VisitType> visitTypes = new HashSet<VisitType>();
         for (String visitTypeUuid: encounterSearchParameters.getVisitTypeUuids()){
-            visitTypes.add(visitService.getVisitTypeByUuid(visitTypeUuid));
+            visitTypes.add(metadataCache != null ? metadataCache.getVisitType(visitTypeUuid) : visitService.getVisitTypeByUuid(visitTypeUuid));
         }
         return visitTypes;
     }
@@ -0,0 +1,118 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+package org.openmrs.module.emrapi.encounter;
+
+import org.openmrs.Encounter;
+import org.openmrs.Obs;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The obs of an encounter (or the members of an obs group) by uuid and by concept uuid, so that matching each
+ * incoming observation against them is a lookup rather than a scan. Built once per encounter update and shared by the
+ * observation, diagnosis and disposition helpers; each of them adds the obs it creates, so that later lookups see them
+ * just as a fresh scan of the encounter would.
+ * <p/>
+ * Lookups by uuid find obs that were not voided when they were indexed; lookups by concept skip any that have been
+ * voided since.
+ */
+public class ObsIndex {
+
+    private final Map<String, Obs> byUuid = new HashMap<String, Obs>();
+
+    private final Map<String, List<Obs>> byConceptUuid = new HashMap<String, List<Obs>>();
+
+    private final Map<Obs, ObsIndex> groupMembers = new IdentityHashMap<Obs, ObsIndex>();
+
+    private final Set<Obs> indexed = Collections.newSetFromMap(new IdentityHashMap<Obs, Boolean>());
+
+    /**
+     * @param observations may be null
+     */
+    public ObsIndex(Collection<Obs> observations) {
+        if (observations != null) {
+            for (Obs obs : observations) {
+                add(obs);
+            }
+        }
+    }
+
+    /**
+     * @return an index of the encounter's non-voided top level obs
+     */
+    public static ObsIndex forEncounter(Encounter encounter) {
+        return new ObsIndex(encounter.getObsAtTopLevel(false));
+    }
+
+    public void add(Obs obs) {
+        if (!indexed.add(obs)) {
+            return;
+        }
+        if (obs.getUuid() != null && !byUuid.containsKey(obs.getUuid())) {
+            byUuid.put(obs.getUuid(), obs);
+        }
+        if (obs.getConcept() != null && obs.getConcept().getUuid() != null) {
+            List<Obs> withConcept = byConceptUuid.get(obs.getConcept().getUuid());
+            if (withConcept == null) {
+                withConcept = new ArrayList<Obs>(1);
+                byConceptUuid.put(obs.getConcept().getUuid(), withConcept);
+            }
+            withConcept.add(obs);
+        }
+    }
+
+    /**
+     * @return the obs with this uuid, or null if there is none (or uuid is null)
+     */
+    public Obs getByUuid(String uuid) {
+        return uuid == null ? null : byUuid.get(uuid);
+    }
+
+    /**
+     * @return the first non-voided obs of this concept, or null if there is none
+     */
+    public Obs getByConceptUuid(String conceptUuid) {
+        List<Obs> withConcept = conceptUuid == null ? null : byConceptUuid.get(conceptUuid);
+        if (withConcept != null) {
+            for (Obs obs : withConcept) {
+                if (!obs.isVoided()) {
+                    return obs;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param group one of the obs in this index
+     * @return an index of the group's non-voided members, built the first time it is asked for
+     */
+    public ObsIndex getGroupMembers(Obs group) {
+        ObsIndex members = groupMembers.get(group);
+        if (members == null) {
+            members = new ObsIndex(group.getGroupMembers());
+            groupMembers.put(group, members);
+        }
+        return members;
+    }
+
+}
@@ -0,0 +1,85 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.emrapi.encounter.domain;
+
+import org.codehaus.jackson.annotate.JsonIgnoreProperties;
+
+/**
+ * The outcome of saving one of several encounter transactions at once: either the saved encounter transaction (with
+ * its visit and encounter uuids), or why it could not be saved
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class EncounterTransactionSaveResult {
+
+    private int index;
+
+    private EncounterTransaction encounterTransaction;
+
+    private String error;
+
+    public EncounterTransactionSaveResult() {
+    }
+
+    public static EncounterTransactionSaveResult saved(int index, EncounterTransaction encounterTransaction) {
+        EncounterTransactionSaveResult result = new EncounterTransactionSaveResult();
+        result.setIndex(index);
+        result.setEncounterTransaction(encounterTransaction);
+        return result;
+    }
+
+    public static EncounterTransactionSaveResult failed(int index, Exception failure) {
+        EncounterTransactionSaveResult result = new EncounterTransactionSaveResult();
+        result.setIndex(index);
+        result.setError(failure.getMessage() != null ? failure.getMessage() : failure.getClass().getName());
+        return result;
+    }
+
+    /**
+     * @return the position of the encounter transaction in the list that was saved
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    public void setIndex(int index) {
+        this.index = index;
+    }
+
+    /**
+     * @return the saved encounter transaction, or null if it failed
+     */
+    public EncounterTransaction getEncounterTransaction() {
+        return encounterTransaction;
+    }
+
+    public void setEncounterTransaction(EncounterTransaction encounterTransaction) {
+        this.encounterTransaction = encounterTransaction;
+    }
+
+    /**
+     * @return why the encounter transaction could not be saved, or null if it was
+     */
+    public String getError() {
+        return error;
+    }
+
+    public void setError(String error) {
+        this.error = error;
+    }
+
+    public boolean isSuccess() {
+        return error == null;
+    }
+
+}
@@ -15,6 +15,8 @@ import org.openmrs.api.ConceptService;
 import org.openmrs.api.ObsService;
 import org.openmrs.api.OrderService;
 import org.openmrs.module.emrapi.EmrApiProperties;
+import org.openmrs.module.emrapi.encounter.EncounterMetadataCache;
+import org.openmrs.module.emrapi.encounter.ObsIndex;
 import org.openmrs.module.emrapi.encounter.domain.EncounterTransaction;
 import org.openmrs.module.emrapi.encounter.exception.ConceptNotFoundException;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -35,6 +37,7 @@ public class ObsMapper {
     private EmrApiProperties emrApiProperties;
     private ObsService obsService;
     private OrderService orderService;
+    private EncounterMetadataCache metadataCache;
 
     @Autowired
     public ObsMapper(ConceptService conceptService,
@@ -46,6 +49,11 @@ public class ObsMapper {
         this.orderService = orderService;
     }
 
+    @Autowired(required = false)
+    public void setMetadataCache(EncounterMetadataCache metadataCache) {
+        this.metadataCache = metadataCache;
+    }
+
     public Obs transformEtObs(Encounter encounter,Obs observation, EncounterTransaction.Observation observationData) {
         if (observation == null) {
             observation = newObservation(encounter,observationData);
@@ -53,9 +61,12 @@ public class ObsMapper {
 
         mapObservationProperties(observationData, observation);
 
+        ObsIndex existingMembers = new ObsIndex(observation.getGroupMembers());
         for (EncounterTransaction.Observation member : observationData.getGroupMembers()) {
-            Obs nextLevelObs = getMatchingObservation(observation.getGroupMembers(), member.getUuid());
-            observation.addGroupMember(transformEtObs(encounter,nextLevelObs, member));
+            Obs nextLevelObs = existingMembers.getByUuid(member.getUuid());
+            Obs memberObs = transformEtObs(encounter,nextLevelObs, member);
+            observation.addGroupMember(memberObs);
+            existingMembers.add(memberObs);
         }
         return observation;
     }
@@ -66,7 +77,7 @@ public class ObsMapper {
             observation.setUuid(observationData.getUuid());
         }
         Date observationDateTime = getCurrentDateIfNull(observationData.getObservationDateTime());
-        Concept concept = conceptService.getConceptByUuid(observationData.getConceptUuid());
+        Concept concept = getConceptByUuid(observationData.getConceptUuid());
         if (concept == null) {
             throw new ConceptNotFoundException("Observation concept does not exist" + observationData.getConceptUuid());
         }
@@ -94,9 +105,9 @@ public class ObsMapper {
         if (observationData.getValue() != null) {
             if (observation.getConcept().getDatatype().isCoded()) {
                 String uuid = getUuidOfCodedObservationValue(observationData.getValue());
-                Concept conceptByUuid = conceptService.getConceptByUuid(uuid);
+                Concept conceptByUuid = getConceptByUuid(uuid);
                 if (conceptByUuid == null) {
-                    Drug drug = conceptService.getDrugByUuid(uuid);
+                    Drug drug = getDrugByUuid(uuid);
                     observation.setValueDrug(drug);
                     observation.setValueCoded(drug.getConcept());
                 } else {
@@ -129,6 +140,14 @@ public class ObsMapper {
         return (String) codeObsVal;
     }
 
+    private Concept getConceptByUuid(String uuid) {
+        return metadataCache != null ? metadataCache.getConcept(uuid) : conceptService.getConceptByUuid(uuid);
+    }
+
+    private Drug getDrugByUuid(String uuid) {
+        return metadataCache != null ? metadataCache.getDrug(uuid) : conceptService.getDrugByUuid(uuid);
+    }
+
     private Order getOrderByUuid(String orderUuid) {
         return orderService.getOrderByUuid(orderUuid);
     }
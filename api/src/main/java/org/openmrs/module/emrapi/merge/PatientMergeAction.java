@@ -12,6 +12,10 @@ public interface PatientMergeAction {
      * This method will be called before calling the underlying OpenMRS
      * {@link org.openmrs.api.PatientService#mergePatients(org.openmrs.Patient, org.openmrs.Patient)} method, but in the
      * same transaction. Any thrown exception will cancel the merge
+     * <p/>
+     * For a merge queued with {@link org.openmrs.module.emrapi.adt.AdtService#queuePatientMerge} it is instead called in a
+     * transaction of its own, on a background thread, which commits before the rest of the merge. If a later step fails and
+     * the same merge is queued again, it will be called again for the same patients, so it must be idempotent.
      *
      * @param preferred
      * @param notPreferred
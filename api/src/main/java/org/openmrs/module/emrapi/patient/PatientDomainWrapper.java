@@ -302,16 +302,7 @@ public class PatientDomainWrapper implements DomainWrapper {
 
 	public boolean hasOverlappingVisitsWith(Patient otherPatient) {
 		List<Visit> otherVisits = visitService.getVisitsByPatient(otherPatient, true, false);
-		List<Visit> myVisits = getAllVisits();
-
-		for (Visit v : myVisits) {
-			for (Visit o : otherVisits) {
-				if (adtService.visitsOverlap(v, o)) {
-					return true;
-				}
-			}
-		}
-		return false;
+		return adtService.anyVisitsOverlap(getAllVisits(), otherVisits);
 	}
 
 	public boolean isUnknownPatient() {
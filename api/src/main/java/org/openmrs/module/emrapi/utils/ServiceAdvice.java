@@ -0,0 +1,71 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+package org.openmrs.module.emrapi.utils;
+
+import org.aopalliance.aop.Advice;
+import org.springframework.aop.Advisor;
+import org.springframework.aop.framework.Advised;
+import org.springframework.aop.support.NameMatchMethodPointcutAdvisor;
+
+/**
+ * Advice added to some of a core service's methods by one of this module's beans. Core services outlive the module's
+ * application context, so the bean has to {@link #remove()} its advice again when it is destroyed.
+ */
+public class ServiceAdvice {
+
+    private final Advised service;
+
+    private final Advisor advisor;
+
+    private ServiceAdvice(Advised service, Advisor advisor) {
+        this.service = service;
+        this.advisor = advisor;
+    }
+
+    /**
+     * Adds advice to the named methods of a service, if the service can be advised (i.e. it is a Spring AOP proxy)
+     *
+     * @param service
+     * @param advice
+     * @param methodNames method names, which may start or end with a "*" wildcard
+     * @return a handle for removing the advice again; check {@link #isRegistered()} to see whether it was added
+     */
+    public static ServiceAdvice register(Object service, Advice advice, String... methodNames) {
+        if (!(service instanceof Advised)) {
+            return new ServiceAdvice(null, null);
+        }
+        NameMatchMethodPointcutAdvisor advisor = new NameMatchMethodPointcutAdvisor(advice);
+        advisor.setMappedNames(methodNames);
+        ((Advised) service).addAdvisor(advisor);
+        return new ServiceAdvice((Advised) service, advisor);
+    }
+
+    /**
+     * @return false if the service could not be advised, so the advice will never run
+     */
+    public boolean isRegistered() {
+        return service != null;
+    }
+
+    /**
+     * Removes the advice from the service; does nothing if it was not registered, or has already been removed
+     */
+    public void remove() {
+        if (service != null) {
+            service.removeAdvisor(advisor);
+        }
+    }
+
+}
@@ -14,7 +14,6 @@
 package org.openmrs.module.emrapi.visit;
 
 
-import org.apache.commons.collections.Predicate;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.joda.time.DateMidnight;
@@ -47,19 +46,19 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import static java.util.Collections.EMPTY_LIST;
 import static java.util.Collections.reverseOrder;
 import static java.util.Collections.sort;
-import static org.apache.commons.collections.CollectionUtils.find;
-import static org.apache.commons.collections.CollectionUtils.select;
 
 
 /**
@@ -90,6 +89,10 @@ public class VisitDomainWrapper implements DomainWrapper {
 
     private Visit visit;
 
+    private EncounterSnapshot snapshot;
+
+    private Boolean awaitingAdmission;
+
     public VisitDomainWrapper(){
     }
 
@@ -122,6 +125,8 @@ public class VisitDomainWrapper implements DomainWrapper {
 
     public void setVisit(Visit visit) {
         this.visit = visit;
+        this.snapshot = null;
+        this.awaitingAdmission = null;
     }
 
     public int getVisitId() {
@@ -141,15 +146,28 @@ public class VisitDomainWrapper implements DomainWrapper {
         this.visitQueryService = visitQueryService;
     }
 
+    /**
+     * Supplies the answer {@link #isAwaitingAdmission()} should give, typically evaluated for many visits at once with
+     * {@link org.openmrs.module.emrapi.adt.AdtService#getVisitIdsAwaitingAdmission(java.util.Collection)}.
+     * Null (the default) means it is evaluated when asked for.
+     *
+     * @param awaitingAdmission
+     */
+    public void setAwaitingAdmission(Boolean awaitingAdmission) {
+        this.awaitingAdmission = awaitingAdmission;
+    }
+
     public Encounter getAdmissionEncounter() {
-        return (Encounter) find(getSortedEncounters(SortOrder.MOST_RECENT_FIRST), new EncounterTypePredicate(emrApiProperties.getAdmissionEncounterType()));
+        return getSnapshot().getMostRecent(emrApiProperties.getAdmissionEncounterType());
     }
 
     // TODO: refactor this to use EncounterTypePredicate
     public Encounter getLatestAdtEncounter(){
-        for (Encounter e : getSortedEncounters(SortOrder.MOST_RECENT_FIRST)) {
-            if (emrApiProperties.getAdmissionEncounterType().equals(e.getEncounterType()) ||
-                    emrApiProperties.getTransferWithinHospitalEncounterType().equals(e.getEncounterType()) )
+        EncounterType admissionEncounterType = emrApiProperties.getAdmissionEncounterType();
+        EncounterType transferEncounterType = emrApiProperties.getTransferWithinHospitalEncounterType();
+        for (Encounter e : getSnapshot().mostRecentFirst) {
+            if (admissionEncounterType.equals(e.getEncounterType()) ||
+                    transferEncounterType.equals(e.getEncounterType()) )
                 return e;
         }
         return null;
@@ -169,7 +187,7 @@ public class VisitDomainWrapper implements DomainWrapper {
      * @return
      */
     public Encounter getMostRecentCheckInEncounter() {
-        return (Encounter) find(getSortedEncounters(SortOrder.MOST_RECENT_FIRST), new EncounterTypePredicate(emrApiProperties.getCheckInEncounterType()));
+        return getSnapshot().getMostRecent(emrApiProperties.getCheckInEncounterType());
     }
 
     /**
@@ -177,7 +195,7 @@ public class VisitDomainWrapper implements DomainWrapper {
      * @return
      */
     public Encounter getEarliestCheckInEncounter() {
-        return (Encounter) find(getSortedEncounters(SortOrder.EARLIEST_FIRST), new EncounterTypePredicate(emrApiProperties.getCheckInEncounterType()));
+        return getSnapshot().getEarliest(emrApiProperties.getCheckInEncounterType());
     }
 
     @Deprecated  // use getMostRecentCheckInEncounter, as this is a more accurate method name
@@ -186,7 +204,7 @@ public class VisitDomainWrapper implements DomainWrapper {
     }
 
     public Encounter getMostRecentEncounter() {
-        List<Encounter> encounters = getSortedEncounters(SortOrder.MOST_RECENT_FIRST);
+        List<Encounter> encounters = getSnapshot().mostRecentFirst;
         if (encounters.size() > 0)
             return encounters.get(0);
         return null;
@@ -198,7 +216,7 @@ public class VisitDomainWrapper implements DomainWrapper {
     }
 
     public Encounter getEarliestEncounter() {
-        List<Encounter> encounters = getSortedEncounters(SortOrder.MOST_RECENT_FIRST);
+        List<Encounter> encounters = getSnapshot().mostRecentFirst;
         if (encounters.size() != 0)
             return encounters.get(encounters.size() - 1);
         return null;
@@ -214,7 +232,7 @@ public class VisitDomainWrapper implements DomainWrapper {
      * @return
      */
     public Encounter getMostRecentVisitNote() {
-        return (Encounter) find(getSortedEncounters(SortOrder.MOST_RECENT_FIRST), new EncounterTypePredicate(emrApiProperties.getVisitNoteEncounterType()));
+        return getSnapshot().getMostRecent(emrApiProperties.getVisitNoteEncounterType());
     }
 
     /**
@@ -222,7 +240,12 @@ public class VisitDomainWrapper implements DomainWrapper {
      * @return
      */
     public Encounter getMostRecentVisitNoteAtLocation(Location location) {
-        return (Encounter) find(getSortedEncounters(SortOrder.MOST_RECENT_FIRST), new EncounterTypeAndLocationPredicate(emrApiProperties.getVisitNoteEncounterType(), location));
+        for (Encounter encounter : getSnapshot().getMostRecentFirst(emrApiProperties.getVisitNoteEncounterType())) {
+            if (location.equals(encounter.getLocation())) {
+                return encounter;
+            }
+        }
+        return null;
 
     }
 
@@ -256,19 +279,27 @@ public class VisitDomainWrapper implements DomainWrapper {
      * @return
      */
     public List<Encounter> getSortedEncounters(SortOrder order) {
-
-        Comparator<Encounter> datetimeComparator = EncounterDomainWrapper.DATETIME_COMPARATOR;
-
-        if (order == SortOrder.MOST_RECENT_FIRST) {
-            datetimeComparator = reverseOrder(datetimeComparator);
+        EncounterSnapshot current = getSnapshot();
+        if (current.source == null) {
+            return EMPTY_LIST;
         }
+        return new ArrayList<Encounter>(order == SortOrder.MOST_RECENT_FIRST ? current.mostRecentFirst : current.earliestFirst);
+    }
 
-        if (visit.getEncounters() != null) {
-            List<Encounter> nonVoidedEncounters = (List<Encounter>) select(visit.getEncounters(), EncounterDomainWrapper.NON_VOIDED_PREDICATE);
-            sort(nonVoidedEncounters, datetimeComparator);
-            return nonVoidedEncounters;
+    /**
+     * The sorted non-voided encounters are computed once and reused until {@link #addEncounter(Encounter)} or
+     * {@link #setVisit(Visit)} is called, or the visit's encounters change: the collection is replaced, an encounter is
+     * added or removed, or an encounter is voided, unvoided, re-dated or given another type. Checking for that is a
+     * single pass over the encounters, which is still much cheaper than sorting them again.
+     */
+    private EncounterSnapshot getSnapshot() {
+        Set<Encounter> encounters = visit.getEncounters();
+        EncounterSnapshot current = snapshot;
+        if (current == null || !current.isFor(encounters)) {
+            current = new EncounterSnapshot(encounters);
+            snapshot = current;
         }
-        return EMPTY_LIST;
+        return current;
     }
 
     public int getDifferenceInDaysBetweenCurrentDateAndStartDate() {
@@ -289,7 +320,7 @@ public class VisitDomainWrapper implements DomainWrapper {
         if (dispositionService.dispositionsSupported()) {   // prevents against stace trace if dispositions are supported
             DispositionDescriptor dispositionDescriptor = dispositionService.getDispositionDescriptor();
 
-            for (Encounter encounter : getSortedEncounters(SortOrder.MOST_RECENT_FIRST)) {
+            for (Encounter encounter : getSnapshot().mostRecentFirst) {
                 for (Obs obs : encounter.getObsAtTopLevel(false)) {
                     if (dispositionDescriptor.isDisposition(obs)) {
                         return dispositionService.getDispositionFromObsGroup(obs);
@@ -314,7 +345,7 @@ public class VisitDomainWrapper implements DomainWrapper {
         if (dispositionService.dispositionsSupported()) {   // prevents against stack trace if dispositions not configured
             DispositionDescriptor dispositionDescriptor = dispositionService.getDispositionDescriptor();
 
-            for (Encounter encounter : getSortedEncounters(SortOrder.MOST_RECENT_FIRST)) {  // getSortedEncounters already excludes voided encounters
+            for (Encounter encounter : getSnapshot().mostRecentFirst) {  // the snapshot already excludes voided encounters
                 for (Obs obs : encounter.getObsAtTopLevel(false)) {
                     if (dispositionDescriptor.isDisposition(obs)
                             && dispositionService.getDispositionFromObsGroup(obs).getType() == type) {
@@ -329,7 +360,7 @@ public class VisitDomainWrapper implements DomainWrapper {
 
     public List<Diagnosis> getPrimaryDiagnoses() {
         List<Diagnosis> diagnoses = new ArrayList<Diagnosis>();
-        for (Encounter encounter : getSortedEncounters(SortOrder.MOST_RECENT_FIRST)) {
+        for (Encounter encounter : getSnapshot().mostRecentFirst) {
             diagnoses.addAll(getDiagnosesFromEncounter(encounter, Collections.singletonList(Diagnosis.Order.PRIMARY)));
         }
         return diagnoses;
@@ -385,7 +416,7 @@ public class VisitDomainWrapper implements DomainWrapper {
     @Deprecated
     public List<Diagnosis> getUniqueDiagnosesLegacy(Boolean primaryOnly, Boolean confirmedOnly) {
 		Map<CodedOrFreeTextAnswer, Diagnosis> diagnoses = new LinkedHashMap<CodedOrFreeTextAnswer, Diagnosis>();
-		for (Encounter encounter : getSortedEncounters(SortOrder.MOST_RECENT_FIRST)) {
+		for (Encounter encounter : getSnapshot().mostRecentFirst) {
 
          List<Diagnosis> diagnosesFromEncounter = getDiagnosesFromEncounter(encounter);
          if (diagnosesFromEncounter == null) {
@@ -441,31 +472,33 @@ public class VisitDomainWrapper implements DomainWrapper {
     }
 
     public boolean hasEncounters(){
-        List<Encounter> encounters = getSortedEncounters(SortOrder.MOST_RECENT_FIRST);
-        if (encounters != null && encounters.size() > 0){
-            return true;
-        }
-        return false;
+        return !getSnapshot().mostRecentFirst.isEmpty();
     }
 
     public boolean hasEncounterWithoutSubsequentEncounter(EncounterType lookForEncounterType, EncounterType withoutSubsequentEncounterType) {
-        return hasEncounterWithoutSubsequentEncounter(lookForEncounterType, withoutSubsequentEncounterType, null);
-    }
-
-    private boolean hasEncounterWithoutSubsequentEncounter(EncounterType lookForEncounterType, EncounterType withoutSubsequentEncounterType, Date onDate) {
 
         if (visit.getEncounters() == null) {
             return false;
         }
 
-        for (Encounter encounter : getSortedEncounters(SortOrder.MOST_RECENT_FIRST)) {
-            if (onDate == null || encounter.getEncounterDatetime().before(onDate) || encounter.getEncounterDatetime().equals(onDate)) {
-                if (encounter.getEncounterType().equals(lookForEncounterType)) {
-                    return true;
-                }
-                else if (encounter.getEncounterType().equals(withoutSubsequentEncounterType)) {
-                    return false;
-                }
+        EncounterType admissionEncounterType = emrApiProperties == null ? null : emrApiProperties.getAdmissionEncounterType();
+        EncounterType dischargeEncounterType = emrApiProperties == null ? null : emrApiProperties.getExitFromInpatientEncounterType();
+        // the usual questions are answered from the ADT timeline; anything else by walking the encounters
+        if (lookForEncounterType != null && lookForEncounterType.equals(admissionEncounterType)
+                && OpenmrsUtil.nullSafeEquals(withoutSubsequentEncounterType, dischargeEncounterType)) {
+            return getAdtTimeline().getStateAt(null) == AdtState.ADMITTED;
+        }
+        if (lookForEncounterType != null && lookForEncounterType.equals(dischargeEncounterType)
+                && OpenmrsUtil.nullSafeEquals(withoutSubsequentEncounterType, admissionEncounterType)) {
+            return getAdtTimeline().getStateAt(null) == AdtState.DISCHARGED;
+        }
+
+        for (Encounter encounter : getSnapshot().mostRecentFirst) {
+            if (encounter.getEncounterType().equals(lookForEncounterType)) {
+                return true;
+            }
+            else if (encounter.getEncounterType().equals(withoutSubsequentEncounterType)) {
+                return false;
             }
         }
 
@@ -478,19 +511,19 @@ public class VisitDomainWrapper implements DomainWrapper {
     public boolean isAdmitted() {
         EncounterType admissionEncounterType = emrApiProperties.getAdmissionEncounterType();
         EncounterType dischargeEncounterType = emrApiProperties.getExitFromInpatientEncounterType();
-        if (admissionEncounterType == null) {
+        if (admissionEncounterType == null || visit.getEncounters() == null) {
             return false;
         }
-        return hasEncounterWithoutSubsequentEncounter(admissionEncounterType, dischargeEncounterType);
+        return getAdtTimeline(admissionEncounterType, dischargeEncounterType).getStateAt(null) == AdtState.ADMITTED;
     }
 
     public boolean hasBeenDischarged() {
         EncounterType admissionEncounterType = emrApiProperties.getAdmissionEncounterType();
         EncounterType dischargeEncounterType = emrApiProperties.getExitFromInpatientEncounterType();
-        if (dischargeEncounterType == null) {
+        if (dischargeEncounterType == null || visit.getEncounters() == null) {
             return false;
         }
-        return hasEncounterWithoutSubsequentEncounter(dischargeEncounterType, admissionEncounterType);
+        return getAdtTimeline(admissionEncounterType, dischargeEncounterType).getStateAt(null) == AdtState.DISCHARGED;
     }
 
     public boolean isAdmitted(Date onDate) {
@@ -501,11 +534,11 @@ public class VisitDomainWrapper implements DomainWrapper {
 
         EncounterType admissionEncounterType = emrApiProperties.getAdmissionEncounterType();
         EncounterType dischargeEncounterType = emrApiProperties.getExitFromInpatientEncounterType();
-        if (admissionEncounterType == null) {
+        if (admissionEncounterType == null || visit.getEncounters() == null) {
             return false;
         }
 
-        return hasEncounterWithoutSubsequentEncounter(admissionEncounterType, dischargeEncounterType, onDate);
+        return getAdtTimeline(admissionEncounterType, dischargeEncounterType).getStateAt(onDate) == AdtState.ADMITTED;
     }
 
     public boolean isAwaitingAdmission() {
@@ -514,6 +547,10 @@ public class VisitDomainWrapper implements DomainWrapper {
             return false;
         }
 
+        if (awaitingAdmission != null) {
+            return awaitingAdmission;
+        }
+
         VisitQueryResult result = null;
 
         VisitEvaluationContext context = new VisitEvaluationContext();
@@ -537,21 +574,16 @@ public class VisitDomainWrapper implements DomainWrapper {
         if (!isAdmitted(onDate)) {
             return null;
         }
+        return getAdtTimeline().getWardAt(onDate);
+    }
 
-        EncounterType admissionEncounterType = emrApiProperties.getAdmissionEncounterType();
-        EncounterType transferEncounterType = emrApiProperties.getTransferWithinHospitalEncounterType();
-
-        for (Encounter encounter : getSortedEncounters(SortOrder.MOST_RECENT_FIRST)) {
-            if (onDate == null || encounter.getEncounterDatetime().before(onDate) || encounter.getEncounterDatetime().equals(onDate)) {
-                if (encounter.getEncounterType().equals(admissionEncounterType) ||
-                        encounter.getEncounterType().equals(transferEncounterType)) {
-                    return encounter.getLocation();
-                }
-            }
-        }
+    private AdtTimeline getAdtTimeline() {
+        return getAdtTimeline(emrApiProperties.getAdmissionEncounterType(), emrApiProperties.getExitFromInpatientEncounterType());
+    }
 
-        // should never get here if isAdmitted == true
-        return null;
+    private AdtTimeline getAdtTimeline(EncounterType admissionEncounterType, EncounterType dischargeEncounterType) {
+        return getSnapshot().getAdtTimeline(admissionEncounterType, dischargeEncounterType,
+                emrApiProperties.getTransferWithinHospitalEncounterType());
     }
 
     public Date getStartDatetime() {
@@ -577,6 +609,8 @@ public class VisitDomainWrapper implements DomainWrapper {
      */
     public VisitDomainWrapper addEncounter(Encounter encounter) {
         visit.addEncounter(encounter);
+        snapshot = null;
+        awaitingAdmission = null;
         return this;
     }
 
@@ -624,35 +658,235 @@ public class VisitDomainWrapper implements DomainWrapper {
         return null;
     }
 
-    private class EncounterTypePredicate implements Predicate {
+    /**
+     * Immutable view of the visit's non-voided encounters, sorted both ways and indexed by encounter type
+     */
+    private static class EncounterSnapshot {
+
+        private final Set<Encounter> source;
+
+        private final int sourceSize;
+
+        // what each encounter looked like when the snapshot was taken, in the source's iteration order
+        private final Encounter[] sourceEncounters;
+
+        private final boolean[] sourceVoided;
+
+        private final Date[] sourceDatetimes;
+
+        private final EncounterType[] sourceTypes;
+
+        private final List<Encounter> mostRecentFirst;
+
+        private final List<Encounter> earliestFirst;
+
+        private final Map<EncounterType, List<Encounter>> mostRecentFirstByType = new HashMap<EncounterType, List<Encounter>>();
+
+        private final Map<EncounterType, Encounter> earliestByType = new HashMap<EncounterType, Encounter>();
+
+        private AdtTimeline adtTimeline;
 
-        private EncounterType type;
+        EncounterSnapshot(Set<Encounter> source) {
+            this.source = source;
+            this.sourceSize = source == null ? 0 : source.size();
+            this.sourceEncounters = new Encounter[sourceSize];
+            this.sourceVoided = new boolean[sourceSize];
+            this.sourceDatetimes = new Date[sourceSize];
+            this.sourceTypes = new EncounterType[sourceSize];
 
-        public EncounterTypePredicate(EncounterType type) {
-            this.type = type;
+            List<Encounter> nonVoided = new ArrayList<Encounter>(sourceSize);
+            if (source != null) {
+                int i = 0;
+                for (Encounter encounter : source) {
+                    sourceEncounters[i] = encounter;
+                    sourceVoided[i] = encounter.isVoided();
+                    sourceDatetimes[i] = copy(encounter.getEncounterDatetime());
+                    sourceTypes[i] = encounter.getEncounterType();
+                    ++i;
+                    if (!encounter.isVoided()) {
+                        nonVoided.add(encounter);
+                    }
+                }
+            }
+
+            // sort separately rather than reversing, so that encounters at the same time keep their original order either way
+            List<Encounter> sorted = new ArrayList<Encounter>(nonVoided);
+            sort(sorted, reverseOrder(EncounterDomainWrapper.DATETIME_COMPARATOR));
+            mostRecentFirst = Collections.unmodifiableList(sorted);
+            sorted = new ArrayList<Encounter>(nonVoided);
+            sort(sorted, EncounterDomainWrapper.DATETIME_COMPARATOR);
+            earliestFirst = Collections.unmodifiableList(sorted);
+
+            for (Encounter encounter : mostRecentFirst) {
+                List<Encounter> ofType = mostRecentFirstByType.get(encounter.getEncounterType());
+                if (ofType == null) {
+                    ofType = new ArrayList<Encounter>();
+                    mostRecentFirstByType.put(encounter.getEncounterType(), ofType);
+                }
+                ofType.add(encounter);
+            }
+            for (Encounter encounter : earliestFirst) {
+                if (!earliestByType.containsKey(encounter.getEncounterType())) {
+                    earliestByType.put(encounter.getEncounterType(), encounter);
+                }
+            }
+        }
+
+        boolean isFor(Set<Encounter> encounters) {
+            if (encounters != source || (encounters == null ? 0 : encounters.size()) != sourceSize) {
+                return false;
+            }
+            if (encounters == null) {
+                return true;
+            }
+            int i = 0;
+            for (Encounter encounter : encounters) {
+                if (encounter != sourceEncounters[i]
+                        || encounter.isVoided() != sourceVoided[i]
+                        || !sameTime(encounter.getEncounterDatetime(), sourceDatetimes[i])
+                        || encounter.getEncounterType() != sourceTypes[i]) {
+                    return false;
+                }
+                ++i;
+            }
+            return true;
+        }
+
+        private static Date copy(Date date) {
+            return date == null ? null : new Date(date.getTime());  // encounter datetimes may be changed in place
+        }
+
+        // compares the instants only, since hibernate may have loaded the encounter datetime as a Timestamp
+        private static boolean sameTime(Date date, Date other) {
+            return date == null ? other == null : other != null && date.getTime() == other.getTime();
+        }
+
+        List<Encounter> getMostRecentFirst(EncounterType type) {
+            List<Encounter> ofType = type == null ? null : mostRecentFirstByType.get(type);
+            return ofType == null ? Collections.<Encounter>emptyList() : ofType;
+        }
+
+        Encounter getMostRecent(EncounterType type) {
+            List<Encounter> ofType = getMostRecentFirst(type);
+            return ofType.isEmpty() ? null : ofType.get(0);
+        }
+
+        Encounter getEarliest(EncounterType type) {
+            return type == null ? null : earliestByType.get(type);
         }
 
-        @Override
-        public boolean evaluate(Object o) {
-            return type.equals(((Encounter) o).getEncounterType());
+        AdtTimeline getAdtTimeline(EncounterType admissionEncounterType, EncounterType dischargeEncounterType,
+                                   EncounterType transferEncounterType) {
+            AdtTimeline current = adtTimeline;
+            if (current == null || !current.isFor(admissionEncounterType, dischargeEncounterType, transferEncounterType)) {
+                current = new AdtTimeline(mostRecentFirst, admissionEncounterType, dischargeEncounterType, transferEncounterType);
+                adtTimeline = current;
+            }
+            return current;
         }
+
+    }
+
+    private enum AdtState {
+        NOT_ADMITTED, ADMITTED, DISCHARGED
     }
 
-    private class EncounterTypeAndLocationPredicate implements Predicate {
+    /**
+     * The visit's admission state and ward over time, built in one pass over its encounters: one entry per distinct
+     * datetime of an admission, transfer or discharge encounter, holding the state once all encounters at that time
+     * are taken into account. Point-in-time questions are answered by binary search.
+     * <p/>
+     * Encounters are replayed in the reverse of most-recent-first order, so that among encounters at the same time the
+     * one that comes first in most-recent-first order wins, as it did when these questions were answered by walking
+     * that list.
+     */
+    private static class AdtTimeline {
+
+        private final EncounterType admissionEncounterType;
+
+        private final EncounterType dischargeEncounterType;
+
+        private final EncounterType transferEncounterType;
+
+        private final long[] times;
+
+        private final AdtState[] states;
+
+        private final Location[] wards;
+
+        AdtTimeline(List<Encounter> mostRecentFirst, EncounterType admissionEncounterType,
+                    EncounterType dischargeEncounterType, EncounterType transferEncounterType) {
+            this.admissionEncounterType = admissionEncounterType;
+            this.dischargeEncounterType = dischargeEncounterType;
+            this.transferEncounterType = transferEncounterType;
 
-        private EncounterType type;
+            long[] times = new long[mostRecentFirst.size()];
+            AdtState[] states = new AdtState[mostRecentFirst.size()];
+            Location[] wards = new Location[mostRecentFirst.size()];
+            int size = 0;
 
-        private Location location;
+            AdtState state = AdtState.NOT_ADMITTED;
+            Location ward = null;
+            for (int i = mostRecentFirst.size() - 1; i >= 0; --i) {
+                Encounter encounter = mostRecentFirst.get(i);
+                EncounterType type = encounter.getEncounterType();
+                if (type == null) {
+                    continue;
+                }
+                if (type.equals(admissionEncounterType)) {
+                    state = AdtState.ADMITTED;
+                    ward = encounter.getLocation();
+                } else if (type.equals(dischargeEncounterType)) {
+                    state = AdtState.DISCHARGED;
+                } else if (type.equals(transferEncounterType)) {
+                    ward = encounter.getLocation();
+                } else {
+                    continue;
+                }
+                // same null handling as the comparator the encounters were sorted with
+                long time = encounter.getEncounterDatetime() == null ? System.currentTimeMillis() : encounter.getEncounterDatetime().getTime();
+                if (size == 0 || times[size - 1] != time) {
+                    ++size;
+                }
+                times[size - 1] = time;
+                states[size - 1] = state;
+                wards[size - 1] = ward;
+            }
 
-        public EncounterTypeAndLocationPredicate(EncounterType type, Location location) {
-            this.type = type;
-            this.location = location;
+            this.times = Arrays.copyOf(times, size);
+            this.states = Arrays.copyOf(states, size);
+            this.wards = Arrays.copyOf(wards, size);
         }
 
-        @Override
-        public boolean evaluate(Object o) {
-            return type.equals(((Encounter) o).getEncounterType())
-                    && location.equals(((Encounter) o).getLocation());
+        boolean isFor(EncounterType admissionEncounterType, EncounterType dischargeEncounterType, EncounterType transferEncounterType) {
+            return OpenmrsUtil.nullSafeEquals(this.admissionEncounterType, admissionEncounterType)
+                    && OpenmrsUtil.nullSafeEquals(this.dischargeEncounterType, dischargeEncounterType)
+                    && OpenmrsUtil.nullSafeEquals(this.transferEncounterType, transferEncounterType);
+        }
+
+        /**
+         * @param onDate null means "now", i.e. after every encounter
+         * @return index of the last entry at or before onDate, or -1 if there is none
+         */
+        private int indexAt(Date onDate) {
+            if (onDate == null) {
+                return times.length - 1;
+            }
+            int index = Arrays.binarySearch(times, onDate.getTime());
+            // binarySearch returns (-(insertion point) - 1) when there is no exact match
+            return index >= 0 ? index : -index - 2;
         }
+
+        AdtState getStateAt(Date onDate) {
+            int index = indexAt(onDate);
+            return index < 0 ? AdtState.NOT_ADMITTED : states[index];
+        }
+
+        Location getWardAt(Date onDate) {
+            int index = indexAt(onDate);
+            return index < 0 ? null : wards[index];
+        }
+
     }
+
 }
@@ -30,6 +30,8 @@ import org.openmrs.Location;
 import org.openmrs.LocationTag;
 import org.openmrs.Obs;
 import org.openmrs.Patient;
+import org.openmrs.PersonAttribute;
+import org.openmrs.PersonAttributeType;
 import org.openmrs.Provider;
 import org.openmrs.Visit;
 import org.openmrs.api.ConceptService;
@@ -46,12 +48,15 @@ import org.openmrs.module.emrapi.test.ContextSensitiveMetadataTestUtils;
 import org.openmrs.module.emrapi.visit.EmrVisitService;
 import org.openmrs.module.emrapi.visit.VisitDomainWrapper;
 import org.openmrs.test.BaseModuleContextSensitiveTest;
+import org.springframework.aop.framework.Advised;
 import org.springframework.beans.factory.annotation.Autowired;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -60,8 +65,11 @@ import java.util.concurrent.CyclicBarrier;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNot.not;
 import static org.hamcrest.core.IsNull.notNullValue;
 import static org.hamcrest.core.IsNull.nullValue;
 import static org.junit.Assert.assertFalse;
@@ -248,6 +256,295 @@ public class AdtServiceComponentTest extends BaseModuleContextSensitiveTest {
 		}
 	}
 
+    @Test
+    public void integrationTest_ADT_workflow_concurrent_check_ins_for_different_patients() throws Exception {
+        final List<Integer> patientIds = Arrays.asList(7, 8, 7, 8, 7, 8);
+        final CyclicBarrier threadsBarrier = new CyclicBarrier(patientIds.size());
+
+        List<Callable<Integer>> checkInCalls = new ArrayList<Callable<Integer>>();
+        for (final Integer patientId : patientIds) {
+            checkInCalls.add(new Callable<Integer>() {
+
+                @Override
+                public Integer call() throws Exception {
+                    Context.openSession();
+                    authenticate();
+                    try {
+                        LocationService locationService = Context.getLocationService();
+
+                        Patient patient = Context.getPatientService().getPatient(patientId);
+
+                        // parent location should support visits
+                        LocationTag supportsVisits = new LocationTag();
+                        supportsVisits.setName(EmrApiConstants.LOCATION_TAG_SUPPORTS_VISITS);
+                        locationService.saveLocationTag(supportsVisits);
+
+                        Location parentLocation = locationService.getLocation(2);
+                        parentLocation.addTag(supportsVisits);
+                        locationService.saveLocation(parentLocation);
+
+                        threadsBarrier.await();
+
+                        return service.checkInPatient(patient, parentLocation, null, null, null, false).getEncounterId();
+                    }
+                    finally {
+                        Context.closeSession();
+                    }
+                }
+            });
+        }
+
+        ExecutorService executorService = Executors.newFixedThreadPool(patientIds.size());
+        List<Future<Integer>> checkIns = executorService.invokeAll(checkInCalls);
+        executorService.shutdown();
+
+        // every check-in for the same patient returns the same encounter, and each patient gets their own
+        Map<Integer, Integer> encounterIdByPatientId = new HashMap<Integer, Integer>();
+        for (int i = 0; i < patientIds.size(); i++) {
+            Integer encounterId = checkIns.get(i).get();
+            Integer existing = encounterIdByPatientId.get(patientIds.get(i));
+            if (existing != null) {
+                assertThat(encounterId, is(existing));
+            } else {
+                encounterIdByPatientId.put(patientIds.get(i), encounterId);
+            }
+        }
+        assertThat(encounterIdByPatientId.size(), is(2));
+        assertThat(new HashSet<Integer>(encounterIdByPatientId.values()).size(), is(2));
+
+        // and nothing else was committed behind the returned encounters
+        for (Integer patientId : encounterIdByPatientId.keySet()) {
+            assertOneOpenVisitWithOneCheckIn(patientService.getPatient(patientId), locationService.getLocation(2));
+        }
+    }
+
+    private void assertOneOpenVisitWithOneCheckIn(Patient patient, Location location) {
+        List<Visit> openVisits = new ArrayList<Visit>();
+        for (Visit visit : visitService.getActiveVisitsByPatient(patient)) {
+            if (location.equals(visit.getLocation())) {
+                openVisits.add(visit);
+            }
+        }
+        assertThat(openVisits.size(), is(1));
+
+        int checkIns = 0;
+        for (Encounter encounter : openVisits.get(0).getEncounters()) {
+            if (!encounter.isVoided() && emrApiProperties.getCheckInEncounterType().equals(encounter.getEncounterType())) {
+                checkIns++;
+            }
+        }
+        assertThat(checkIns, is(1));
+    }
+
+    @Test
+    public void integrationTest_ADT_workflow_concurrent_check_ins_with_database_lock() throws Exception {
+        final Integer patientId = 2;
+        final Integer locationId = 2;
+        final CyclicBarrier threadsBarrier = new CyclicBarrier(2);
+
+        // let both check-ins past the in-memory lock, as if they were on different servers
+        AdtServiceImpl adtServiceImpl = (AdtServiceImpl) ((Advised) service).getTargetSource().getTarget();
+        adtServiceImpl.setCheckInLocks(new PatientLocks() {
+            @Override
+            public Lock getLock(Patient patient) {
+                return new ReentrantLock();
+            }
+        });
+        ExecutorService executorService = Executors.newFixedThreadPool(2);
+        try {
+            executorService.submit(new Callable<Void>() {
+
+                @Override
+                public Void call() throws Exception {
+                    Context.openSession();
+                    authenticate();
+                    try {
+                        Context.getAdministrationService().setGlobalProperty(EmrApiConstants.GP_LOCK_CHECK_IN_IN_DATABASE, "true");
+
+                        // parent location should support visits
+                        LocationService locationService = Context.getLocationService();
+                        LocationTag supportsVisits = new LocationTag();
+                        supportsVisits.setName(EmrApiConstants.LOCATION_TAG_SUPPORTS_VISITS);
+                        locationService.saveLocationTag(supportsVisits);
+
+                        Location parentLocation = locationService.getLocation(locationId);
+                        parentLocation.addTag(supportsVisits);
+                        locationService.saveLocation(parentLocation);
+                        return null;
+                    }
+                    finally {
+                        Context.closeSession();
+                    }
+                }
+            }).get();
+
+            Callable<Integer> checkInCall = new Callable<Integer>() {
+
+                @Override
+                public Integer call() throws Exception {
+                    Context.openSession();
+                    authenticate();
+                    try {
+                        Patient patient = Context.getPatientService().getPatient(patientId);
+                        Location parentLocation = Context.getLocationService().getLocation(locationId);
+
+                        threadsBarrier.await();
+
+                        return service.checkInPatient(patient, parentLocation, null, null, null, false).getEncounterId();
+                    }
+                    finally {
+                        Context.closeSession();
+                    }
+                }
+            };
+            List<Future<Integer>> checkIns = executorService.invokeAll(Arrays.asList(checkInCall, checkInCall));
+
+            assertThat(checkIns.get(1).get(), is(checkIns.get(0).get()));
+            assertOneOpenVisitWithOneCheckIn(patientService.getPatient(patientId), locationService.getLocation(locationId));
+        }
+        finally {
+            adtServiceImpl.setCheckInLocks(new PatientLocks());
+            executorService.submit(new Callable<Void>() {
+
+                @Override
+                public Void call() throws Exception {
+                    Context.openSession();
+                    authenticate();
+                    try {
+                        Context.getAdministrationService().setGlobalProperty(EmrApiConstants.GP_LOCK_CHECK_IN_IN_DATABASE, "false");
+                        return null;
+                    }
+                    finally {
+                        Context.closeSession();
+                    }
+                }
+            }).get();
+            executorService.shutdown();
+        }
+    }
+
+    @Test
+    public void test_checkInWithinACallersTransactionShouldNotHoldThePatientLockAfterReturning() throws Exception {
+        ContextSensitiveMetadataTestUtils.setupSupportsVisitLocationTag(locationService);
+        Location parentLocation = locationService.getLocation(2);
+        parentLocation.addTag(emrApiProperties.getSupportsVisitsLocationTag());
+        locationService.saveLocation(parentLocation);
+
+        final ReentrantLock lock = new ReentrantLock();
+        AdtServiceImpl adtServiceImpl = (AdtServiceImpl) ((Advised) service).getTargetSource().getTarget();
+        adtServiceImpl.setCheckInLocks(new PatientLocks() {
+            @Override
+            public Lock getLock(Patient patient) {
+                return lock;
+            }
+        });
+        try {
+            // this test's transaction is the caller's, and it goes on after the check-in
+            service.checkInPatient(patientService.getPatient(7), parentLocation, null, null, null, false);
+            assertThat(lock.isLocked(), is(false));
+        }
+        finally {
+            adtServiceImpl.setCheckInLocks(new PatientLocks());
+        }
+    }
+
+    @Test
+    public void test_shouldReturnWardCensusOfCurrentlyAdmittedRealPatientsWithPaging() throws Exception {
+        ContextSensitiveMetadataTestUtils.setupSupportsVisitLocationTag(locationService);
+
+        Location visitLocation = locationService.getLocation(2);
+        visitLocation.addTag(emrApiProperties.getSupportsVisitsLocationTag());
+        locationService.saveLocation(visitLocation);
+
+        Location wardA = new Location();
+        wardA.setName("Ward A in Xanadu");
+        wardA.setParentLocation(visitLocation);
+        locationService.saveLocation(wardA);
+
+        Location wardB = new Location();
+        wardB.setName("Ward B in Xanadu");
+        wardB.setParentLocation(visitLocation);
+        locationService.saveLocation(wardB);
+
+        PersonAttributeType testPatientAttributeType = new PersonAttributeType();
+        testPatientAttributeType.setName("Test Patient");
+        testPatientAttributeType.setFormat("java.lang.Boolean");
+        testPatientAttributeType.setUuid(EmrApiConstants.TEST_PATIENT_ATTRIBUTE_UUID);
+        Context.getPersonService().savePersonAttributeType(testPatientAttributeType);
+
+        Map<EncounterRole, Set<Provider>> providers = new HashMap<EncounterRole, Set<Provider>>();
+        providers.put(Context.getEncounterService().getEncounterRole(1), Collections.singleton(Context.getProviderService().getProvider(1)));
+        Date twoHoursAgo = DateUtils.addHours(new Date(), -2);
+        Date oneHourAgo = DateUtils.addHours(new Date(), -1);
+
+        // still admitted to ward A
+        Visit admitted = service.ensureActiveVisit(patientService.getPatient(7), visitLocation);
+        admitted.setStartDatetime(DateUtils.addHours(twoHoursAgo, -1));
+        AdtAction admission = new AdtAction(admitted, wardA, providers, ADMISSION);
+        admission.setActionDatetime(twoHoursAgo);
+        service.createAdtEncounterFor(admission);
+
+        // admitted to ward A, then discharged
+        Visit discharged = service.ensureActiveVisit(patientService.getPatient(8), visitLocation);
+        discharged.setStartDatetime(DateUtils.addHours(twoHoursAgo, -1));
+        admission = new AdtAction(discharged, wardA, providers, ADMISSION);
+        admission.setActionDatetime(twoHoursAgo);
+        service.createAdtEncounterFor(admission);
+        AdtAction discharge = new AdtAction(discharged, wardA, providers, DISCHARGE);
+        discharge.setActionDatetime(oneHourAgo);
+        service.createAdtEncounterFor(discharge);
+
+        // a test patient admitted to ward B
+        Patient testPatient = patientService.getPatient(6);
+        testPatient.addAttribute(new PersonAttribute(testPatientAttributeType, "true"));
+        Context.getPersonService().savePerson(testPatient);
+        Visit testPatientVisit = service.ensureActiveVisit(testPatient, visitLocation);
+        testPatientVisit.setStartDatetime(DateUtils.addHours(twoHoursAgo, -1));
+        admission = new AdtAction(testPatientVisit, wardB, providers, ADMISSION);
+        admission.setActionDatetime(twoHoursAgo);
+        service.createAdtEncounterFor(admission);
+
+        List<VisitDomainWrapper> census = service.getInpatientVisits(visitLocation, null);
+        assertThat(census.size(), is(1));
+        assertThat(census.get(0).getVisit(), is(admitted));
+        assertThat(service.getCountOfInpatientVisits(visitLocation, null), is(1L));
+
+        assertThat(service.getInpatientVisits(visitLocation, wardA).size(), is(1));
+        assertThat(service.getInpatientVisits(visitLocation, wardB).size(), is(0));
+
+        assertThat(service.getInpatientVisits(visitLocation, null, 0, 1).size(), is(1));
+        assertThat(service.getInpatientVisits(visitLocation, null, 1, 1).size(), is(0));
+    }
+
+    @Test
+    public void test_activeVisitsShouldExcludeTestPatients() throws Exception {
+        ContextSensitiveMetadataTestUtils.setupSupportsVisitLocationTag(locationService);
+
+        Location visitLocation = locationService.getLocation(2);
+        visitLocation.addTag(emrApiProperties.getSupportsVisitsLocationTag());
+        locationService.saveLocation(visitLocation);
+
+        PersonAttributeType testPatientAttributeType = new PersonAttributeType();
+        testPatientAttributeType.setName("Test Patient");
+        testPatientAttributeType.setFormat("java.lang.Boolean");
+        testPatientAttributeType.setUuid(EmrApiConstants.TEST_PATIENT_ATTRIBUTE_UUID);
+        Context.getPersonService().savePersonAttributeType(testPatientAttributeType);
+
+        Visit realPatientVisit = service.ensureActiveVisit(patientService.getPatient(7), visitLocation);
+
+        Patient testPatient = patientService.getPatient(8);
+        testPatient.addAttribute(new PersonAttribute(testPatientAttributeType, "true"));
+        Context.getPersonService().savePerson(testPatient);
+        service.ensureActiveVisit(testPatient, visitLocation);
+
+        List<Visit> active = new ArrayList<Visit>();
+        for (VisitDomainWrapper visit : service.getActiveVisits(visitLocation)) {
+            assertThat(visit.getVisit().getPatient(), not(testPatient));
+            active.add(visit.getVisit());
+        }
+        assertTrue(active.contains(realPatientVisit));
+    }
+
     @Test
     public void integrationTest_createRetrospectiveVisit() throws Exception {
 
@@ -368,6 +665,39 @@ public class AdtServiceComponentTest extends BaseModuleContextSensitiveTest {
 
     }
 
+    @Test
+    public void test_activeVisitLookupOnlyConsidersVisitsOpenNowAtTheLocationOrItsAncestors() throws Exception {
+        ContextSensitiveMetadataTestUtils.setupSupportsVisitLocationTag(locationService);
+
+        Location parentLocation = locationService.getLocation(2);
+        parentLocation.addTag(emrApiProperties.getSupportsVisitsLocationTag());
+        locationService.saveLocation(parentLocation);
+
+        Location outpatientDepartment = new Location();
+        outpatientDepartment.setName("Outpatient Clinic in Xanadu");
+        outpatientDepartment.setParentLocation(parentLocation);
+        locationService.saveLocation(outpatientDepartment);
+
+        Patient patient = Context.getPatientService().getPatient(7);
+        Date now = new Date();
+
+        Visit closedVisit = new Visit(patient, visitService.getVisitType(1), DateUtils.addDays(now, -3));
+        closedVisit.setLocation(parentLocation);
+        closedVisit.setStopDatetime(DateUtils.addDays(now, -2));
+        visitService.saveVisit(closedVisit);
+
+        Visit visitElsewhere = new Visit(patient, visitService.getVisitType(1), DateUtils.addHours(now, -1));
+        visitElsewhere.setLocation(locationService.getLocation(1));
+        visitService.saveVisit(visitElsewhere);
+
+        assertNull(service.getActiveVisit(patient, outpatientDepartment));
+
+        Visit activeVisit = service.ensureActiveVisit(patient, outpatientDepartment);
+        assertThat(activeVisit.getLocation(), is(parentLocation));
+        assertThat(service.getActiveVisit(patient, outpatientDepartment).getVisit(), is(activeVisit));
+        assertThat(service.ensureVisit(patient, DateUtils.addHours(now, -60), outpatientDepartment), is(closedVisit));
+    }
+
     @Test
     public void test_MergePatientsWithOverlappingVisits() throws Exception {
 
@@ -385,6 +715,85 @@ public class AdtServiceComponentTest extends BaseModuleContextSensitiveTest {
         assertThat(CollectionUtils.select(encounters, NON_VOIDED).size(), is(2));
     }
 
+    @Test
+    public void test_mergeVisitsShouldMoveEncountersAndTheirObsToThePreferredVisitAndPatient() throws Exception {
+
+        Visit preferred = visitService.getVisit(1001);
+        Visit notPreferred = visitService.getVisit(1002);
+
+        Encounter encounter = encounterService.getEncounter(1002);
+        Obs obs = new Obs(encounter.getPatient(), conceptService.getConcept(5089), encounter.getEncounterDatetime(), encounter.getLocation());
+        obs.setValueNumeric(70d);
+        encounter.addObs(obs);
+        encounterService.saveEncounter(encounter);
+
+        service.mergeVisits(preferred, notPreferred);
+        Context.flushSession();
+        Context.clearSession();
+
+        encounter = encounterService.getEncounter(1002);
+        assertThat(encounter.getVisit().getVisitId(), is(1001));
+        assertThat(encounter.getPatient().getPatientId(), is(7));
+        assertThat(encounter.getChangedBy(), is(Context.getAuthenticatedUser()));
+        for (Obs moved : encounter.getAllObs(true)) {
+            assertThat(moved.getPerson().getPersonId(), is(7));
+        }
+
+        preferred = visitService.getVisit(1001);
+        assertThat(CollectionUtils.select(preferred.getEncounters(), NON_VOIDED).size(), is(2));
+        assertThat(preferred.getStopDatetime().getTime(), is(new DateTime(2013, 4, 10, 0, 0, 0).getMillis()));
+        assertTrue(visitService.getVisit(1002).isVoided());
+    }
+
+    @Test
+    public void test_mergeVisitsShouldKeepTheExtendedDateRangeOfAVisitThatIsNotInTheSession() throws Exception {
+
+        Visit preferred = visitService.getVisit(1001);
+        Visit notPreferred = visitService.getVisit(1002);
+        Date laterStop = notPreferred.getStopDatetime();
+        assertTrue(laterStop.after(preferred.getStopDatetime()));
+        Context.evictFromSession(preferred);
+        Context.evictFromSession(notPreferred);
+
+        Visit merged = service.mergeVisits(preferred, notPreferred);
+        assertThat(merged.getStopDatetime().getTime(), is(laterStop.getTime()));
+        Context.flushSession();
+        Context.clearSession();
+
+        preferred = visitService.getVisit(1001);
+        assertThat(preferred.getStartDatetime().getTime(), is(new DateTime(2013, 4, 1, 0, 0, 0).getMillis()));
+        assertThat(preferred.getStopDatetime().getTime(), is(laterStop.getTime()));
+        assertThat(CollectionUtils.select(preferred.getEncounters(), NON_VOIDED).size(), is(2));
+    }
+
+    @Test
+    public void test_mergeConsecutiveVisitsShouldOnlyMergeVisitsThatAreNextToEachOther() throws Exception {
+        Patient patient = patientService.getPatient(7);
+        Date now = new Date();
+        Visit older = saveVisit(patient, DateUtils.addDays(now, -5), DateUtils.addDays(now, -4));
+        Visit newer = saveVisit(patient, DateUtils.addDays(now, -3), DateUtils.addDays(now, -2));
+        Visit newest = saveVisit(patient, DateUtils.addDays(now, -1), null);
+
+        // consecutive in the order of VisitService.getVisitsByPatient, i.e. most recent first
+        assertNull(service.mergeConsecutiveVisits(Arrays.asList(newest.getVisitId(), older.getVisitId()), patient));
+        assertNull(service.mergeConsecutiveVisits(Arrays.asList(older.getVisitId(), newer.getVisitId()), patient));
+
+        Visit merged = service.mergeConsecutiveVisits(Arrays.asList(newer.getVisitId(), older.getVisitId()), patient);
+        Context.flushSession();
+
+        assertThat(merged.getVisitId(), is(newer.getVisitId()));
+        assertThat(merged.getStartDatetime().getTime(), is(older.getStartDatetime().getTime()));
+        assertTrue(visitService.getVisit(older.getVisitId()).isVoided());
+        assertFalse(visitService.getVisit(newest.getVisitId()).isVoided());
+    }
+
+    private Visit saveVisit(Patient patient, Date start, Date stop) {
+        Visit visit = new Visit(patient, visitService.getAllVisitTypes().get(0), start);
+        visit.setLocation(locationService.getLocation(1));
+        visit.setStopDatetime(stop);
+        return visitService.saveVisit(visit);
+    }
+
     @Test
     public void test_shouldCloseActiveVisits() throws Exception {
 
@@ -418,6 +827,36 @@ public class AdtServiceComponentTest extends BaseModuleContextSensitiveTest {
     }
 
 
+    @Test
+    public void test_shouldCloseActiveVisitsInBatches() throws Exception {
+
+        ContextSensitiveMetadataTestUtils.setupDispositionDescriptor(conceptService, dispositionService);
+        ContextSensitiveMetadataTestUtils.setupAdmissionDecisionConcept(conceptService, emrApiProperties);
+        ContextSensitiveMetadataTestUtils.setupSupportsVisitLocationTag(locationService);
+
+        Location location = locationService.getLocation(1);
+        location.addTag(emrApiProperties.getSupportsVisitsLocationTag());
+        locationService.saveLocation(location);
+
+        // voided visits, and visits at locations that don't support visits, are never candidates
+        List<Integer> candidates = service.getVisitIdsToClose();
+        assertTrue(candidates.contains(1));
+        assertFalse(candidates.contains(6));
+
+        InactiveVisitCloser.Result result = new InactiveVisitCloser(service, 1).closeInactiveVisits();
+
+        assertThat(result.getCandidates(), is(candidates.size()));
+        assertThat(result.getFailedBatches(), is(0));
+
+        // same outcome as closeInactiveVisits()
+        assertThat(visitService.getVisit(1).getStopDatetime(), notNullValue());
+        assertThat(visitService.getVisit(2).getStopDatetime(), nullValue());
+        assertThat(visitService.getVisit(3).getStopDatetime(), nullValue());
+        assertThat(visitService.getVisit(4).getStopDatetime(), nullValue());
+        assertThat(visitService.getVisit(5).getStopDatetime(), nullValue());
+        assertThat(visitService.getVisit(6).getStopDatetime(), nullValue());
+    }
+
     @Test
     public void test_shouldNotCloseVisitIfMostRecentDispositionKeepsVisitOpen() throws Exception {
 
@@ -472,6 +911,46 @@ public class AdtServiceComponentTest extends BaseModuleContextSensitiveTest {
         assertNotNull(activeVisit);
     }
 
+    @Test
+    public void test_shouldNotSelectVisitToCloseIfMostRecentDispositionKeepsVisitOpen() throws Exception {
+
+        ContextSensitiveMetadataTestUtils.setupDispositionDescriptor(conceptService, dispositionService);
+        ContextSensitiveMetadataTestUtils.setupAdmissionDecisionConcept(conceptService, emrApiProperties);
+        ContextSensitiveMetadataTestUtils.setupSupportsVisitLocationTag(locationService);
+
+        Patient patient = patientService.getPatient(7);
+
+        Location location = locationService.getLocation(2);
+        location.addTag(emrApiProperties.getSupportsVisitsLocationTag());
+        locationService.saveLocation(location);
+
+        Visit visit = new Visit();
+        visit.setStartDatetime(DateUtils.addHours(new Date(), -14));
+        visit.setPatient(patient);
+        visit.setLocation(location);
+        visit.setVisitType(emrApiProperties.getAtFacilityVisitType());
+
+        Encounter encounter = new Encounter();
+        encounter.setPatient(patient);
+        encounter.setEncounterType(encounterService.getEncounterType(1));
+        encounter.setEncounterDatetime(visit.getStartDatetime());
+
+        Obs dispositionObsGroup = new Obs();
+        dispositionObsGroup.setConcept(dispositionService.getDispositionDescriptor().getDispositionSetConcept());
+        Obs dispositionObs = new Obs();
+        dispositionObs.setConcept(dispositionService.getDispositionDescriptor().getDispositionConcept());
+        dispositionObs.setValueCoded(emrConceptService.getConcept(EmrApiConstants.EMR_CONCEPT_SOURCE_NAME + ":ED Observation"));  // keepsVisitOpen in dispositionConfig.json
+        dispositionObsGroup.addGroupMember(dispositionObs);
+
+        encounter.addObs(dispositionObsGroup);
+        encounterService.saveEncounter(encounter);
+
+        visit.addEncounter(encounter);
+        visitService.saveVisit(visit);
+
+        assertFalse(service.getVisitIdsToClose().contains(visit.getVisitId()));
+    }
+
     @Test
     public void test_shouldNotCloseVisitOpenedInDifferentLocation() throws Exception {
         executeDataSet("visitLocationDataSetup.xml");
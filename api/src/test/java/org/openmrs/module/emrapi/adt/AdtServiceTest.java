@@ -114,6 +114,7 @@ public class AdtServiceTest {
     private DispositionService mockDispositionService;
     private VisitQueryService mockVisitQueryService;
     private DomainWrapperFactory mockDomainWrapperFactory;
+    private AdtDAO mockAdtDAO;
     private EmrApiProperties emrApiProperties;
 
     private Person personForCurrentUser;
@@ -158,6 +159,7 @@ public class AdtServiceTest {
         mockVisitQueryService = mock(VisitQueryService.class);
 
         mockDomainWrapperFactory = new MockDomainWrapperFactory();
+        mockAdtDAO = mock(AdtDAO.class);
 
         checkInClerkEncounterRole = new EncounterRole();
         checkInEncounterType = new EncounterType();
@@ -211,6 +213,11 @@ public class AdtServiceTest {
         service.setProviderService(mockProviderService);
         service.setEmrApiProperties(emrApiProperties);
         service.setDomainWrapperFactory(mockDomainWrapperFactory);
+        service.setDispositionService(mockDispositionService);
+        service.setVisitQueryService(mockVisitQueryService);
+        service.setPatientStatisticsDAO(mock(PatientStatisticsDAO.class));
+        service.setDao(mockAdtDAO);
+        service.setLocationTreeIndex(new LocationTreeIndex());
         this.service = service;
     }
 
@@ -218,7 +225,7 @@ public class AdtServiceTest {
     public void testEnsureActiveVisitCreatesNewVisit() throws Exception {
         final Patient patient = new Patient();
 
-        when(mockVisitService.getVisitsByPatient(patient)).thenReturn(new ArrayList<Visit>());
+        when(mockAdtDAO.getVisitsOpenAt(eq(patient), anyCollection(), any(Date.class))).thenReturn(new ArrayList<Visit>());
 
         service.ensureActiveVisit(patient, outpatientDepartment);
 
@@ -243,7 +250,8 @@ public class AdtServiceTest {
         recentVisit.setLocation(mirebalaisHospital);
         recentVisit.setStartDatetime(DateUtils.addHours(new Date(), -1));
 
-        when(mockVisitService.getVisitsByPatient(patient)).thenReturn(Collections.singletonList(recentVisit));
+        when(mockAdtDAO.getVisitsOpenAt(eq(patient), eq(Arrays.asList(outpatientDepartment, mirebalaisHospital)), any(Date.class)))
+                .thenReturn(Collections.singletonList(recentVisit));
 
         assertThat(service.ensureActiveVisit(patient, outpatientDepartment), is(recentVisit));
 
@@ -259,7 +267,8 @@ public class AdtServiceTest {
         oldVisit.setStartDatetime(DateUtils.addDays(new Date(), -10));
         oldVisit.setStopDatetime(DateUtils.addDays(new Date(), -9));
 
-        when(mockVisitService.getVisitsByPatient(patient)).thenReturn(Collections.singletonList(oldVisit));
+        // the old visit is not open now, so it is not returned
+        when(mockAdtDAO.getVisitsOpenAt(eq(patient), anyCollection(), any(Date.class))).thenReturn(new ArrayList<Visit>());
 
         final Visit created = service.ensureActiveVisit(patient, outpatientDepartment);
         assertNotNull(created);
@@ -331,24 +340,24 @@ public class AdtServiceTest {
         Visit visit1 = buildVisit(patient, visitType, mirebalaisHospital, tenDaysAgo, nineDaysAgo);
         visit1.setId(new Integer(index++));
         Visit visit2 = buildVisit(patient, visitType, mirebalaisHospital, eightDaysAgo, sixDaysAgo);
-        when(mockVisitService.getVisit(index)).thenReturn(visit2);
         visit2.setId(new Integer(index++));
         Visit visit3 = buildVisit(patient, visitType, mirebalaisHospital, fiveDaysAgo, threeDaysAgo);
-        when(mockVisitService.getVisit(index)).thenReturn(visit3);
         visit3.setId(new Integer(index++));
         Visit visit4 = buildVisit(patient, visitType, mirebalaisHospital, oneDayAgo, null);
         visit4.setId(new Integer(index++));
 
-        when(mockVisitService.getVisitsByPatient(patient, true, false)).thenReturn(Arrays.asList(visit1, visit2, visit3, visit4));
+        when(mockAdtDAO.getVisitIdsByPatient(patient)).thenReturn(Arrays.asList(visit1.getId(), visit2.getId(), visit3.getId(), visit4.getId()));
         List<Integer> consecutiveVisits =  new ArrayList<Integer>();
         consecutiveVisits.add(visit2.getId());
         consecutiveVisits.add(visit3.getId());
+        when(mockAdtDAO.getVisitsByIds(consecutiveVisits)).thenReturn(Arrays.asList(visit3, visit2));
 
         boolean areConsecutive = service.areConsecutiveVisits(consecutiveVisits, patient);
         assertTrue(areConsecutive);
         Visit mergedVisit = service.mergeConsecutiveVisits(consecutiveVisits, patient);
         assertSame(mergedVisit, visit2);
         assertThat(mergedVisit.getStopDatetime(), is(visit3.getStopDatetime()));
+        verify(mockVisitService, never()).getVisitsByPatient(patient, true, false);
     }
 
 
@@ -380,7 +389,7 @@ public class AdtServiceTest {
         Visit visit4 = buildVisit(patient, visitType, mirebalaisHospital, oneDayAgo, null);
         visit4.setId(new Integer(index++));
 
-        when(mockVisitService.getVisitsByPatient(patient, true, false)).thenReturn(Arrays.asList(visit1, visit2, visit3, visit4));
+        when(mockAdtDAO.getVisitIdsByPatient(patient)).thenReturn(Arrays.asList(visit1.getId(), visit2.getId(), visit3.getId(), visit4.getId()));
         List<Integer> consecutiveVisits =  new ArrayList<Integer>();
         consecutiveVisits.add(visit2.getId());
         boolean areConsecutive = service.areConsecutiveVisits(consecutiveVisits, patient);
@@ -421,8 +430,8 @@ public class AdtServiceTest {
         Visit visit3 = buildVisit(patient, visitType, mirebalaisHospital, fiveDaysAgo, threeDaysAgo);
         Visit visit4 = buildVisit(patient, visitType, mirebalaisHospital, oneDayAgo, null);
 
-        when(mockVisitService.getVisits(null, Collections.singletonList(patient), null, null, null,
-                sevenDaysAgo, null, null, null, true, false)).thenReturn(Collections.singletonList(visit2));
+        when(mockAdtDAO.getVisitsOpenAt(patient, Collections.singletonList(mirebalaisHospital), sevenDaysAgo))
+                .thenReturn(Collections.singletonList(visit2));
 
         Visit foundVisit = service.ensureVisit(patient, sevenDaysAgo, mirebalaisHospital);
         assertNotNull(foundVisit);
@@ -449,8 +458,8 @@ public class AdtServiceTest {
         Visit visit3 = buildVisit(patient, visitType, mirebalaisHospital, fiveDaysAgo, threeDaysAgo);
         //Visit visit4 = buildVisit(patient, visitType, mirebalaisHospital, oneDayAgo, null);
 
-        when(mockVisitService.getVisits(null, Collections.singletonList(patient), null, null, null,
-                oneDayAgo, null, null, null, true, false)).thenReturn(null);
+        when(mockAdtDAO.getVisitsOpenAt(patient, Collections.singletonList(mirebalaisHospital), oneDayAgo))
+                .thenReturn(new ArrayList<Visit>());
 
         Visit foundVisit = service.ensureVisit(patient, oneDayAgo, mirebalaisHospital);
         assertNotNull(foundVisit);
@@ -461,7 +470,7 @@ public class AdtServiceTest {
     public void test_checkInPatient_forNewVisit() throws Exception {
         final Patient patient = new Patient();
 
-        when(mockVisitService.getVisitsByPatient(patient)).thenReturn(new ArrayList<Visit>());
+        when(mockAdtDAO.getVisitsOpenAt(eq(patient), anyCollection(), any(Date.class))).thenReturn(new ArrayList<Visit>());
 
         service.checkInPatient(patient, outpatientDepartment, null, null, null, false);
 
@@ -492,6 +501,18 @@ public class AdtServiceTest {
         }));
     }
 
+    @Test
+    public void test_checkInPatient_locksPatientInDatabaseOnlyIfConfigured() throws Exception {
+        Patient patient = new Patient();
+
+        service.checkInPatient(patient, outpatientDepartment, null, null, null, false);
+        verify(mockAdtDAO, never()).lockPatient(patient);
+
+        when(emrApiProperties.getLockCheckInInDatabase()).thenReturn(true);
+        service.checkInPatient(patient, outpatientDepartment, null, null, null, false);
+        verify(mockAdtDAO).lockPatient(patient);
+    }
+
     @SuppressWarnings({"unchecked"})
     @Test
     public void shouldGetAllVisitSummariesOfAllActiveVisit() throws Exception {
@@ -508,10 +529,7 @@ public class AdtServiceTest {
         expectedLocations.add(outpatientDepartment);
         expectedLocations.add(inpatientDepartment);
 
-        when(
-                mockVisitService.getVisits(any(Collection.class), any(Collection.class), eq(expectedLocations),
-                        any(Collection.class), any(Date.class), any(Date.class), any(Date.class), any(Date.class), any(Map.class),
-                        eq(false), eq(false))).thenReturn(Arrays.asList(visit1, visit2));
+        when(mockAdtDAO.getActiveVisits(eq(expectedLocations), any(PersonAttributeType.class))).thenReturn(Arrays.asList(visit1, visit2));
 
         List<VisitDomainWrapper> activeVisitSummaries = service.getActiveVisits(mirebalaisHospital);
 
@@ -41,10 +41,13 @@ import java.util.GregorianCalendar;
 import java.util.Map;
 
 import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
 import static org.hamcrest.collection.IsIterableContainingInOrder.contains;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyBoolean;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 public class EmrApiVisitAssignmentHandlerTest {
@@ -69,7 +72,9 @@ public class EmrApiVisitAssignmentHandlerTest {
         visitService = mock(VisitService.class);
         adminService = mock(AdministrationService.class);
         emrApiProperties = mock(EmrApiProperties.class);
-        adtService = new AdtServiceImpl();
+        AdtServiceImpl adtServiceImpl = new AdtServiceImpl();
+        adtServiceImpl.setLocationTreeIndex(new LocationTreeIndex());
+        adtService = adtServiceImpl;
         
         handler.setVisitService(visitService);
         handler.setAdtService(adtService);
@@ -148,6 +153,97 @@ public class EmrApiVisitAssignmentHandlerTest {
         Assert.assertThat(encounter.getEncounterDatetime(), is(encounterDatetime));
     }
     
+    @Test
+    public void testOnlyLooksForVisitsThatCouldContainTheEncounter() throws Exception {
+        Patient patient = new Patient();
+        Location hospital = new Location();
+        Location ward = new Location();
+        ward.setParentLocation(hospital);
+
+        Date encounterDatetime = new DateTime(2014, 2, 3, 10, 30, 0, 0).toDate();
+        Encounter encounter = new Encounter();
+        encounter.setPatient(patient);
+        encounter.setLocation(ward);
+        encounter.setEncounterDatetime(encounterDatetime);
+
+        handler.beforeCreateEncounter(encounter);
+
+        verify(visitService).getVisits(null, Collections.singletonList(patient), Arrays.asList(ward, hospital), null, null,
+                new DateTime(2014, 2, 3, 23, 59, 59, 999).toDate(), new DateTime(2014, 2, 3, 0, 0, 0, 0).toDate(), null, null,
+                true, false);
+    }
+
+    @Test
+    public void testAssigningVisitsToABatchOfEncountersWithOneQuery() throws Exception {
+        Patient patient = new Patient();
+        Patient otherPatient = new Patient();
+        Location location = new Location();
+
+        Visit visit = new Visit();
+        visit.setPatient(patient);
+        visit.setStartDatetime(new DateTime(2014, 2, 3, 8, 0, 0, 0).toDate());
+        visit.setStopDatetime(new DateTime(2014, 2, 3, 18, 0, 0, 0).toDate());
+        visit.setLocation(location);
+
+        Visit otherVisit = new Visit();
+        otherVisit.setPatient(otherPatient);
+        otherVisit.setStartDatetime(new DateTime(2014, 2, 3, 8, 0, 0, 0).toDate());
+        otherVisit.setLocation(location);
+
+        when(
+                visitService.getVisits(any(Collection.class), any(Collection.class), any(Collection.class),
+                        any(Collection.class), any(Date.class), any(Date.class), any(Date.class), any(Date.class), any(Map.class),
+                        anyBoolean(), anyBoolean())).thenReturn(Arrays.asList(otherVisit, visit));
+
+        Encounter first = encounter(patient, location, new DateTime(2014, 2, 3, 10, 0, 0, 0).toDate());
+        Encounter second = encounter(otherPatient, location, new DateTime(2014, 2, 4, 10, 0, 0, 0).toDate());
+        Encounter notInAnyVisit = encounter(patient, location, new DateTime(2014, 2, 5, 10, 0, 0, 0).toDate());
+
+        handler.beforeCreateEncounters(Arrays.asList(first, second, notInAnyVisit));
+
+        Assert.assertThat(first.getVisit(), is(visit));
+        Assert.assertThat(second.getVisit(), is(otherVisit));
+        Assert.assertNull(notInAnyVisit.getVisit());
+        verify(visitService, times(1)).getVisits(null, Arrays.asList(patient, otherPatient), Collections.singletonList(location),
+                null, null, new DateTime(2014, 2, 5, 23, 59, 59, 999).toDate(), new DateTime(2014, 2, 3, 0, 0, 0, 0).toDate(),
+                null, null, true, false);
+    }
+
+    @Test
+    public void testReusingAVisitCreatedEarlierInTheBatch() throws Exception {
+        Patient patient = new Patient();
+        Location location = new Location();
+        location.addTag(new LocationTag(EmrApiConstants.LOCATION_TAG_SUPPORTS_VISITS, "Tag that supports visits"));
+
+        VisitType visitType = new VisitType();
+        visitType.setId(1);
+        when(adminService.getGlobalProperty(EmrApiConstants.GP_VISIT_ASSIGNMENT_HANDLER_ENCOUNTER_TYPE_TO_VISIT_TYPE_MAP)).thenReturn("default:1");
+        when(visitService.getVisitType(1)).thenReturn(visitType);
+
+        Encounter first = encounter(patient, location, new DateTime(2014, 2, 3, 10, 0, 0, 0).toDate());
+        Encounter sameDay = encounter(patient, location, new DateTime(2014, 2, 3, 11, 0, 0, 0).toDate());
+        Encounter nextDay = encounter(patient, location, new DateTime(2014, 2, 4, 10, 0, 0, 0).toDate());
+
+        handler.beforeCreateEncounters(Arrays.asList(first, sameDay, nextDay));
+
+        Visit created = first.getVisit();
+        Assert.assertNotNull(created);
+        Assert.assertThat(created.getVisitType(), is(visitType));
+        Assert.assertThat(created.getStopDatetime(), is(new DateTime(2014, 2, 3, 23, 59, 59, 999).toDate()));
+        Assert.assertThat(sameDay.getVisit(), is(created));
+        Assert.assertNotNull(nextDay.getVisit());
+        Assert.assertThat(nextDay.getVisit(), not(created));
+    }
+
+    private Encounter encounter(Patient patient, Location location, Date encounterDatetime) {
+        Encounter encounter = new Encounter();
+        encounter.setPatient(patient);
+        encounter.setLocation(location);
+        encounter.setEncounterDatetime(encounterDatetime);
+        encounter.setEncounterType(encounterType);
+        return encounter;
+    }
+
     @Test
     public void testAssigningANewVisitWhenOneDoesNotExistWithSpecifiedGlobalPropertyForCurrentVisitStartingToday() {
         Patient patient = new Patient();
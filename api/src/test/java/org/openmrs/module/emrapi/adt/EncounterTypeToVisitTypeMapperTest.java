@@ -1,12 +1,15 @@
 package org.openmrs.module.emrapi.adt;
 
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.openmrs.EncounterType;
+import org.openmrs.GlobalProperty;
 import org.openmrs.VisitType;
 import org.openmrs.api.AdministrationService;
 import org.openmrs.api.EncounterService;
@@ -164,4 +167,36 @@ public class EncounterTypeToVisitTypeMapperTest extends BaseModuleContextSensiti
 		Assert.assertEquals("759799ab-c9a5-435e-b671-77773ada74e4",visitType.getUuid());
 	}
 	
+	@Test
+	public void testMappingIsOnlyParsedOnceButVisitTypesAreLoadedEachTime() {
+		when(adminService.getGlobalProperty(EmrApiConstants.GP_VISIT_ASSIGNMENT_HANDLER_ENCOUNTER_TYPE_TO_VISIT_TYPE_MAP)).thenReturn("default:1,2:759799ab-c9a5-435e-b671-77773ada74e4");
+		
+		for (int i = 0; i < 3; i++) {
+			Assert.assertEquals(1, encounterTypetoVisitTypeMapper.getVisitTypeForEncounterType(encounterService.getEncounterType(1)).getId().longValue());
+			Assert.assertEquals(2, encounterTypetoVisitTypeMapper.getVisitTypeForEncounterType(encounterService.getEncounterType(2)).getId().longValue());
+		}
+		
+		verify(adminService, times(1)).getGlobalProperty(EmrApiConstants.GP_VISIT_ASSIGNMENT_HANDLER_ENCOUNTER_TYPE_TO_VISIT_TYPE_MAP);
+		verify(visitService, times(1)).getVisitTypeByUuid("759799ab-c9a5-435e-b671-77773ada74e4");
+		// by id, so that callers get the visit type from their own session
+		verify(visitService, times(3)).getVisitType(1);
+		verify(visitService, times(3)).getVisitType(2);
+	}
+	
+	@Test
+	public void testMappingIsRefreshedWhenTheGlobalPropertyChanges() {
+		String propertyName = EmrApiConstants.GP_VISIT_ASSIGNMENT_HANDLER_ENCOUNTER_TYPE_TO_VISIT_TYPE_MAP;
+		when(adminService.getGlobalProperty(propertyName)).thenReturn("default:1");
+		EncounterType e = encounterService.getEncounterType(2);
+		Assert.assertEquals(1, encounterTypetoVisitTypeMapper.getVisitTypeForEncounterType(e).getId().longValue());
+		
+		Assert.assertTrue(encounterTypetoVisitTypeMapper.supportsPropertyName(propertyName));
+		encounterTypetoVisitTypeMapper.globalPropertyChanged(new GlobalProperty(propertyName, "default:1,2:2"));
+		Assert.assertEquals(2, encounterTypetoVisitTypeMapper.getVisitTypeForEncounterType(e).getId().longValue());
+		
+		when(adminService.getGlobalProperty(propertyName)).thenReturn(null);
+		encounterTypetoVisitTypeMapper.globalPropertyDeleted(propertyName);
+		Assert.assertNull(encounterTypetoVisitTypeMapper.getVisitTypeForEncounterType(e));
+	}
+	
 }
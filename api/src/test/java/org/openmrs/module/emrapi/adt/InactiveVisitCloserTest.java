@@ -0,0 +1,74 @@
+package org.openmrs.module.emrapi.adt;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class InactiveVisitCloserTest {
+
+    private AdtService adtService;
+
+    @Before
+    public void setUp() {
+        adtService = mock(AdtService.class);
+    }
+
+    @Test
+    public void shouldCloseCandidatesInBatchesOfTheGivenSize() {
+        when(adtService.getVisitIdsToClose()).thenReturn(Arrays.asList(1, 2, 3, 4, 5));
+        when(adtService.closeInactiveVisits(Arrays.asList(1, 2))).thenReturn(2);
+        when(adtService.closeInactiveVisits(Arrays.asList(3, 4))).thenReturn(1);
+        when(adtService.closeInactiveVisits(Arrays.asList(5))).thenReturn(1);
+
+        InactiveVisitCloser.Result result = new InactiveVisitCloser(adtService, 2).closeInactiveVisits();
+
+        verify(adtService).closeInactiveVisits(Arrays.asList(1, 2));
+        verify(adtService).closeInactiveVisits(Arrays.asList(3, 4));
+        verify(adtService).closeInactiveVisits(Arrays.asList(5));
+        assertThat(result.getCandidates(), is(5));
+        assertThat(result.getClosed(), is(4));
+        assertThat(result.getBatchTimings().size(), is(3));
+        assertThat(result.getFailedBatches(), is(0));
+    }
+
+    @Test
+    public void shouldContinueWithNextBatchIfABatchFails() {
+        when(adtService.getVisitIdsToClose()).thenReturn(Arrays.asList(1, 2, 3));
+        when(adtService.closeInactiveVisits(Arrays.asList(1, 2))).thenThrow(new RuntimeException("failed"));
+        when(adtService.closeInactiveVisits(Arrays.asList(3))).thenReturn(1);
+
+        InactiveVisitCloser.Result result = new InactiveVisitCloser(adtService, 2).closeInactiveVisits();
+
+        assertThat(result.getClosed(), is(1));
+        assertThat(result.getFailedBatches(), is(1));
+        assertThat(result.getVisitsInFailedBatches(), is(2));
+        assertThat(result.getBatchTimings().size(), is(2));
+    }
+
+    @Test
+    public void shouldNotCloseAnythingIfThereAreNoCandidates() {
+        when(adtService.getVisitIdsToClose()).thenReturn(Collections.<Integer>emptyList());
+
+        InactiveVisitCloser.Result result = new InactiveVisitCloser(adtService, 10).closeInactiveVisits();
+
+        verify(adtService, never()).closeInactiveVisits(anyListOf(Integer.class));
+        assertThat(result.getCandidates(), is(0));
+        assertThat(result.getClosed(), is(0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldNotAllowBatchSizeLessThanOne() {
+        new InactiveVisitCloser(adtService, 0);
+    }
+
+}
@@ -0,0 +1,101 @@
+package org.openmrs.module.emrapi.adt;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.Location;
+import org.openmrs.api.LocationService;
+import org.openmrs.module.emrapi.EmrApiProperties;
+import org.openmrs.module.emrapi.test.ContextSensitiveMetadataTestUtils;
+import org.openmrs.test.BaseModuleContextSensitiveTest;
+import org.springframework.aop.framework.Advised;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.util.Set;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class LocationTreeIndexComponentTest extends BaseModuleContextSensitiveTest {
+
+    @Autowired
+    private LocationTreeIndex locationTreeIndex;
+
+    @Autowired
+    private LocationService locationService;
+
+    @Autowired
+    private EmrApiProperties emrApiProperties;
+
+    private Location visitLocation;
+
+    private Location department;
+
+    private Location ward;
+
+    @Before
+    public void setUp() throws Exception {
+        ContextSensitiveMetadataTestUtils.setupSupportsVisitLocationTag(locationService);
+
+        visitLocation = locationService.getLocation(2);
+        visitLocation.addTag(emrApiProperties.getSupportsVisitsLocationTag());
+        locationService.saveLocation(visitLocation);
+
+        department = new Location();
+        department.setName("Department in Xanadu");
+        department.setParentLocation(visitLocation);
+        locationService.saveLocation(department);
+
+        ward = new Location();
+        ward.setName("Ward in Xanadu");
+        ward.setParentLocation(department);
+        locationService.saveLocation(ward);
+    }
+
+    @Test
+    public void shouldAnswerHierarchyQuestionsFromTheIndex() {
+        assertThat(locationTreeIndex.getVisitLocation(ward), is(visitLocation));
+        assertThat(locationTreeIndex.getVisitLocation(visitLocation), is(visitLocation));
+        assertTrue(locationTreeIndex.isSameOrAncestor(visitLocation, ward));
+        assertTrue(locationTreeIndex.isSameOrAncestor(ward, ward));
+        assertFalse(locationTreeIndex.isSameOrAncestor(ward, visitLocation));
+
+        Set<Location> descendants = locationTreeIndex.getSelfAndDescendants(visitLocation);
+        assertTrue(descendants.contains(visitLocation));
+        assertTrue(descendants.contains(department));
+        assertTrue(descendants.contains(ward));
+
+        assertThat(locationTreeIndex.getSelfAndAncestors(ward).size(), is(3));
+    }
+
+    @Test
+    public void shouldSeeChangesMadeThroughTheLocationService() {
+        assertThat(locationTreeIndex.getVisitLocation(ward), is(visitLocation));
+
+        ward.setParentLocation(locationService.getLocation(1));
+        locationService.saveLocation(ward);
+
+        assertNull(locationTreeIndex.getVisitLocation(ward));
+        assertFalse(locationTreeIndex.isSameOrAncestor(visitLocation, ward));
+        assertFalse(locationTreeIndex.getSelfAndDescendants(visitLocation).contains(ward));
+    }
+
+    @Test
+    public void shouldLeaveTheLocationServiceAsItFoundItWhenRemovingItsAdvice() {
+        Advised advised = (Advised) locationService;
+        int advisors = advised.getAdvisors().length;
+
+        locationTreeIndex.removeInvalidationAdvice();
+        try {
+            assertThat(advised.getAdvisors().length, is(advisors - 1));
+        }
+        finally {
+            locationTreeIndex.registerInvalidationAdvice();
+        }
+        assertThat(advised.getAdvisors().length, is(advisors));
+        assertThat(locationTreeIndex.getVisitLocation(ward), is(visitLocation));
+    }
+
+}
@@ -0,0 +1,73 @@
+package org.openmrs.module.emrapi.adt;
+
+import org.junit.Test;
+import org.openmrs.Patient;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.Lock;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class PatientLocksTest {
+
+    private PatientLocks patientLocks = new PatientLocks();
+
+    @Test
+    public void shouldReturnTheSameLockForDifferentInstancesOfTheSamePatient() {
+        Patient patient = new Patient(7);
+        Patient samePatientFromAnotherSession = new Patient(7);
+        samePatientFromAnotherSession.setUuid(patient.getUuid());
+
+        assertSame(patientLocks.getLock(patient), patientLocks.getLock(samePatientFromAnotherSession));
+    }
+
+    @Test
+    public void shouldBlockTheSamePatientButNotADifferentOneWhileLocked() throws Exception {
+        final Patient patient = new Patient(7);
+        Patient otherPatient = new Patient(8);
+        while (patientLocks.getLock(otherPatient) == patientLocks.getLock(patient)) {
+            otherPatient = new Patient(8);
+        }
+        final Patient differentPatient = otherPatient;
+        assertNotSame(patientLocks.getLock(patient), patientLocks.getLock(differentPatient));
+
+        Lock lock = patientLocks.getLock(patient);
+        lock.lock();
+        try {
+            ExecutorService executorService = Executors.newSingleThreadExecutor();
+            try {
+                assertFalse(executorService.submit(tryLock(patient)).get());
+                assertTrue(executorService.submit(tryLock(differentPatient)).get());
+            } finally {
+                executorService.shutdown();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldNotAllowFewerThanOneStripe() {
+        new PatientLocks(0);
+    }
+
+    private Callable<Boolean> tryLock(final Patient patient) {
+        return new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                Lock lock = patientLocks.getLock(patient);
+                if (lock.tryLock()) {
+                    lock.unlock();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+}
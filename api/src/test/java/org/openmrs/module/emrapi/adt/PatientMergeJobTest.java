@@ -0,0 +1,101 @@
+package org.openmrs.module.emrapi.adt;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.Patient;
+import org.openmrs.api.PatientService;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class PatientMergeJobTest {
+
+    private AdtService adtService;
+
+    private PatientService patientService;
+
+    private Patient preferred;
+
+    private Patient notPreferred;
+
+    @Before
+    public void setUp() {
+        adtService = mock(AdtService.class);
+        patientService = mock(PatientService.class);
+        preferred = new Patient(1);
+        notPreferred = new Patient(2);
+        when(patientService.getPatient(1)).thenReturn(preferred);
+        when(patientService.getPatient(2)).thenReturn(notPreferred);
+    }
+
+    @Test
+    public void shouldRunEveryStepMergingVisitsInChunks() {
+        when(adtService.mergeOverlappingVisits(preferred, notPreferred, 2)).thenReturn(2, 2, 1);
+
+        PatientMergeJob job = new PatientMergeJob(1, 2, 3, 2);
+        job.run(adtService, patientService);
+
+        verify(adtService).startPatientMerge(preferred, notPreferred);
+        verify(adtService, times(3)).mergeOverlappingVisits(preferred, notPreferred, 2);
+        verify(adtService).finishPatientMerge(preferred, notPreferred);
+        assertThat(job.getStatus(), is(PatientMergeJob.Status.COMPLETED));
+        assertThat(job.getPhase(), is(PatientMergeJob.Phase.DONE));
+        assertThat(job.getVisitGroupsMerged(), is(5));
+        assertNotNull(job.getDateFinished());
+        assertThat(job.getRequestedBy(), is(3));
+    }
+
+    @Test
+    public void shouldResumeFromTheStepThatFailed() {
+        when(adtService.mergeOverlappingVisits(preferred, notPreferred, 2))
+                .thenReturn(2)
+                .thenThrow(new RuntimeException("deadlock"))
+                .thenReturn(1);
+
+        PatientMergeJob job = new PatientMergeJob(1, 2, 3, 2);
+        job.run(adtService, patientService);
+
+        assertThat(job.getStatus(), is(PatientMergeJob.Status.FAILED));
+        assertThat(job.getPhase(), is(PatientMergeJob.Phase.MERGING_VISITS));
+        assertThat(job.getVisitGroupsMerged(), is(2));
+        assertNotNull(job.getError());
+
+        job.requeue();
+        assertThat(job.getStatus(), is(PatientMergeJob.Status.QUEUED));
+        job.run(adtService, patientService);
+
+        verify(adtService, times(1)).startPatientMerge(preferred, notPreferred);
+        verify(adtService, times(3)).mergeOverlappingVisits(preferred, notPreferred, 2);
+        verify(adtService, times(1)).finishPatientMerge(preferred, notPreferred);
+        assertThat(job.getStatus(), is(PatientMergeJob.Status.COMPLETED));
+        assertThat(job.getVisitGroupsMerged(), is(3));
+        assertThat(job.getAttempts(), is(2));
+        assertNull(job.getError());
+    }
+
+    @Test
+    public void shouldNotMergeVisitsIfStartingFails() {
+        doThrow(new IllegalArgumentException("Cannot merge a permanent record into an unknown one"))
+                .when(adtService).startPatientMerge(preferred, notPreferred);
+
+        PatientMergeJob job = new PatientMergeJob(1, 2, 3, 2);
+        job.run(adtService, patientService);
+
+        verify(adtService, times(0)).mergeOverlappingVisits(preferred, notPreferred, 2);
+        assertThat(job.getStatus(), is(PatientMergeJob.Status.FAILED));
+        assertThat(job.getPhase(), is(PatientMergeJob.Phase.STARTING));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldOnlyResumeAFailedJob() {
+        new PatientMergeJob(1, 2, 3, 2).requeue();
+    }
+
+}
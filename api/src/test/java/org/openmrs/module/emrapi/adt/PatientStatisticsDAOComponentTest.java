@@ -0,0 +1,90 @@
+package org.openmrs.module.emrapi.adt;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.Encounter;
+import org.openmrs.Patient;
+import org.openmrs.api.EncounterService;
+import org.openmrs.api.PatientService;
+import org.openmrs.api.VisitService;
+import org.openmrs.test.BaseModuleContextSensitiveTest;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+
+public class PatientStatisticsDAOComponentTest extends BaseModuleContextSensitiveTest {
+
+    private static final List<Integer> PATIENT_IDS = Arrays.asList(2, 6, 7, 8);
+
+    @Autowired
+    private PatientStatisticsDAO patientStatisticsDAO;
+
+    @Autowired
+    private PatientService patientService;
+
+    @Autowired
+    private EncounterService encounterService;
+
+    @Autowired
+    private VisitService visitService;
+
+    @Before
+    public void setUp() throws Exception {
+        executeDataSet("baseTestDataset.xml");
+    }
+
+    @Test
+    public void shouldCountTheSameEncountersAndVisitsAsTheCoreServices() {
+        for (Integer patientId : PATIENT_IDS) {
+            Patient patient = patientService.getPatient(patientId);
+            assertThat(patientStatisticsDAO.getCountOfEncounters(patient), is(encounterService.getEncountersByPatient(patient).size()));
+            assertThat(patientStatisticsDAO.getCountOfVisits(patient), is(visitService.getVisitsByPatient(patient, true, false).size()));
+        }
+    }
+
+    @Test
+    public void shouldReturnAnEncounterAtTheLatestEncounterDatetime() {
+        for (Integer patientId : PATIENT_IDS) {
+            Patient patient = patientService.getPatient(patientId);
+            List<Encounter> encounters = encounterService.getEncountersByPatient(patient);
+            Encounter lastEncounter = patientStatisticsDAO.getLastEncounter(patient);
+            if (encounters.isEmpty()) {
+                assertThat(lastEncounter, nullValue());
+            } else {
+                assertThat(lastEncounter.getEncounterDatetime().getTime(),
+                        is(encounters.get(encounters.size() - 1).getEncounterDatetime().getTime()));
+            }
+        }
+    }
+
+    @Test
+    public void shouldReturnTheSameResultsInBatchAsForSinglePatients() {
+        Map<Integer, Encounter> lastEncounters = patientStatisticsDAO.getLastEncounters(PATIENT_IDS);
+        Map<Integer, Integer> encounterCounts = patientStatisticsDAO.getCountsOfEncounters(PATIENT_IDS);
+        Map<Integer, Integer> visitCounts = patientStatisticsDAO.getCountsOfVisits(PATIENT_IDS);
+
+        for (Integer patientId : PATIENT_IDS) {
+            Patient patient = patientService.getPatient(patientId);
+            assertThat(lastEncounters.get(patientId), is(patientStatisticsDAO.getLastEncounter(patient)));
+            assertThat(encounterCounts.get(patientId), is(patientStatisticsDAO.getCountOfEncounters(patient)));
+            assertThat(visitCounts.get(patientId), is(patientStatisticsDAO.getCountOfVisits(patient)));
+        }
+    }
+
+    @Test
+    public void shouldReturnZeroCountsAndNoLastEncounterForPatientsWithNoData() {
+        List<Integer> patientIds = Arrays.asList(987654);
+
+        assertThat(patientStatisticsDAO.getCountsOfEncounters(patientIds).get(987654), is(0));
+        assertThat(patientStatisticsDAO.getCountsOfVisits(patientIds).get(987654), is(0));
+        assertFalse(patientStatisticsDAO.getLastEncounters(patientIds).containsKey(987654));
+    }
+
+}
@@ -0,0 +1,109 @@
+package org.openmrs.module.emrapi.adt;
+
+import org.apache.commons.lang.time.DateUtils;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.Location;
+import org.openmrs.Visit;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+public class VisitOverlapsTest {
+
+    private VisitOverlaps visitOverlaps;
+
+    private Location hospital;
+
+    private Location ward;
+
+    private Location otherHospital;
+
+    private Date now;
+
+    @Before
+    public void setUp() {
+        visitOverlaps = new VisitOverlaps(new LocationTreeIndex());
+
+        hospital = new Location();
+        ward = new Location();
+        ward.setParentLocation(hospital);
+        otherHospital = new Location();
+
+        now = new Date();
+    }
+
+    @Test
+    public void shouldClusterChainsOfOverlappingVisits() {
+        //  first   |----|
+        //  second     |----|
+        //  third          |----|
+        //  fourth                  |--|
+        Visit first = visit(hospital, -12, -10);
+        Visit second = visit(ward, -11, -8);
+        Visit third = visit(hospital, -9, -7);
+        Visit fourth = visit(hospital, -5, -4);
+
+        List<List<Visit>> clusters = visitOverlaps.getClusters(Arrays.asList(third, fourth, first, second),
+                Arrays.asList(first, second, third, fourth));
+
+        assertThat(clusters.size(), is(1));
+        assertThat(clusters.get(0), contains(first, second, third));
+    }
+
+    @Test
+    public void shouldOnlyClusterOverlapsInvolvingAnAnchor() {
+        Visit anchor = visit(hospital, -12, -10);
+        Visit overlapsAnchor = visit(hospital, -11, -9);
+        Visit overlapsEachOther = visit(hospital, -5, -3);
+        Visit alsoOverlapsEachOther = visit(hospital, -4, null);
+
+        List<List<Visit>> clusters = visitOverlaps.getClusters(
+                Arrays.asList(anchor, overlapsAnchor, overlapsEachOther, alsoOverlapsEachOther), Collections.singletonList(anchor));
+
+        assertThat(clusters.size(), is(1));
+        assertThat(clusters.get(0), contains(anchor, overlapsAnchor));
+    }
+
+    @Test
+    public void shouldNotClusterVisitsAtUnrelatedLocations() {
+        Visit visit = visit(hospital, -12, -10);
+        Visit elsewhere = visit(otherHospital, -12, -10);
+        Visit nowhere = visit(null, -12, -10);
+
+        List<List<Visit>> clusters = visitOverlaps.getClusters(Arrays.asList(visit, elsewhere, nowhere),
+                Arrays.asList(visit, elsewhere, nowhere));
+
+        assertThat(clusters.size(), is(0));
+    }
+
+    @Test
+    public void shouldTellWhetherAnyVisitOverlapsAnyOtherVisit() {
+        List<Visit> mine = Arrays.asList(visit(hospital, -12, -10), visit(hospital, -9, -8));
+
+        assertThat(visitOverlaps.anyOverlap(mine, Arrays.asList(visit(ward, -8, null))), is(true));
+        assertThat(visitOverlaps.anyOverlap(mine, Arrays.asList(visit(ward, -7, null), visit(otherHospital, -12, -8))), is(false));
+    }
+
+    @Test
+    public void shouldNotCountVisitsInTheSameSetAsOverlappingTheOtherSet() {
+        List<Visit> mine = Arrays.asList(visit(hospital, -12, -10), visit(hospital, -11, -8));
+
+        assertThat(visitOverlaps.anyOverlap(mine, Arrays.asList(visit(hospital, -5, -4))), is(false));
+    }
+
+    private Visit visit(Location location, int startDays, Integer stopDays) {
+        Visit visit = new Visit();
+        visit.setLocation(location);
+        visit.setStartDatetime(DateUtils.addDays(now, startDays));
+        visit.setStopDatetime(stopDays == null ? null : DateUtils.addDays(now, stopDays));
+        return visit;
+    }
+
+}
@@ -0,0 +1,177 @@
+package org.openmrs.module.emrapi.adt.census;
+
+import org.apache.commons.lang.time.DateUtils;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.Encounter;
+import org.openmrs.EncounterRole;
+import org.openmrs.GlobalProperty;
+import org.openmrs.Location;
+import org.openmrs.PersonAttributeType;
+import org.openmrs.Provider;
+import org.openmrs.Visit;
+import org.openmrs.api.EncounterService;
+import org.openmrs.api.LocationService;
+import org.openmrs.api.PatientService;
+import org.openmrs.api.VisitService;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.emrapi.EmrApiConstants;
+import org.openmrs.module.emrapi.EmrApiProperties;
+import org.openmrs.module.emrapi.adt.AdtAction;
+import org.openmrs.module.emrapi.adt.AdtService;
+import org.openmrs.module.emrapi.test.ContextSensitiveMetadataTestUtils;
+import org.openmrs.test.BaseModuleContextSensitiveTest;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.openmrs.module.emrapi.adt.AdtAction.Type.ADMISSION;
+import static org.openmrs.module.emrapi.adt.AdtAction.Type.DISCHARGE;
+
+public class InpatientCensusComponentTest extends BaseModuleContextSensitiveTest {
+
+    @Autowired
+    private AdtService adtService;
+
+    @Autowired
+    private InpatientCensus inpatientCensus;
+
+    @Autowired
+    private InpatientCensusDAO inpatientCensusDAO;
+
+    @Autowired
+    private EmrApiProperties emrApiProperties;
+
+    @Autowired
+    private LocationService locationService;
+
+    @Autowired
+    private PatientService patientService;
+
+    @Autowired
+    private VisitService visitService;
+
+    @Autowired
+    private EncounterService encounterService;
+
+    private Location visitLocation;
+
+    private Location ward;
+
+    private Map<EncounterRole, Set<Provider>> providers;
+
+    private Date twoHoursAgo = DateUtils.addHours(new Date(), -2);
+
+    @Before
+    public void setUp() throws Exception {
+        executeDataSet("baseTestDataset.xml");
+        ContextSensitiveMetadataTestUtils.setupSupportsVisitLocationTag(locationService);
+
+        visitLocation = locationService.getLocation(2);
+        visitLocation.addTag(emrApiProperties.getSupportsVisitsLocationTag());
+        locationService.saveLocation(visitLocation);
+
+        ward = new Location();
+        ward.setName("Ward in Xanadu");
+        ward.setParentLocation(visitLocation);
+        locationService.saveLocation(ward);
+
+        PersonAttributeType testPatientAttributeType = new PersonAttributeType();
+        testPatientAttributeType.setName("Test Patient");
+        testPatientAttributeType.setFormat("java.lang.Boolean");
+        testPatientAttributeType.setUuid(EmrApiConstants.TEST_PATIENT_ATTRIBUTE_UUID);
+        Context.getPersonService().savePersonAttributeType(testPatientAttributeType);
+
+        providers = new HashMap<EncounterRole, Set<Provider>>();
+        providers.put(encounterService.getEncounterRole(1), Collections.singleton(Context.getProviderService().getProvider(1)));
+
+        Context.getAdministrationService().saveGlobalProperty(
+                new GlobalProperty(EmrApiConstants.GP_USE_INPATIENT_CENSUS_TABLE, "true"));
+    }
+
+    @Test
+    public void shouldKeepCensusUpToDateAsPatientsAreAdmittedAndDischarged() {
+        Visit visit = admit(7);
+
+        InpatientCensusRow row = inpatientCensusDAO.getRow(visit.getVisitId());
+        assertThat(row.getPatientId(), is(7));
+        assertThat(row.getWardId(), is(ward.getLocationId()));
+        assertThat(row.getAdmittedSince().getTime(), is(twoHoursAgo.getTime()));
+        assertThat(adtService.getInpatientVisits(visitLocation, ward).get(0).getVisit(), is(visit));
+        assertThat(adtService.getCountOfInpatientVisits(visitLocation, null), is(1L));
+
+        AdtAction discharge = new AdtAction(visit, ward, providers, DISCHARGE);
+        discharge.setActionDatetime(DateUtils.addHours(twoHoursAgo, 1));
+        Encounter dischargeEncounter = adtService.createAdtEncounterFor(discharge);
+
+        assertNull(inpatientCensusDAO.getRow(visit.getVisitId()));
+        assertThat(adtService.getCountOfInpatientVisits(visitLocation, null), is(0L));
+
+        encounterService.voidEncounter(dischargeEncounter, "entered in error");
+
+        assertThat(inpatientCensusDAO.getRow(visit.getVisitId()).getWardId(), is(ward.getLocationId()));
+        assertTrue(adtService.checkInpatientCensus().isConsistent());
+    }
+
+    @Test
+    public void shouldRemoveVisitFromCensusWhenItIsEnded() {
+        Visit visit = admit(7);
+
+        visitService.endVisit(visit, new Date());
+
+        assertNull(inpatientCensusDAO.getRow(visit.getVisitId()));
+    }
+
+    @Test
+    public void shouldStopMaintainingCensusOnceItsAdviceIsRemoved() {
+        inpatientCensus.removeMaintenanceAdvice();
+        try {
+            Visit visit = admit(7);
+
+            assertNull(inpatientCensusDAO.getRow(visit.getVisitId()));
+        }
+        finally {
+            inpatientCensus.registerMaintenanceAdvice();
+        }
+        assertThat(inpatientCensusDAO.getRow(admit(8).getVisitId()).getPatientId(), is(8));
+    }
+
+    @Test
+    public void shouldReportAndRepairDriftWithCheckAndRebuild() {
+        Visit first = admit(7);
+        Visit second = admit(8);
+
+        inpatientCensusDAO.deleteRow(first.getVisitId());
+        inpatientCensusDAO.saveRow(new InpatientCensusRow(second.getVisitId(), 8, visitLocation.getLocationId(), twoHoursAgo));
+
+        InpatientCensusCheck check = adtService.checkInpatientCensus();
+        assertFalse(check.isConsistent());
+        assertThat(check.getMissing().size(), is(1));
+        assertThat(check.getMissing().get(0).getVisitId(), is(first.getVisitId()));
+        assertThat(check.getMismatched().size(), is(1));
+        assertThat(check.getMismatched().get(0).getWardId(), is(ward.getLocationId()));
+        assertThat(check.getUnexpected().size(), is(0));
+
+        assertThat(adtService.rebuildInpatientCensus(), is(2));
+        assertTrue(adtService.checkInpatientCensus().isConsistent());
+    }
+
+    private Visit admit(Integer patientId) {
+        Visit visit = adtService.ensureActiveVisit(patientService.getPatient(patientId), visitLocation);
+        visit.setStartDatetime(DateUtils.addHours(twoHoursAgo, -1));
+        AdtAction admission = new AdtAction(visit, ward, providers, ADMISSION);
+        admission.setActionDatetime(twoHoursAgo);
+        adtService.createAdtEncounterFor(admission);
+        return visit;
+    }
+
+}
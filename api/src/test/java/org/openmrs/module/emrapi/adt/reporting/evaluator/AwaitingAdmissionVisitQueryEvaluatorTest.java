@@ -6,10 +6,14 @@ import org.junit.Test;
 import org.openmrs.Cohort;
 import org.openmrs.Location;
 import org.openmrs.Patient;
+import org.openmrs.PersonAttribute;
+import org.openmrs.PersonAttributeType;
 import org.openmrs.Visit;
 import org.openmrs.api.ConceptService;
 import org.openmrs.api.PatientService;
+import org.openmrs.api.context.Context;
 import org.openmrs.contrib.testdata.TestDataManager;
+import org.openmrs.contrib.testdata.builder.VisitBuilder;
 import org.openmrs.module.emrapi.EmrApiConstants;
 import org.openmrs.module.emrapi.EmrApiProperties;
 import org.openmrs.module.emrapi.adt.reporting.query.AwaitingAdmissionVisitQuery;
@@ -27,6 +31,8 @@ import org.springframework.beans.factory.annotation.Autowired;
 
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.Set;
 
 import static org.hamcrest.Matchers.is;
 import static org.junit.Assert.assertThat;
@@ -710,4 +716,104 @@ public class AwaitingAdmissionVisitQueryEvaluatorTest extends BaseModuleContextS
     }
 
 
+    @Test
+    public void shouldFindVisitAwaitingAdmissionEvenIfPatientIsATestPatient() throws Exception {
+
+        PersonAttributeType testPatientAttributeType = new PersonAttributeType();
+        testPatientAttributeType.setName("Test Patient");
+        testPatientAttributeType.setFormat("java.lang.Boolean");
+        testPatientAttributeType.setUuid(EmrApiConstants.TEST_PATIENT_ATTRIBUTE_UUID);
+        Context.getPersonService().savePersonAttributeType(testPatientAttributeType);
+
+        Patient patient = testDataManager.randomPatient().save();
+        patient.addAttribute(new PersonAttribute(testPatientAttributeType, "true"));
+        Context.getPersonService().savePerson(patient);
+
+        // a visit with a single visit note encounter with dispo = ADMIT
+        testDataManager.visit()
+                .patient(patient)
+                .visitType(emrApiProperties.getAtFacilityVisitType())
+                .started(new Date())
+                .encounter(testDataManager.encounter()
+                        .patient(patient)
+                        .encounterDatetime(new Date())
+                        .encounterType(emrApiProperties.getVisitNoteEncounterType())
+                        .obs(testDataManager.obs()
+                                .concept(dispositionDescriptor.getDispositionConcept())
+                                .value(emrConceptService.getConcept("org.openmrs.module.emrapi:Admit to hospital"))
+                                .get())
+                        .get())
+                .save();
+
+        // checks of whether a visit is awaiting admission (e.g. before closing it) must see test patients' visits too
+        VisitQueryResult result = visitQueryService.evaluate(query, null);
+        assertThat(result.getMemberIds().size(), is(1));
+
+    }
+
+    @Test
+    public void shouldGetSameResultsWithEitherStrategy() throws Exception {
+
+        // a mix of visits: awaiting admission, admitted, admission denied, and no disposition at all
+        int numberOfVisits = 8;
+        Set<Integer> expected = new HashSet<Integer>();
+        for (int i = 0; i < numberOfVisits; i++) {
+            Patient patient = testDataManager.randomPatient().save();
+            VisitBuilder visit = testDataManager.visit()
+                    .patient(patient)
+                    .visitType(emrApiProperties.getAtFacilityVisitType())
+                    .started(new DateTime(2014,10,10,9,0,0).toDate());
+
+            if (i % 4 != 3) {
+                visit.encounter(testDataManager.encounter()
+                        .patient(patient)
+                        .encounterDatetime(new DateTime(2014,10,10,10,0,0).toDate())
+                        .encounterType(emrApiProperties.getVisitNoteEncounterType())
+                        .obs(testDataManager.obs()
+                                .concept(dispositionDescriptor.getDispositionConcept())
+                                .value(emrConceptService.getConcept("org.openmrs.module.emrapi:Admit to hospital"))
+                                .get())
+                        .get());
+            }
+            if (i % 4 == 1) {
+                visit.encounter(testDataManager.encounter()
+                        .patient(patient)
+                        .encounterDatetime(new DateTime(2014,10,10,11,0,0).toDate())
+                        .encounterType(emrApiProperties.getAdmissionEncounterType())
+                        .get());
+            }
+            if (i % 4 == 2) {
+                visit.encounter(testDataManager.encounter()
+                        .patient(patient)
+                        .encounterDatetime(new DateTime(2014,10,10,11,0,0).toDate())
+                        .encounterType(emrApiProperties.getVisitNoteEncounterType())
+                        .obs(testDataManager.obs()
+                                .concept(emrApiProperties.getAdmissionDecisionConcept())
+                                .value(emrApiProperties.getDenyAdmissionConcept())
+                                .get())
+                        .get());
+            }
+
+            Visit saved = visit.save();
+            if (i % 4 == 0) {
+                expected.add(saved.getId());
+            }
+        }
+
+        Set<Integer> correlatedCount = evaluate(AwaitingAdmissionVisitQueryEvaluator.Strategy.CORRELATED_COUNT);
+        Set<Integer> notExists = evaluate(AwaitingAdmissionVisitQueryEvaluator.Strategy.NOT_EXISTS);
+
+        assertThat(correlatedCount, is(expected));
+        assertThat(notExists, is(expected));
+    }
+
+    /*
+     * Evaluates with an evaluator of its own using the given strategy (so the result is not served from a cache)
+     */
+    private Set<Integer> evaluate(AwaitingAdmissionVisitQueryEvaluator.Strategy strategy) throws Exception {
+        AwaitingAdmissionVisitQueryEvaluator evaluator = new AwaitingAdmissionVisitQueryEvaluator(strategy);
+        applicationContext.getAutowireCapableBeanFactory().autowireBean(evaluator);
+        return evaluator.evaluate(query, new VisitEvaluationContext()).getMemberIds();
+    }
+
 }
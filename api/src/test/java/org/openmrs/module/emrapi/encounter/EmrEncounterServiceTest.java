@@ -14,6 +14,7 @@ import org.openmrs.Patient;
 import org.openmrs.Provider;
 import org.openmrs.Visit;
 import org.openmrs.VisitType;
+import org.openmrs.api.APIException;
 import org.openmrs.api.AdministrationService;
 import org.openmrs.api.EncounterService;
 import org.openmrs.api.LocationService;
@@ -21,10 +22,12 @@ import org.openmrs.api.PatientService;
 import org.openmrs.api.ProviderService;
 import org.openmrs.api.VisitService;
 import org.openmrs.api.context.Context;
+import org.openmrs.module.emrapi.EmrApiConstants;
 import org.openmrs.module.emrapi.db.DbSessionDAO;
 import org.openmrs.module.emrapi.db.DbSessionUtil;
 import org.openmrs.module.emrapi.encounter.builder.EncounterBuilder;
 import org.openmrs.module.emrapi.encounter.domain.EncounterTransaction;
+import org.openmrs.module.emrapi.encounter.domain.EncounterTransactionSaveResult;
 import org.openmrs.module.emrapi.encounter.matcher.BaseEncounterMatcher;
 import org.openmrs.module.emrapi.encounter.postprocessor.EncounterTransactionHandler;
 import org.powermock.api.mockito.PowerMockito;
@@ -49,9 +52,11 @@ import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertThat;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Matchers.same;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -153,7 +158,54 @@ public class EmrEncounterServiceTest {
 
         emrEncounterService.save(encounterTransaction);
 
-        verify(orderService).save(same(drugOrders), any(Encounter.class));
+        verify(orderService).save(same(drugOrders), same(encounterTransaction.getOrders()), any(Encounter.class));
+        verify(orderService, never()).save(anyListOf(EncounterTransaction.DrugOrder.class), any(Encounter.class));
+        verify(orderService, never()).saveOrders(anyListOf(EncounterTransaction.Order.class), any(Encounter.class));
+    }
+
+    @Test
+    public void shouldLookUpWhatABatchOfEncounterTransactionsReferToOnlyOnce() {
+        List<EncounterTransaction> saved = emrEncounterService.saveBatch(
+                asList(constructEncounterTransaction(), constructEncounterTransaction(), constructEncounterTransaction()));
+
+        assertThat(saved.size(), is(3));
+        for (EncounterTransaction encounterTransaction : saved) {
+            assertEquals("visit-uuid", encounterTransaction.getVisitUuid());
+        }
+        verify(patientService, times(1)).getPatientByUuid("patient-uuid");
+        verify(visitService, times(1)).getVisitByUuid("visit-uuid");
+        verify(encounterService, times(1)).getEncounterTypeByUuid("encType-invsgtn-uuid");
+        verify(dbSessionDAO, times(1)).setManualFlushMode();
+    }
+
+    @Test
+    public void shouldSaveInBatchesAndIsolateFailures() {
+        EmrEncounterService proxy = mock(EmrEncounterService.class);
+        emrEncounterService.setEmrEncounterService(proxy);
+        when(administrationService.getGlobalProperty(EmrApiConstants.GP_ENCOUNTER_TRANSACTION_BATCH_SIZE)).thenReturn("2");
+
+        EncounterTransaction first = new EncounterTransaction();
+        EncounterTransaction second = new EncounterTransaction();
+        EncounterTransaction third = new EncounterTransaction();
+        EncounterTransaction savedFirst = new EncounterTransaction("visit-uuid", "first-uuid");
+        EncounterTransaction savedSecond = new EncounterTransaction("visit-uuid", "second-uuid");
+        EncounterTransaction savedThird = new EncounterTransaction("visit-uuid", "third-uuid");
+
+        when(proxy.saveBatch(asList(first, second))).thenThrow(new APIException("Concept not found"));
+        when(proxy.save(first)).thenReturn(savedFirst);
+        when(proxy.save(second)).thenThrow(new APIException("Concept not found"));
+        when(proxy.saveBatch(asList(third))).thenReturn(asList(savedThird));
+
+        List<EncounterTransactionSaveResult> results = emrEncounterService.saveAll(asList(first, second, third));
+
+        assertThat(results.size(), is(3));
+        assertThat(results.get(0).isSuccess(), is(true));
+        assertThat(results.get(0).getEncounterTransaction(), is(savedFirst));
+        assertThat(results.get(1).isSuccess(), is(false));
+        assertThat(results.get(1).getIndex(), is(1));
+        assertThat(results.get(1).getError(), is("Concept not found"));
+        assertThat(results.get(2).getEncounterTransaction(), is(savedThird));
+        verify(proxy, times(0)).save(third);
     }
 
     @Test
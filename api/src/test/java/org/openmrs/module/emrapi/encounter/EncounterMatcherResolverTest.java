@@ -0,0 +1,93 @@
+package org.openmrs.module.emrapi.encounter;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.Encounter;
+import org.openmrs.GlobalProperty;
+import org.openmrs.Visit;
+import org.openmrs.api.AdministrationService;
+import org.openmrs.module.emrapi.EmrApiConstants;
+import org.openmrs.module.emrapi.encounter.exception.EncounterMatcherNotFoundException;
+import org.openmrs.module.emrapi.encounter.matcher.BaseEncounterMatcher;
+import org.openmrs.module.emrapi.encounter.matcher.DefaultEncounterMatcher;
+
+import java.util.Collections;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class EncounterMatcherResolverTest {
+
+    private AdministrationService administrationService;
+
+    private BaseEncounterMatcher customMatcher;
+
+    private EncounterMatcherResolver resolver;
+
+    private Visit visit;
+
+    private EncounterParameters encounterParameters;
+
+    @Before
+    public void setUp() {
+        administrationService = mock(AdministrationService.class);
+        customMatcher = mock(BaseEncounterMatcher.class);
+        resolver = new EncounterMatcherResolver(administrationService);
+        resolver.setEncounterMatchers(Collections.singletonList(customMatcher));
+
+        visit = new Visit();
+        visit.setEncounters(Collections.<Encounter>emptySet());
+        encounterParameters = EncounterParameters.instance().setEncounterUuid("encounter-uuid");
+    }
+
+    @Test
+    public void shouldReadTheGlobalPropertyOnlyOnce() {
+        when(administrationService.getGlobalProperty(EmrApiConstants.GP_ENCOUNTER_MATCHER)).thenReturn(customMatcher.getClass().getCanonicalName());
+
+        resolver.findEncounter(visit, encounterParameters);
+        resolver.findEncounter(visit, encounterParameters);
+        resolver.findEncounter(visit, encounterParameters);
+
+        verify(administrationService, times(1)).getGlobalProperty(EmrApiConstants.GP_ENCOUNTER_MATCHER);
+        verify(customMatcher, times(3)).findEncounter(visit, encounterParameters);
+        assertThat(resolver.getMetrics().getLookups(), is(3L));
+        assertThat(resolver.getMetrics().getResolutions(), is(1L));
+    }
+
+    @Test
+    public void shouldUseTheDefaultMatcherIfTheGlobalPropertyIsNotSet() {
+        resolver.findEncounter(visit, encounterParameters);
+
+        assertThat(resolver.getMetrics().getMatcherClass(), is(DefaultEncounterMatcher.class.getCanonicalName()));
+    }
+
+    @Test
+    public void shouldSwitchMatcherWhenTheGlobalPropertyChanges() {
+        resolver.findEncounter(visit, encounterParameters);
+
+        resolver.globalPropertyChanged(new GlobalProperty(EmrApiConstants.GP_ENCOUNTER_MATCHER, customMatcher.getClass().getCanonicalName()));
+        resolver.findEncounter(visit, encounterParameters);
+
+        verify(customMatcher).findEncounter(visit, encounterParameters);
+        verify(administrationService, times(1)).getGlobalProperty(EmrApiConstants.GP_ENCOUNTER_MATCHER);
+
+        resolver.globalPropertyDeleted(EmrApiConstants.GP_ENCOUNTER_MATCHER);
+        resolver.findEncounter(visit, encounterParameters);
+
+        verify(customMatcher, times(1)).findEncounter(visit, encounterParameters);
+        assertThat(resolver.getMetrics().getMatcherClass(), is(DefaultEncounterMatcher.class.getCanonicalName()));
+        assertThat(resolver.getMetrics().getResolutions(), is(3L));
+    }
+
+    @Test(expected = EncounterMatcherNotFoundException.class)
+    public void shouldFailIfTheGlobalPropertyNamesAnUnknownMatcher() {
+        when(administrationService.getGlobalProperty(EmrApiConstants.GP_ENCOUNTER_MATCHER)).thenReturn("invalid.EncounterMatcher");
+
+        resolver.findEncounter(visit, encounterParameters);
+    }
+
+}
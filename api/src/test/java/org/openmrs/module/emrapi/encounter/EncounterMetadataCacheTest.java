@@ -0,0 +1,152 @@
+package org.openmrs.module.emrapi.encounter;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.Concept;
+import org.openmrs.EncounterType;
+import org.openmrs.api.ConceptService;
+import org.openmrs.api.EncounterService;
+import org.openmrs.api.LocationService;
+import org.openmrs.api.VisitService;
+import org.springframework.aop.framework.Advised;
+import org.springframework.aop.framework.ProxyFactory;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class EncounterMetadataCacheTest {
+
+    private EncounterMetadataCache cache;
+
+    private ConceptService conceptService;
+
+    private EncounterService encounterService;
+
+    private Concept weight;
+
+    private Concept height;
+
+    @Before
+    public void setUp() {
+        conceptService = mock(ConceptService.class);
+        encounterService = mock(EncounterService.class);
+
+        cache = new EncounterMetadataCache();
+        cache.setConceptService(conceptService);
+        cache.setEncounterService(encounterService);
+        cache.setLocationService(mock(LocationService.class));
+        cache.setVisitService(mock(VisitService.class));
+
+        weight = new Concept(5089);
+        weight.setUuid("weight-uuid");
+        height = new Concept(5090);
+        height.setUuid("height-uuid");
+        when(conceptService.getConceptByUuid("weight-uuid")).thenReturn(weight);
+        when(conceptService.getConcept(5089)).thenReturn(weight);
+        when(conceptService.getConceptByUuid("height-uuid")).thenReturn(height);
+        when(conceptService.getConcept(5090)).thenReturn(height);
+    }
+
+    @Test
+    public void shouldLookUpEachUuidOnceAndThenLoadById() {
+        assertThat(cache.getConcept("weight-uuid"), is(weight));
+        assertThat(cache.getConcept("weight-uuid"), is(weight));
+        assertThat(cache.getConcept("weight-uuid"), is(weight));
+
+        verify(conceptService, times(1)).getConceptByUuid("weight-uuid");
+        verify(conceptService, times(2)).getConcept(5089);
+    }
+
+    @Test
+    public void shouldKeepDifferentKindsOfMetadataApart() {
+        EncounterType encounterType = new EncounterType(5089);
+        when(encounterService.getEncounterTypeByUuid("weight-uuid")).thenReturn(encounterType);
+
+        cache.getConcept("weight-uuid");
+
+        assertThat(cache.getEncounterType("weight-uuid"), is(encounterType));
+        verify(encounterService).getEncounterTypeByUuid("weight-uuid");
+    }
+
+    @Test
+    public void shouldLookUpByUuidAgainOnceInvalidated() {
+        cache.getConcept("weight-uuid");
+        cache.invalidate();
+        cache.getConcept("weight-uuid");
+
+        verify(conceptService, times(2)).getConceptByUuid("weight-uuid");
+        verify(conceptService, never()).getConcept(5089);
+    }
+
+    @Test
+    public void shouldOnlyBeInvalidatedBySavesWhileItsAdviceIsRegistered() {
+        ConceptService advisedConceptService = (ConceptService) new ProxyFactory(conceptService).getProxy();
+        cache.setConceptService(advisedConceptService);
+
+        cache.registerInvalidationAdvice();
+        assertThat(((Advised) advisedConceptService).getAdvisors().length, is(1));
+        cache.getConcept("weight-uuid");
+        advisedConceptService.getConceptByUuid("weight-uuid");
+        cache.getConcept("weight-uuid");
+        verify(conceptService, times(2)).getConceptByUuid("weight-uuid");
+
+        advisedConceptService.saveConcept(weight);
+        cache.getConcept("weight-uuid");
+        verify(conceptService, times(3)).getConceptByUuid("weight-uuid");
+
+        cache.removeInvalidationAdvice();
+        assertThat(((Advised) advisedConceptService).getAdvisors().length, is(0));
+        cache.getConcept("weight-uuid");
+        advisedConceptService.saveConcept(weight);
+        cache.getConcept("weight-uuid");
+        verify(conceptService, times(4)).getConceptByUuid("weight-uuid");
+    }
+
+    @Test
+    public void shouldLookUpByUuidAgainOnceExpired() {
+        cache.setTimeToLiveSeconds(0);
+
+        cache.getConcept("weight-uuid");
+        cache.getConcept("weight-uuid");
+
+        verify(conceptService, times(2)).getConceptByUuid("weight-uuid");
+    }
+
+    @Test
+    public void shouldForgetTheLeastRecentlyUsedUuidsBeyondTheMaximum() {
+        cache.setMaxEntries(1);
+
+        cache.getConcept("weight-uuid");
+        cache.getConcept("height-uuid");
+        cache.getConcept("height-uuid");
+        cache.getConcept("weight-uuid");
+
+        verify(conceptService, times(2)).getConceptByUuid("weight-uuid");
+        verify(conceptService, times(1)).getConceptByUuid("height-uuid");
+        verify(conceptService, times(1)).getConcept(5090);
+    }
+
+    @Test
+    public void shouldNotRememberUuidsThatWereNotFound() {
+        assertNull(cache.getConcept("missing-uuid"));
+        assertNull(cache.getConcept("missing-uuid"));
+
+        verify(conceptService, times(2)).getConceptByUuid("missing-uuid");
+    }
+
+    @Test
+    public void shouldLookUpByUuidIfTheRememberedIdIsGone() {
+        cache.getConcept("weight-uuid");
+        when(conceptService.getConcept(5089)).thenReturn(null);
+        cache.getConcept("weight-uuid");
+
+        verify(conceptService, times(2)).getConceptByUuid("weight-uuid");
+    }
+
+}
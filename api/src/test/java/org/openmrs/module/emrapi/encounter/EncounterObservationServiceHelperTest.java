@@ -370,6 +370,34 @@ public class EncounterObservationServiceHelperTest {
         }
     }
 
+    @Test
+    public void shouldFindTheExistingDiagnosisObsAmongTheEncountersObs() {
+        String diagnosisConceptUuid = "f100e906-2c1c-11e3-bd6a-d72943d76e9f";
+        String existingObsUuid = "obs-uuid";
+        List<EncounterTransaction.Diagnosis> diagnoses = asList(
+                new EncounterTransaction.Diagnosis().setCertainty("PRESUMED").setOrder("PRIMARY")
+                        .setCodedAnswer(new EncounterTransaction.Concept(diagnosisConceptUuid, "conceptName"))
+                        .setExistingObs(existingObsUuid)
+        );
+
+        Encounter encounter = new Encounter();
+        encounter.setUuid("e-uuid");
+        encounter.setEncounterDatetime(new Date());
+        Obs savedObservations = new Obs();
+        savedObservations.setUuid(existingObsUuid);
+        encounter.addObs(savedObservations);
+
+        when(diagnosisMetadata.buildDiagnosisObsGroup(any(org.openmrs.module.emrapi.diagnosis.Diagnosis.class))).thenReturn(savedObservations);
+        when(conceptService.getConceptByUuid(diagnosisConceptUuid)).thenReturn(new Concept());
+
+        encounterObservationServiceHelper.updateDiagnoses(encounter, diagnoses);
+
+        ArgumentCaptor<org.openmrs.module.emrapi.diagnosis.Diagnosis> diagnosisCaptor = ArgumentCaptor.forClass(org.openmrs.module.emrapi.diagnosis.Diagnosis.class);
+        verify(diagnosisMetadata).buildDiagnosisObsGroup(diagnosisCaptor.capture());
+        assertEquals(savedObservations, diagnosisCaptor.getValue().getExistingObs());
+        verify(obsService, never()).getObsByUuid(existingObsUuid);
+    }
+
     @Test
     public void shouldLinkOrderWithObservation() throws ParseException {
         Concept numericConcept = newConcept(new ConceptDataTypeBuilder().numeric(), NUMERIC_CONCEPT_UUID);
@@ -0,0 +1,87 @@
+package org.openmrs.module.emrapi.encounter;
+
+import org.junit.Test;
+import org.openmrs.Concept;
+import org.openmrs.Encounter;
+import org.openmrs.Obs;
+
+import java.util.Arrays;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThat;
+
+public class ObsIndexTest {
+
+    @Test
+    public void shouldFindTheEncountersNonVoidedTopLevelObsByUuid() {
+        Obs group = newObs("group-uuid", "group-concept-uuid");
+        Obs member = newObs("member-uuid", "member-concept-uuid");
+        group.addGroupMember(member);
+        Obs voided = newObs("voided-uuid", "group-concept-uuid");
+        voided.setVoided(true);
+        Encounter encounter = new Encounter();
+        encounter.addObs(group);
+        encounter.addObs(member);
+        encounter.addObs(voided);
+
+        ObsIndex index = ObsIndex.forEncounter(encounter);
+
+        assertSame(group, index.getByUuid("group-uuid"));
+        assertNull(index.getByUuid("member-uuid"));
+        assertNull(index.getByUuid("voided-uuid"));
+        assertNull(index.getByUuid(null));
+    }
+
+    @Test
+    public void shouldFindTheFirstObsOfAConceptThatIsStillNotVoided() {
+        Obs first = newObs("first-uuid", "concept-uuid");
+        Obs second = newObs("second-uuid", "concept-uuid");
+        ObsIndex index = new ObsIndex(Arrays.asList(first, second));
+
+        assertSame(first, index.getByConceptUuid("concept-uuid"));
+
+        first.setVoided(true);
+        assertSame(second, index.getByConceptUuid("concept-uuid"));
+        assertNull(index.getByConceptUuid("other-concept-uuid"));
+    }
+
+    @Test
+    public void shouldFindObsAddedAfterItWasBuilt() {
+        ObsIndex index = new ObsIndex(null);
+        Obs obs = newObs("obs-uuid", "concept-uuid");
+
+        index.add(obs);
+        index.add(obs);
+
+        assertSame(obs, index.getByUuid("obs-uuid"));
+        assertSame(obs, index.getByConceptUuid("concept-uuid"));
+    }
+
+    @Test
+    public void shouldIndexTheMembersOfAGroupOnce() {
+        Obs group = newObs("group-uuid", "group-concept-uuid");
+        Obs member = newObs("member-uuid", "member-concept-uuid");
+        group.addGroupMember(member);
+        ObsIndex index = new ObsIndex(Arrays.asList(group));
+
+        ObsIndex members = index.getGroupMembers(group);
+        Obs added = newObs("added-uuid", "added-concept-uuid");
+        members.add(added);
+
+        assertSame(members, index.getGroupMembers(group));
+        assertSame(member, members.getByConceptUuid("member-concept-uuid"));
+        assertThat(index.getGroupMembers(group).getByUuid("added-uuid"), is(added));
+    }
+
+    private Obs newObs(String uuid, String conceptUuid) {
+        Concept concept = new Concept();
+        concept.setUuid(conceptUuid);
+        Obs obs = new Obs();
+        obs.setUuid(uuid);
+        obs.setConcept(concept);
+        return obs;
+    }
+
+}
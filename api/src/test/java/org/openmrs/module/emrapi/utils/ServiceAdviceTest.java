@@ -0,0 +1,57 @@
+package org.openmrs.module.emrapi.utils;
+
+import org.junit.Test;
+import org.openmrs.Location;
+import org.openmrs.api.LocationService;
+import org.springframework.aop.MethodBeforeAdvice;
+import org.springframework.aop.framework.Advised;
+import org.springframework.aop.framework.ProxyFactory;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+
+public class ServiceAdviceTest {
+
+    @Test
+    public void shouldAdviseOnlyTheNamedMethodsUntilRemoved() {
+        LocationService locationService = (LocationService) new ProxyFactory(mock(LocationService.class)).getProxy();
+        final List<String> called = new ArrayList<String>();
+
+        ServiceAdvice advice = ServiceAdvice.register(locationService, new MethodBeforeAdvice() {
+            @Override
+            public void before(Method method, Object[] args, Object target) throws Throwable {
+                called.add(method.getName());
+            }
+        }, "save*");
+
+        assertThat(advice.isRegistered(), is(true));
+        locationService.getLocation(1);
+        locationService.saveLocation(new Location());
+        assertThat(called.size(), is(1));
+        assertThat(called.get(0), is("saveLocation"));
+
+        advice.remove();
+        advice.remove();
+        locationService.saveLocation(new Location());
+        assertThat(called.size(), is(1));
+        assertThat(((Advised) locationService).getAdvisors().length, is(0));
+    }
+
+    @Test
+    public void shouldNotRegisterOnAServiceThatCannotBeAdvised() {
+        ServiceAdvice advice = ServiceAdvice.register(mock(LocationService.class), new MethodBeforeAdvice() {
+            @Override
+            public void before(Method method, Object[] args, Object target) throws Throwable {
+            }
+        }, "save*");
+
+        assertThat(advice.isRegistered(), is(false));
+        advice.remove();
+    }
+
+}
@@ -148,6 +148,49 @@ public class VisitDomainWrapperComponentTest extends BaseModuleContextSensitiveT
         assertThat(visitDomainWrapper.isAwaitingAdmission(), is(false));
     }
 
+    @Test
+    public void newVisitDomainWrappers_shouldPrefetchAwaitingAdmissionForAllVisits() throws Exception {
+
+        Location visitLocation = testDataManager.location().name("Visit Location")
+                .tag(EmrApiConstants.LOCATION_TAG_SUPPORTS_VISITS).save();
+
+        // one visit with dispo = ADMIT, and one without
+        Patient patient = testDataManager.randomPatient().save();
+        Visit awaiting =
+                testDataManager.visit()
+                        .patient(patient)
+                        .visitType(emrApiProperties.getAtFacilityVisitType())
+                        .started(new Date())
+                        .location(visitLocation)
+                        .encounter(testDataManager.encounter()
+                                .patient(patient)
+                                .encounterDatetime(new Date())
+                                .encounterType(emrApiProperties.getVisitNoteEncounterType())
+                                .obs(testDataManager.obs()
+                                        .concept(dispositionDescriptor.getDispositionConcept())
+                                        .value(emrConceptService.getConcept("org.openmrs.module.emrapi:Admit to hospital"))
+                                        .get())
+                                .get())
+                        .save();
+
+        Patient anotherPatient = testDataManager.randomPatient().save();
+        Visit notAwaiting =
+                testDataManager.visit()
+                        .patient(anotherPatient)
+                        .visitType(emrApiProperties.getAtFacilityVisitType())
+                        .started(new Date())
+                        .location(visitLocation)
+                        .save();
+
+        List<VisitDomainWrapper> wrappers = factory.newVisitDomainWrappers(Arrays.asList(awaiting, notAwaiting), true);
+
+        assertThat(wrappers.size(), is(2));
+        assertThat(wrappers.get(0).getVisit(), is(awaiting));
+        assertThat(wrappers.get(0).isAwaitingAdmission(), is(true));
+        assertThat(wrappers.get(1).getVisit(), is(notAwaiting));
+        assertThat(wrappers.get(1).isAwaitingAdmission(), is(false));
+    }
+
     @Test
     public void getVisitAttribute_shouldReturnNullIfNoVisitAttributes() {
         Visit visit = visitService.getVisit(1); // from standard test dataset
@@ -24,6 +24,10 @@ import org.openmrs.module.emrapi.disposition.DispositionDescriptor;
 import org.openmrs.module.emrapi.disposition.DispositionService;
 import org.openmrs.module.emrapi.disposition.DispositionType;
 import org.openmrs.module.emrapi.test.MockMetadataTestUtil;
+import org.openmrs.module.reporting.evaluation.EvaluationContext;
+import org.openmrs.module.reporting.query.visit.VisitQueryResult;
+import org.openmrs.module.reporting.query.visit.definition.VisitQuery;
+import org.openmrs.module.reporting.query.visit.service.VisitQueryService;
 import org.powermock.api.mockito.PowerMockito;
 import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
@@ -46,6 +50,7 @@ import static org.hamcrest.core.Is.is;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -110,6 +115,93 @@ public class VisitDomainWrapperTest {
         assertThat(wrapper.getMostRecentEncounter(), is(visitNote));
     }
 
+    @Test
+    public void shouldReflectEncountersAddedThroughTheWrapperOrToTheVisit() throws Exception {
+        EncounterType checkInEncounterType = new EncounterType();
+
+        EmrApiProperties props = mock(EmrApiProperties.class);
+        when(props.getCheckInEncounterType()).thenReturn(checkInEncounterType);
+
+        Encounter checkIn = new Encounter();
+        checkIn.setEncounterDatetime(DateUtils.addHours(new Date(), -3));
+        checkIn.setEncounterType(checkInEncounterType);
+
+        Visit visit = new Visit();
+        visit.setEncounters(new LinkedHashSet<Encounter>());
+        visit.addEncounter(checkIn);
+
+        VisitDomainWrapper wrapper = new VisitDomainWrapper(visit, props);
+        assertThat(wrapper.getMostRecentEncounter(), is(checkIn));
+
+        Encounter laterCheckIn = new Encounter();
+        laterCheckIn.setEncounterDatetime(DateUtils.addHours(new Date(), -2));
+        laterCheckIn.setEncounterType(checkInEncounterType);
+        wrapper.addEncounter(laterCheckIn);
+
+        assertThat(wrapper.getMostRecentCheckInEncounter(), is(laterCheckIn));
+        assertThat(wrapper.getEarliestCheckInEncounter(), is(checkIn));
+
+        Encounter vitals = new Encounter();
+        vitals.setEncounterDatetime(DateUtils.addHours(new Date(), -1));
+        visit.addEncounter(vitals);
+
+        assertThat(wrapper.getMostRecentEncounter(), is(vitals));
+        assertThat(wrapper.getSortedEncounters(VisitDomainWrapper.SortOrder.EARLIEST_FIRST).size(), is(3));
+    }
+
+    @Test
+    public void shouldReflectEncountersVoidedOrRedatedAfterTheVisitWasWrapped() throws Exception {
+        EncounterType checkInEncounterType = new EncounterType();
+
+        EmrApiProperties props = mock(EmrApiProperties.class);
+        when(props.getCheckInEncounterType()).thenReturn(checkInEncounterType);
+
+        Encounter checkIn = new Encounter();
+        checkIn.setEncounterDatetime(DateUtils.addHours(new Date(), -3));
+        checkIn.setEncounterType(checkInEncounterType);
+        Encounter vitals = new Encounter();
+        vitals.setEncounterDatetime(DateUtils.addHours(new Date(), -2));
+        Encounter visitNote = new Encounter();
+        visitNote.setEncounterDatetime(DateUtils.addHours(new Date(), -1));
+
+        Visit visit = new Visit();
+        visit.setEncounters(new LinkedHashSet<Encounter>());
+        visit.addEncounter(checkIn);
+        visit.addEncounter(vitals);
+        visit.addEncounter(visitNote);
+
+        VisitDomainWrapper wrapper = new VisitDomainWrapper(visit, props);
+        assertThat(wrapper.getMostRecentEncounter(), is(visitNote));
+
+        visitNote.setVoided(true);
+        assertThat(wrapper.getMostRecentEncounter(), is(vitals));
+        assertThat(wrapper.getSortedEncounters().size(), is(2));
+
+        checkIn.getEncounterDatetime().setTime(new Date().getTime());  // re-dated in place
+        assertThat(wrapper.getMostRecentEncounter(), is(checkIn));
+        assertThat(wrapper.getOldestEncounter(), is(vitals));
+
+        vitals.setEncounterType(checkInEncounterType);
+        assertThat(wrapper.getEarliestCheckInEncounter(), is(vitals));
+    }
+
+    @Test
+    public void shouldReevaluateAwaitingAdmissionOnceAnEncounterIsAdded() throws Exception {
+        VisitQueryResult noVisits = mock(VisitQueryResult.class);
+        when(noVisits.getMemberIds()).thenReturn(new HashSet<Integer>());
+        VisitQueryService visitQueryService = mock(VisitQueryService.class);
+        when(visitQueryService.evaluate(any(VisitQuery.class), any(EvaluationContext.class))).thenReturn(noVisits);
+        when(visit.getVisitId()).thenReturn(1);
+        visitDomainWrapper.setVisitQueryService(visitQueryService);
+        visitDomainWrapper.setAwaitingAdmission(true);
+
+        assertTrue(visitDomainWrapper.isAwaitingAdmission());
+
+        visitDomainWrapper.addEncounter(new Encounter());
+
+        assertFalse(visitDomainWrapper.isAwaitingAdmission());
+    }
+
     @Test
     public void shouldReturnDifferenceInDaysBetweenCurrentDateAndStartDate(){
         Calendar startDate = Calendar.getInstance();
@@ -402,6 +494,52 @@ public class VisitDomainWrapperTest {
 
    }
 
+    @Test
+    public void shouldAnswerPointInTimeAdmissionQuestionsAcrossDischargeAndReadmission() {
+
+        EncounterType admitEncounterType = new EncounterType();
+        EncounterType transferEncounterType = new EncounterType();
+        EncounterType dischargeEncounterType = new EncounterType();
+
+        Location icu = new Location();
+        Location surgery = new Location();
+        Location maternity = new Location();
+
+        Date now = new Date();
+        when(visit.getStartDatetime()).thenReturn(DateUtils.addHours(now, -10));
+
+        EmrApiProperties props = mock(EmrApiProperties.class);
+        when(props.getAdmissionEncounterType()).thenReturn(admitEncounterType);
+        when(props.getTransferWithinHospitalEncounterType()).thenReturn(transferEncounterType);
+        when(props.getExitFromInpatientEncounterType()).thenReturn(dischargeEncounterType);
+        visitDomainWrapper.setEmrApiProperties(props);
+
+        Set<Encounter> encounters = new LinkedHashSet<Encounter>();
+        encounters.add(encounter(admitEncounterType, DateUtils.addHours(now, -8), icu));
+        encounters.add(encounter(transferEncounterType, DateUtils.addHours(now, -6), surgery));
+        encounters.add(encounter(dischargeEncounterType, DateUtils.addHours(now, -4), surgery));
+        encounters.add(encounter(admitEncounterType, DateUtils.addHours(now, -2), maternity));
+        when(visit.getEncounters()).thenReturn(encounters);
+
+        assertFalse(visitDomainWrapper.isAdmitted(DateUtils.addHours(now, -9)));
+        assertTrue(visitDomainWrapper.isAdmitted(DateUtils.addHours(now, -8)));
+        assertThat(visitDomainWrapper.getInpatientLocation(DateUtils.addHours(now, -7)), is(icu));
+        assertThat(visitDomainWrapper.getInpatientLocation(DateUtils.addHours(now, -5)), is(surgery));
+        assertFalse(visitDomainWrapper.isAdmitted(DateUtils.addHours(now, -3)));
+        assertNull(visitDomainWrapper.getInpatientLocation(DateUtils.addHours(now, -3)));
+        assertThat(visitDomainWrapper.getInpatientLocation(now), is(maternity));
+        assertTrue(visitDomainWrapper.isAdmitted());
+        assertFalse(visitDomainWrapper.hasBeenDischarged());
+    }
+
+    private Encounter encounter(EncounterType type, Date datetime, Location location) {
+        Encounter encounter = new Encounter();
+        encounter.setEncounterType(type);
+        encounter.setEncounterDatetime(datetime);
+        encounter.setLocation(location);
+        return encounter;
+    }
+
     @Test
     public void shouldReturnNullIfPatientNotAdmittedOnDate() {
 
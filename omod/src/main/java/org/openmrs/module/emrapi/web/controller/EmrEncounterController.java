@@ -18,12 +18,14 @@ import org.openmrs.module.emrapi.encounter.ActiveEncounterParameters;
 import org.openmrs.module.emrapi.encounter.EmrEncounterService;
 import org.openmrs.module.emrapi.encounter.EncounterSearchParameters;
 import org.openmrs.module.emrapi.encounter.domain.EncounterTransaction;
+import org.openmrs.module.emrapi.encounter.domain.EncounterTransactionSaveResult;
 import org.openmrs.module.webservices.rest.web.v1_0.controller.BaseRestController;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Controller;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.bind.annotation.*;
 
+import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
 
@@ -41,6 +43,15 @@ public class EmrEncounterController extends BaseRestController {
         return emrEncounterService.save(encounterTransaction);
     }
 
+    /**
+     * Saves many encounter transactions (e.g. synced from an offline device), reporting success or failure for each
+     */
+    @RequestMapping(method = RequestMethod.POST, value = "/batch")
+    @ResponseBody
+    public List<EncounterTransactionSaveResult> updateAll(@RequestBody EncounterTransaction[] encounterTransactions) {
+        return emrEncounterService.saveAll(Arrays.asList(encounterTransactions));
+    }
+
     @RequestMapping(method = RequestMethod.GET, value = "/active")
     @ResponseBody
     public EncounterTransaction getActiveEncounter(@ModelAttribute("activeEncounterParameters") ActiveEncounterParameters activeEncounterParameters) {
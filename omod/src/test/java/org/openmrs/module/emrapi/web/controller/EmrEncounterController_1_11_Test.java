@@ -15,20 +15,34 @@ package org.openmrs.module.emrapi.web.controller;
 
 import org.apache.commons.lang3.time.DateUtils;
 import org.codehaus.jackson.type.TypeReference;
+import org.junit.After;
 import org.junit.Ignore;
 import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.openmrs.*;
+import org.openmrs.api.APIException;
+import org.openmrs.api.AdministrationService;
 import org.openmrs.api.ObsService;
 import org.openmrs.api.VisitService;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.emrapi.EmrApiConstants;
+import org.openmrs.module.emrapi.encounter.EmrEncounterService;
+import org.openmrs.module.emrapi.encounter.EmrEncounterServiceImpl;
 import org.openmrs.module.emrapi.encounter.domain.EncounterTransaction;
+import org.openmrs.module.emrapi.encounter.domain.EncounterTransactionSaveResult;
 import org.openmrs.module.emrapi.encounter.exception.EncounterMatcherNotFoundException;
+import org.springframework.aop.framework.Advised;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.util.ReflectionTestUtils;
 
+import java.lang.reflect.InvocationTargetException;
 import java.text.SimpleDateFormat;
 import java.util.*;
 
 import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
 
 @org.springframework.test.context.ContextConfiguration(locations = {"classpath:moduleApplicationContext.xml"}, inheritLocations = true)
 public class EmrEncounterController_1_11_Test extends BaseEmrControllerTest {
@@ -37,8 +51,21 @@ public class EmrEncounterController_1_11_Test extends BaseEmrControllerTest {
     private VisitService visitService;
     @Autowired
     private ObsService obsService;
+    @Autowired
+    private EmrEncounterService emrEncounterService;
+    @Autowired
+    private EmrEncounterController emrEncounterController;
     private String dateTimeFormat = "yyyy-MM-dd'T'HH:mm:ss.SSSZ";
 
+    @After
+    public void resetEncounterMatcher() {
+        AdministrationService administrationService = Context.getAdministrationService();
+        GlobalProperty encounterMatcher = administrationService.getGlobalPropertyObject(EmrApiConstants.GP_ENCOUNTER_MATCHER);
+        if (encounterMatcher != null) {
+            administrationService.purgeGlobalProperty(encounterMatcher);
+        }
+    }
+
     
     @Test
     public void shouldCreateVisitWhenNoVisitsAreActive() throws Exception {
@@ -85,6 +112,7 @@ public class EmrEncounterController_1_11_Test extends BaseEmrControllerTest {
     @Test
     public void shouldUpdateMatchingEncounterWhenCustomMatchingStrategyIsProvided() throws Exception {
         executeDataSet("shouldUpdateMatchingEncounterWhenCustomMatchingStrategyIsProvided.xml");
+        useEncounterMatcherFromDataSet();
 
         String json = "{ \"patientUuid\" : \"a76e8d23-0c38-408c-b2a8-ea5540f01b51\", " +
                 "\"visitTypeUuid\" : \"b45ca846-c79a-11e2-b0c0-8e397087571c\", " +
@@ -100,6 +128,7 @@ public class EmrEncounterController_1_11_Test extends BaseEmrControllerTest {
     @Test(expected = EncounterMatcherNotFoundException.class)
     public void shouldReturnErrorWhenInvalidMatchingStrategyIsProvided() throws Exception {
         executeDataSet("shouldReturnErrorWhenInvalidMatchingStrategyIsProvided.xml");
+        useEncounterMatcherFromDataSet();
 
         String json = "{ \"patientUuid\" : \"a76e8d23-0c38-408c-b2a8-ea5540f01b51\", " +
                 "\"visitTypeUuid\" : \"b45ca846-c79a-11e2-b0c0-8e397087571c\", " +
@@ -151,6 +180,87 @@ public class EmrEncounterController_1_11_Test extends BaseEmrControllerTest {
         assertEquals(new Double(20.0), map.get(ConceptDatatype.NUMERIC).getValueNumeric());
     }
 
+    @Test
+    public void shouldSaveTheRestOfABatchWhenOneEncounterTransactionFails() throws Exception {
+        executeDataSet("shouldSaveBatchOfEncounterTransactions.xml");
+        // each batch would be saved in a transaction of its own, which could not see the test data, so run the batch
+        // save without its transaction, and have each batch join the test transaction instead
+        EmrEncounterServiceImpl target = (EmrEncounterServiceImpl) ((Advised) emrEncounterService).getTargetSource().getTarget();
+        Object controller = emrEncounterController instanceof Advised ?
+                ((Advised) emrEncounterController).getTargetSource().getTarget() : emrEncounterController;
+        target.setEmrEncounterService(joiningTestTransaction(emrEncounterService, "non-existent-concept-uuid"));
+        ReflectionTestUtils.setField(controller, "emrEncounterService", target);
+        try {
+            assertSavesTheRestOfABatch();
+        } finally {
+            ReflectionTestUtils.setField(controller, "emrEncounterService", emrEncounterService);
+            target.setEmrEncounterService(emrEncounterService);
+        }
+    }
+
+    private void assertSavesTheRestOfABatch() throws Exception {
+        String json = "[" + batchEncounterTransaction("5f0c8a64-2b7e-4a8e-8f3d-7c1d2e3b9101", "first") + ", "
+                + batchEncounterTransaction("non-existent-concept-uuid", "second") + ", "
+                + batchEncounterTransaction("5f0c8a64-2b7e-4a8e-8f3d-7c1d2e3b9101", "third") + "]";
+
+        List<EncounterTransactionSaveResult> results = deserialize(handle(newPostRequest("/rest/emrapi/encounter/batch", json)),
+                new TypeReference<List<EncounterTransactionSaveResult>>() {});
+
+        assertEquals(3, results.size());
+        assertTrue(results.get(0).isSuccess());
+        assertFalse(results.get(1).isSuccess());
+        assertEquals(1, results.get(1).getIndex());
+        assertTrue(results.get(2).isSuccess());
+
+        Set<String> savedValues = new HashSet<String>();
+        for (Encounter encounter : visitService.getVisitByUuid("ae51dfb9-70c3-4fd3-9472-c16273809101").getEncounters()) {
+            for (Obs obs : encounter.getObs()) {
+                savedValues.add(obs.getValueText());
+            }
+        }
+        assertEquals(new HashSet<String>(Arrays.asList("first", "third")), savedValues);
+    }
+
+    /**
+     * Stands in for the service proxy that saveAll calls for each batch: a batch (or save) that includes an observation
+     * of the failing concept fails before anything of it is saved, as its rollback would leave it, and any other is
+     * saved and flushed, as its commit would leave it.
+     */
+    private EmrEncounterService joiningTestTransaction(final EmrEncounterService service, final String failingConceptUuid) {
+        return mock(EmrEncounterService.class, new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                for (Object argument : invocation.getArguments()) {
+                    List<?> encounterTransactions = argument instanceof List ? (List<?>) argument : Arrays.asList(argument);
+                    for (Object encounterTransaction : encounterTransactions) {
+                        for (EncounterTransaction.Observation observation : ((EncounterTransaction) encounterTransaction).getObservations()) {
+                            if (failingConceptUuid.equals(observation.getConceptUuid())) {
+                                throw new APIException("Concept not found: " + failingConceptUuid);
+                            }
+                        }
+                    }
+                }
+                try {
+                    Object result = invocation.getMethod().invoke(service, invocation.getArguments());
+                    Context.flushSession();
+                    return result;
+                } catch (InvocationTargetException e) {
+                    throw e.getCause();
+                }
+            }
+        });
+    }
+
+    private String batchEncounterTransaction(String conceptUuid, String value) {
+        return "{ \"patientUuid\" : \"8c3fbd97-5ea1-4db1-b250-af40516e9101\", " +
+                "\"visitTypeUuid\" : \"3c9e7d2a-6d7e-4d1b-9a51-0b1f5c2e9101\", " +
+                "\"visitLocationUuid\": \"7b2eac86-4d90-4ca0-a14f-9e3f405d9101\", " +
+                "\"encounterTypeUuid\": \"bf62e0ca-81d4-40e4-a583-d27384919101\", " +
+                "\"encounterDateTime\" : \"2005-01-02T00:00:00.000+0000\", " +
+                "\"observations\":[" +
+                    "{\"concept\": {\"uuid\": \"" + conceptUuid + "\"}, \"value\":\"" + value + "\"}]}";
+    }
+
     
     @Test
     public void shouldAddNewObservationGroup() throws Exception {
@@ -396,6 +506,15 @@ public class EmrEncounterController_1_11_Test extends BaseEmrControllerTest {
         assertEquals(1, encounterTransactions.size());
     }
 
+    /**
+     * The encounter matcher is only looked up again when its global property is saved through the service, which a
+     * dataset does not do
+     */
+    private void useEncounterMatcherFromDataSet() {
+        AdministrationService administrationService = Context.getAdministrationService();
+        administrationService.saveGlobalProperty(administrationService.getGlobalPropertyObject(EmrApiConstants.GP_ENCOUNTER_MATCHER));
+    }
+
     private List<String> getAllObsUuids(Set<Obs> obsAtTopLevel) {
         ArrayList<String> obsUuids = new ArrayList<String>();
         for (Obs observation : obsAtTopLevel) {